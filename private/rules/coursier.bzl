@@ -192,7 +192,8 @@ def _execute_with_argsfile(
         tool_name,
         progress_message,
         error_description,
-        files_to_inspect):
+        files_to_inspect,
+        environment = {}):
     # Currently each tool can only be used once per repository.
     # This could be avoided by adding a disambiguator to the argsfile name.
 
@@ -211,6 +212,7 @@ def _execute_with_argsfile(
     exec_result = _execute(
         repository_ctx,
         command + ["--argsfile", repository_ctx.path("{}_argsfile".format(tool_name))],
+        environment = environment,
         progress_message = progress_message,
     )
     if exec_result.return_code != 0:
@@ -1380,28 +1382,20 @@ def _coursier_fetch_impl(repository_ctx):
 
         files_to_inspect.append(repository_ctx.path(artifact["file"]))
 
-    hasher_stdout = _execute_with_argsfile(
-        repository_ctx,
-        repository_ctx.attr._sha256_hasher,
-        "hasher",
-        "Calculating sha256 checksums..",
-        "obtaining the sha256 checksums",
-        files_to_inspect,
-    )
-
-    shas = {}
-    for line in hasher_stdout.splitlines():
-        parts = line.split(" ")
-        path = str(repository_ctx.path(parts[1]))
-        shas[path] = parts[0]
-
+    # Hash and index every jar in one go, so that each jar is only read once. The hashes are kept
+    # next to the coursier cache so unchanged jars aren't read again when the repository is
+    # refetched.
     index_jars_stdout = _execute_with_argsfile(
         repository_ctx,
         repository_ctx.attr._index_jar,
         "jar_indexer",
-        "Indexing jars",
-        "indexing jars",
+        "Hashing and indexing jars",
+        "hashing and indexing jars",
         files_to_inspect,
+        environment = {
+            "RJE_HASH_AND_INDEX": "1",
+            "RJE_HASH_CACHE": str(repository_ctx.path(coursier_cache_path)),
+        },
     )
 
     jars_to_index_results = json.decode(index_jars_stdout)
@@ -1410,6 +1404,28 @@ def _coursier_fetch_impl(repository_ctx):
         if path != jar:
             jars_to_index_results[path] = jars_to_index_results.pop(jar)
 
+    shas = {}
+    for path, index_results in jars_to_index_results.items():
+        if "sha256" in index_results:
+            shas[path] = index_results["sha256"]
+
+    if len(shas) != len(jars_to_index_results):
+        # The prebuilt indexer predates hashing, so calculate the hashes separately.
+        hasher_stdout = _execute_with_argsfile(
+            repository_ctx,
+            repository_ctx.attr._sha256_hasher,
+            "hasher",
+            "Calculating sha256 checksums..",
+            "obtaining the sha256 checksums",
+            files_to_inspect,
+            environment = {"RJE_HASH_CACHE": str(repository_ctx.path(coursier_cache_path))},
+        )
+
+        for line in hasher_stdout.splitlines():
+            parts = line.split(" ")
+            path = str(repository_ctx.path(parts[1]))
+            shas[path] = parts[0]
+
     for artifact in dep_tree["dependencies"]:
         file = artifact["file"]
         if file == None:
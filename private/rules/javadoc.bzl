@@ -1,5 +1,6 @@
 load("@compatibility_proxy//:proxy.bzl", "JavaInfo")
 load(":maven_project_jar.bzl", "DEFAULT_EXCLUDED_WORKSPACES")
+load(":workers.bzl", "WORKER_EXECUTION_REQUIREMENTS", "worker_args")
 
 _JavadocInfo = provider(
     fields = {
@@ -30,7 +31,7 @@ def generate_javadoc(
         element_list):
     inputs = []
     transitive_inputs = []
-    args = ctx.actions.args()
+    args = worker_args(ctx.actions)
 
     args.add("--out", output)
     args.add("--element-list", element_list)
@@ -65,6 +66,10 @@ def generate_javadoc(
         outputs = [output, element_list],
         inputs = depset(inputs, transitive = transitive_inputs),
         arguments = [args],
+        mnemonic = "JavadocJar",
+        # javadoc isn't known to be safe to run several times at once in the same JVM, so this
+        # doesn't support multiplexing.
+        execution_requirements = WORKER_EXECUTION_REQUIREMENTS,
     )
 
 def _javadoc_impl(ctx):
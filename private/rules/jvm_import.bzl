@@ -11,6 +11,7 @@ load("@compatibility_proxy//:proxy.bzl", "JavaInfo")
 load("@rules_license//rules:providers.bzl", "PackageInfo")
 load("//private/lib:coordinates.bzl", "to_external_form", "to_purl", "unpack_coordinates")
 load("//private/lib:urls.bzl", "scheme_and_host")
+load("//private/rules:workers.bzl", "WORKER_EXECUTION_REQUIREMENTS", "worker_args")
 load("//settings:stamp_manifest.bzl", "StampManifestProvider")
 
 def _jvm_import_impl(ctx):
@@ -30,7 +31,7 @@ def _jvm_import_impl(ctx):
 
     if ctx.attr._stamp_manifest[StampManifestProvider].stamp_enabled:
         outjar = ctx.actions.declare_file("processed_" + injar.basename, sibling = injar)
-        args = ctx.actions.args()
+        args = worker_args(ctx.actions)
         args.add_all(["--source", injar, "--output", outjar])
         args.add("--manifest-entry", ctx.label, format = "Target-Label:%s")
         ctx.actions.run(
@@ -40,12 +41,13 @@ def _jvm_import_impl(ctx):
             outputs = [outjar],
             mnemonic = "StampJarManifest",
             progress_message = "Stamping the manifest of %{label}",
+            execution_requirements = WORKER_EXECUTION_REQUIREMENTS,
         )
     else:
         outjar = injar
 
     compilejar = ctx.actions.declare_file("header_" + injar.basename, sibling = injar)
-    args = ctx.actions.args()
+    args = worker_args(ctx.actions)
     args.add_all(["--source", outjar, "--output", compilejar])
 
     # We need to remove the `Class-Path` entry since bazel 4.0.0 forces `javac`
@@ -66,6 +68,7 @@ def _jvm_import_impl(ctx):
         outputs = [compilejar],
         mnemonic = "CreateCompileJar",
         progress_message = "Creating compile jar for %s" % ctx.label,
+        execution_requirements = WORKER_EXECUTION_REQUIREMENTS,
     )
 
     additional_providers = []
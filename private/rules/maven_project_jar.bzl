@@ -5,6 +5,7 @@ load("//private/lib:bzlmod.bzl", "get_module_name_of_owner_of_repo")
 load("//private/lib:coordinates.bzl", "to_external_form", "to_purl", "unpack_coordinates")
 load(":has_maven_deps.bzl", "MavenInfo", "calculate_artifact_jars", "calculate_artifact_source_jars", "has_maven_deps")
 load(":maven_utils.bzl", "determine_additional_dependencies")
+load(":workers.bzl", "MULTIPLEX_WORKER_EXECUTION_REQUIREMENTS", "worker_args")
 
 DEFAULT_EXCLUDED_WORKSPACES = [
     # Note: we choose to drop the dependency entirely because
@@ -42,8 +43,12 @@ def _strip_toolchain_protobuf_runtime(jar_files, java_toolchain):
     ))
 
 def _combine_jars(ctx, merge_jars, inputs, excludes, allowed_duplicates, output):
-    args = ctx.actions.args()
+    args = worker_args(ctx.actions)
     args.add("--output", output)
+
+    # Entries are already compressed in the input jars, and recompressing them dominates the
+    # cost of merging large jars.
+    args.add("--copy-raw")
     args.add_all(inputs, before_each = "--sources")
     args.add_all(excludes, before_each = "--exclude")
     args.add_all(allowed_duplicates, before_each = "--allow-duplicate")
@@ -54,6 +59,8 @@ def _combine_jars(ctx, merge_jars, inputs, excludes, allowed_duplicates, output)
         outputs = [output],
         executable = merge_jars,
         arguments = [args],
+        # MergeJars keeps no state between requests
+        execution_requirements = MULTIPLEX_WORKER_EXECUTION_REQUIREMENTS,
     )
 
 def _maven_project_jar_impl(ctx):
@@ -100,7 +107,7 @@ def _maven_project_jar_impl(ctx):
     # Add manifest lines if necessary
     if len(ctx.attr.manifest_entries.items()):
         bin_jar = ctx.actions.declare_file("amended_%s.jar" % ctx.label.name)
-        args = ctx.actions.args()
+        args = worker_args(ctx.actions)
         args.add_all(["--source", intermediate_jar, "--output", bin_jar])
         args.add_all(
             ["%s:%s" % (k, v) for (k, v) in ctx.attr.manifest_entries.items()],
@@ -113,6 +120,8 @@ def _maven_project_jar_impl(ctx):
             outputs = [bin_jar],
             mnemonic = "AmendManifestEntry",
             progress_message = "Adding additional manifest entries %s" % ctx.label,
+            # AddJarManifestEntry keeps no state between requests
+            execution_requirements = MULTIPLEX_WORKER_EXECUTION_REQUIREMENTS,
         )
     else:
         bin_jar = intermediate_jar
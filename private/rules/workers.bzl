@@ -0,0 +1,27 @@
+"""Helpers for actions whose tools can run as Bazel persistent workers."""
+
+# Lets Bazel keep a warm JVM around to run the action. Singleplex workers can still be sandboxed.
+WORKER_EXECUTION_REQUIREMENTS = {
+    "supports-workers": "1",
+}
+
+# Also lets one worker handle several actions at once. Bazel doesn't sandbox multiplex workers, so
+# only use this for actions whose tools keep no state between requests and only read their inputs.
+MULTIPLEX_WORKER_EXECUTION_REQUIREMENTS = {
+    "supports-multiplex-workers": "1",
+    "supports-workers": "1",
+}
+
+def worker_args(actions):
+    """Returns an `Args` passed in a params file, as Bazel requires before it will use a worker.
+
+    Args:
+        actions: The `ctx.actions` of the rule creating the action.
+
+    Returns:
+        An `Args` object to add the tool's arguments to.
+    """
+    args = actions.args()
+    args.use_param_file("@%s", use_always = True)
+    args.set_param_file_format("multiline")
+    return args
@@ -0,0 +1,113 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.github.bazelbuild.rules_jvm_external;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardOpenOption.READ;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Calculates digests of files without reading them onto the heap. Large files are mapped into
+ * memory a window at a time, and smaller ones are read through a buffer that is reused by each
+ * thread, so the memory used per file is constant no matter how big the file is.
+ */
+public class Digests {
+
+  // Files smaller than this are cheaper to read than to map.
+  private static final long MAP_THRESHOLD = 1024 * 1024;
+  private static final long MAP_WINDOW = 64 * 1024 * 1024;
+  private static final int BUFFER_SIZE = 256 * 1024;
+  private static final ThreadLocal<ByteBuffer> BUFFER =
+      ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private Digests() {
+    // Utility methods
+  }
+
+  public static String sha256(Path path) throws IOException {
+    return toHex(digest(path, newDigest("SHA-256")));
+  }
+
+  /** Feeds the contents of {@code path} to {@code digest} and returns the result. */
+  public static byte[] digest(Path path, MessageDigest digest) throws IOException {
+    digestAll(path, digest);
+    return digest.digest();
+  }
+
+  /**
+   * Feeds the contents of {@code path} to every one of {@code digests}, reading the file only once.
+   * The caller is responsible for completing each digest.
+   */
+  public static void digestAll(Path path, MessageDigest... digests) throws IOException {
+    digestAll(path, MAP_WINDOW, digests);
+  }
+
+  // Visible for testing, so that files spanning several windows needn't be enormous.
+  static void digestAll(Path path, long mapWindow, MessageDigest... digests) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, READ)) {
+      long size = channel.size();
+
+      if (size >= MAP_THRESHOLD) {
+        for (long position = 0; position < size; position += mapWindow) {
+          long length = Math.min(mapWindow, size - position);
+          update(digests, channel.map(READ_ONLY, position, length));
+        }
+      } else {
+        ByteBuffer buffer = BUFFER.get();
+        buffer.clear();
+        while (channel.read(buffer) != -1) {
+          buffer.flip();
+          update(digests, buffer);
+          buffer.clear();
+        }
+      }
+    }
+  }
+
+  private static void update(MessageDigest[] digests, ByteBuffer buffer) {
+    if (digests.length == 1) {
+      digests[0].update(buffer);
+      return;
+    }
+    // Updating a digest consumes the buffer, so each one gets its own view of it
+    for (MessageDigest digest : digests) {
+      digest.update(buffer.duplicate());
+    }
+  }
+
+  public static MessageDigest newDigest(String algorithm) {
+    try {
+      return MessageDigest.getInstance(algorithm);
+    } catch (NoSuchAlgorithmException e) {
+      // All the algorithms we use are required to be present in every JRE
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public static String toHex(byte[] bytes) {
+    char[] hex = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+      hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+    }
+    return new String(hex);
+  }
+}
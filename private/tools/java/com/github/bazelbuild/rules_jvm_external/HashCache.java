@@ -0,0 +1,227 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.github.bazelbuild.rules_jvm_external;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An on-disk cache of sha256 hashes. Entries are keyed by the canonical path of a file, and are
+ * only used if the size, modification time and file key (the inode on most systems) of the file
+ * still match the values recorded when the hash was calculated.
+ *
+ * <p>Several repository rules may be hashing files at the same time, so the cache file is only ever
+ * replaced atomically, and updates are merged with whatever is on disk while holding a lock.
+ */
+public class HashCache {
+
+  static final String CACHE_FILE_NAME = ".rje-sha256-cache";
+  private static final String LOCK_FILE_NAME = ".rje-sha256-cache.lock";
+  private static final String HEADER = "# rules_jvm_external sha256 cache v1";
+
+  private final Path cacheFile;
+  private final Path lockFile;
+  private final Map<String, Entry> entries;
+  private final Map<String, Entry> updated = new ConcurrentHashMap<>();
+
+  private HashCache(Path directory) throws IOException {
+    this.cacheFile = directory.resolve(CACHE_FILE_NAME);
+    this.lockFile = directory.resolve(LOCK_FILE_NAME);
+    this.entries = new ConcurrentHashMap<>(read(cacheFile));
+  }
+
+  public static HashCache open(Path directory) throws IOException {
+    Files.createDirectories(directory);
+    return new HashCache(directory);
+  }
+
+  /**
+   * Returns the sha256 of {@code path}, using the cached value if the file has not changed since it
+   * was hashed. When {@code verify} is set, the file is always hashed and any cached value that
+   * disagrees with the file's contents is reported and replaced.
+   */
+  public String sha256(Path path, boolean verify) throws IOException, NoSuchAlgorithmException {
+    Path canonical = path.toRealPath();
+    String key = canonical.toString();
+    BasicFileAttributes before = Files.readAttributes(canonical, BasicFileAttributes.class);
+
+    Entry cached = entries.get(key);
+    boolean cacheHit = cached != null && cached.matches(before);
+    if (cacheHit && !verify) {
+      return cached.sha256;
+    }
+
+    String sha256 = Hasher.sha256(canonical.toFile());
+
+    if (cacheHit && !cached.sha256.equals(sha256)) {
+      System.err.printf(
+          "Cached sha256 for %s was %s but the file hashes to %s. Updating the cache.%n",
+          canonical, cached.sha256, sha256);
+    }
+
+    // Only remember the hash if the file wasn't modified while we were reading it.
+    BasicFileAttributes after = Files.readAttributes(canonical, BasicFileAttributes.class);
+    Entry entry = Entry.of(after, sha256);
+    if (entry.matches(before) && !entry.equals(cached)) {
+      entries.put(key, entry);
+      updated.put(key, entry);
+    }
+
+    return sha256;
+  }
+
+  /**
+   * Writes any new entries to disk. Entries written by other processes since this cache was opened
+   * are preserved, and entries for files which no longer exist are dropped.
+   */
+  public void save() throws IOException {
+    if (updated.isEmpty()) {
+      return;
+    }
+
+    try (FileChannel channel = FileChannel.open(lockFile, CREATE, WRITE);
+        FileLock ignored = channel.lock()) {
+      Map<String, Entry> merged = new TreeMap<>(read(cacheFile));
+      merged.putAll(updated);
+      merged.keySet().removeIf(path -> !Files.exists(Paths.get(path)));
+
+      Path temp = Files.createTempFile(cacheFile.getParent(), CACHE_FILE_NAME, ".tmp");
+      try {
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, UTF_8)) {
+          writer.write(HEADER);
+          writer.newLine();
+          for (Map.Entry<String, Entry> entry : merged.entrySet()) {
+            writer.write(entry.getValue().toLine(entry.getKey()));
+            writer.newLine();
+          }
+        }
+        try {
+          Files.move(temp, cacheFile, REPLACE_EXISTING, ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+          Files.move(temp, cacheFile, REPLACE_EXISTING);
+        }
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+    }
+    updated.clear();
+  }
+
+  private static Map<String, Entry> read(Path cacheFile) throws IOException {
+    Map<String, Entry> toReturn = new TreeMap<>();
+
+    try (BufferedReader reader = Files.newBufferedReader(cacheFile, UTF_8)) {
+      if (!HEADER.equals(reader.readLine())) {
+        // Either empty or written by an incompatible version. Start afresh.
+        return toReturn;
+      }
+
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        // sha256 size mtime file-key path. The path goes last since it may contain spaces.
+        String[] parts = line.split(" ", 5);
+        if (parts.length != 5) {
+          continue;
+        }
+        try {
+          toReturn.put(
+              parts[4],
+              new Entry(Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[3], parts[0]));
+        } catch (NumberFormatException e) {
+          // Ignore the corrupt line. We'll just hash the file again.
+        }
+      }
+    } catch (NoSuchFileException e) {
+      // Nothing has been cached yet
+    }
+
+    return toReturn;
+  }
+
+  private static class Entry {
+    private final long size;
+    private final long modifiedNanos;
+    private final String fileKey;
+    private final String sha256;
+
+    private Entry(long size, long modifiedNanos, String fileKey, String sha256) {
+      this.size = size;
+      this.modifiedNanos = modifiedNanos;
+      this.fileKey = fileKey;
+      this.sha256 = sha256;
+    }
+
+    static Entry of(BasicFileAttributes attrs, String sha256) {
+      return new Entry(
+          attrs.size(), attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS), fileKey(attrs), sha256);
+    }
+
+    boolean matches(BasicFileAttributes attrs) {
+      return size == attrs.size()
+          && modifiedNanos == attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+          && fileKey.equals(fileKey(attrs));
+    }
+
+    String toLine(String path) {
+      return String.join(
+          " ", sha256, String.valueOf(size), String.valueOf(modifiedNanos), fileKey, path);
+    }
+
+    private static String fileKey(BasicFileAttributes attrs) {
+      // The file key isn't available on every platform. Where it's missing, size and mtime will
+      // have to do. Strip whitespace so that the key can't break the line format.
+      return String.valueOf(attrs.fileKey()).replaceAll("\\s", "");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Entry)) {
+        return false;
+      }
+      Entry that = (Entry) o;
+      return size == that.size
+          && modifiedNanos == that.modifiedNanos
+          && fileKey.equals(that.fileKey)
+          && sha256.equals(that.sha256);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(size, modifiedNanos, fileKey, sha256);
+    }
+  }
+}
@@ -13,23 +13,43 @@
 // limitations under the License.
 package com.github.bazelbuild.rules_jvm_external;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-/** A tool to compute the sha256 hash of a file. */
+/**
+ * A tool to compute the sha256 hash of a file.
+ *
+ * <p>If the {@code RJE_HASH_CACHE} environment variable names a directory, hashes are kept in a
+ * {@link HashCache} in that directory so that unchanged files aren't read again. Setting {@code
+ * RJE_VERIFY_HASH_CACHE} causes every file to be hashed, and any stale cache entries to be reported
+ * and replaced.
+ */
 public class Hasher {
 
   public static void main(String[] args) throws NoSuchAlgorithmException, IOException {
     Stream<String> fileStream = argsToStream(args);
-    System.out.print(hashFiles(fileStream));
+
+    String cacheDir = System.getenv("RJE_HASH_CACHE");
+    if (cacheDir == null || cacheDir.isEmpty()) {
+      System.out.print(hashFiles(fileStream));
+      return;
+    }
+
+    String rjeVerifyCache = System.getenv("RJE_VERIFY_HASH_CACHE");
+    boolean verify = false;
+    if (rjeVerifyCache != null) {
+      verify = "1".equals(rjeVerifyCache) || Boolean.parseBoolean(rjeVerifyCache);
+    }
+
+    HashCache cache = HashCache.open(Paths.get(cacheDir));
+    String hashes = hashFiles(fileStream, cache, verify);
+    cache.save();
+    System.out.print(hashes);
   }
 
   static Stream<String> argsToStream(String[] args) throws IOException {
@@ -46,6 +66,10 @@ public class Hasher {
   }
 
   static String hashFiles(Stream<String> files) {
+    return hashFiles(files, null, false);
+  }
+
+  static String hashFiles(Stream<String> files, HashCache cache, boolean verifyCache) {
     return files
         .parallel()
         .map(
@@ -60,7 +84,9 @@ public class Hasher {
               }
 
               try {
-                return sha256(file) + " " + file + "\n";
+                String sha256 =
+                    cache == null ? sha256(file) : cache.sha256(file.toPath(), verifyCache);
+                return sha256 + " " + file + "\n";
               } catch (Exception ex) {
                 throw new RuntimeException(ex);
               }
@@ -69,28 +95,6 @@ public class Hasher {
   }
 
   static String sha256(File file) throws NoSuchAlgorithmException, IOException {
-    byte[] buffer = new byte[8192];
-    int count;
-    MessageDigest digest = MessageDigest.getInstance("SHA-256");
-    try (BufferedInputStream bufferedInputStream =
-        new BufferedInputStream(new FileInputStream(file))) {
-      while ((count = bufferedInputStream.read(buffer)) > 0) {
-        digest.update(buffer, 0, count);
-      }
-    }
-
-    // sha256 is always 64 characters.
-    StringBuilder hexString = new StringBuilder(64);
-
-    // Convert digest byte array to a hex string.
-    for (byte b : digest.digest()) {
-      String hex = Integer.toHexString(0xff & b);
-      if (hex.length() == 1) {
-        hexString.append('0');
-      }
-      hexString.append(hex);
-    }
-
-    return hexString.toString();
+    return Digests.sha256(file.toPath());
   }
 }
@@ -4,6 +4,7 @@ import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static java.util.jar.Attributes.Name.MANIFEST_VERSION;
 
 import com.github.bazelbuild.rules_jvm_external.ByteStreams;
+import com.github.bazelbuild.rules_jvm_external.worker.PersistentWorker;
 import com.github.bazelbuild.rules_jvm_external.zip.StableZipEntry;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
@@ -111,6 +112,10 @@ public class AddJarManifestEntry {
   }
 
   public static void main(String[] args) throws IOException {
+    PersistentWorker.run(args, AddJarManifestEntry::amend);
+  }
+
+  private static void amend(String[] args) throws IOException {
     Path out = null;
     Path source = null;
     boolean makeSafe = false;
@@ -1,10 +1,9 @@
 package com.github.bazelbuild.rules_jvm_external.jar;
 
-import com.github.bazelbuild.rules_jvm_external.zip.StableZipEntry;
+import com.github.bazelbuild.rules_jvm_external.worker.PersistentWorker;
+import com.github.bazelbuild.rules_jvm_external.zip.ParallelZipWriter;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -14,26 +13,31 @@ import java.util.Comparator;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.Deflater;
 
 public class CreateJar {
 
   public static void main(String[] args) throws IOException {
+    PersistentWorker.run(args, CreateJar::create);
+  }
+
+  private static void create(String[] args) throws IOException {
     Path out = Paths.get(args[0]);
     Set<Path> inputs = Stream.of(args).skip(1).map(Paths::get).collect(Collectors.toSet());
 
     Path tmpDir = Files.createTempDirectory("create-jar-temp");
-    tmpDir.toFile().deleteOnExit();
-
-    for (Path input : inputs) {
-      if (!Files.isDirectory(input)) {
-        Files.copy(input, tmpDir.resolve(input.getFileName()), StandardCopyOption.REPLACE_EXISTING);
-        continue;
-      }
+    // Cleaned up after each jar, since a persistent worker may make many before it exits.
+    try {
+      for (Path input : inputs) {
+        if (!Files.isDirectory(input)) {
+          Files.copy(
+              input, tmpDir.resolve(input.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+          continue;
+        }
 
-      Files.walk(input)
-          .forEachOrdered(
+        // Closed, so that a persistent worker doesn't leak file handles
+        try (Stream<Path> walk = Files.walk(input)) {
+          walk.forEachOrdered(
               source -> {
                 try {
                   Path target = tmpDir.resolve(input.relativize(source));
@@ -47,14 +51,31 @@ public class CreateJar {
                   throw new UncheckedIOException(e);
                 }
               });
+        }
+      }
+
+      createJar(out, tmpDir);
+    } finally {
+      delete(tmpDir);
     }
+  }
 
-    createJar(out, tmpDir);
+  private static void delete(Path dir) throws IOException {
+    try (Stream<Path> walk = Files.walk(dir)) {
+      walk.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
   }
 
   public static void createJar(Path out, Path inputDir) throws IOException {
-    try (OutputStream os = Files.newOutputStream(out);
-        ZipOutputStream zos = new ZipOutputStream(os);
+    createJar(out, inputDir, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  /**
+   * Creates a jar containing everything in {@code inputDir}, compressed at {@code level}. Entries
+   * are compressed in parallel, but the jar is the same no matter how many threads are used.
+   */
+  public static void createJar(Path out, Path inputDir, int level) throws IOException {
+    try (ParallelZipWriter writer = new ParallelZipWriter(out, level);
         Stream<Path> walk = Files.walk(inputDir)) {
 
       walk.sorted(Comparator.naturalOrder())
@@ -68,17 +89,9 @@ public class CreateJar {
                   String name =
                       inputDir.relativize(path).toString().replace(File.separatorChar, '/');
                   if (Files.isDirectory(path)) {
-                    name += "/";
-                    ZipEntry entry = new StableZipEntry(name);
-                    zos.putNextEntry(entry);
-                    zos.closeEntry();
+                    writer.putDirectory(name + "/");
                   } else {
-                    ZipEntry entry = new StableZipEntry(name);
-                    zos.putNextEntry(entry);
-                    try (InputStream is = Files.newInputStream(path)) {
-                      com.github.bazelbuild.rules_jvm_external.ByteStreams.copy(is, zos);
-                    }
-                    zos.closeEntry();
+                    writer.putEntry(name, Files.size(path), () -> Files.newInputStream(path));
                   }
                 } catch (IOException e) {
                   throw new UncheckedIOException(e);
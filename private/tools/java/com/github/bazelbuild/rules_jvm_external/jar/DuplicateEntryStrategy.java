@@ -58,8 +58,8 @@ enum DuplicateEntryStrategy {
 
   /**
    * Whether the current version of {@code name} (as identified by {@code originalHash}) should be
-   * replaced by the version identified by {@code newHash}. Both hashes should be generated using a
-   * {@link java.security.MessageDigest}, and the algorithm used for both should be the same.
+   * replaced by the version identified by {@code newHash}. Both hashes must have been generated the
+   * same way, so that equal hashes mean equal contents.
    *
    * @param originalHash Generated hash, which may be null.
    * @param newHash Generated hash, which must not be null.
@@ -0,0 +1,204 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.jar;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.github.bazelbuild.rules_jvm_external.Digests;
+import com.github.bazelbuild.rules_jvm_external.HashCache;
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Calculates the sha256 of each jar and indexes it in a single run, so that {@code coursier.bzl}
+ * only has to start one JVM and each jar is only read from disk once. Hashing reads the whole file,
+ * after which the central directory and service files that {@link IndexJar} needs are already in
+ * the page cache.
+ *
+ * <p>The results are written as a single JSON object keyed by path, in the same form as {@link
+ * IndexJar}'s output with an additional {@code sha256} field for each jar. Jars are processed in
+ * parallel, but only a few more than there are threads are held in memory at once, and each result
+ * is written out as soon as the ones before it are done.
+ *
+ * <p>The {@code RJE_HASH_CACHE} and {@code RJE_VERIFY_HASH_CACHE} environment variables are
+ * honoured in the same way as by {@link com.github.bazelbuild.rules_jvm_external.Hasher}.
+ */
+public class HashAndIndexJars {
+
+  private final HashCache hashCache;
+  private final boolean verifyHashCache;
+  private final int threads;
+
+  public HashAndIndexJars(HashCache hashCache, boolean verifyHashCache, int threads) {
+    this.hashCache = hashCache;
+    this.verifyHashCache = verifyHashCache;
+    this.threads = threads;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2 || !"--argsfile".equals(args[0])) {
+      System.err.printf("Required args: --argsfile /path/to/argsfile%n");
+      System.exit(1);
+    }
+
+    String cacheDir = System.getenv("RJE_HASH_CACHE");
+    HashCache cache =
+        cacheDir == null || cacheDir.isEmpty() ? null : HashCache.open(Paths.get(cacheDir));
+    String rjeVerifyCache = System.getenv("RJE_VERIFY_HASH_CACHE");
+    boolean verify =
+        rjeVerifyCache != null
+            && ("1".equals(rjeVerifyCache) || Boolean.parseBoolean(rjeVerifyCache));
+
+    HashAndIndexJars tool =
+        new HashAndIndexJars(cache, verify, Runtime.getRuntime().availableProcessors());
+    Writer out = new BufferedWriter(new OutputStreamWriter(System.out, UTF_8), 64 * 1024);
+    try (Stream<String> paths = Files.lines(Paths.get(args[1]))) {
+      tool.hashAndIndex(paths, out);
+    }
+    out.write("\n");
+    out.flush();
+
+    if (cache != null) {
+      cache.save();
+    }
+  }
+
+  /** Writes the sha256 and index of each of the {@code jars} to {@code out} as a JSON object. */
+  public void hashAndIndex(Stream<String> jars, Writer out) throws IOException {
+    // Sorted so that the output is the same no matter what order the jars were listed in.
+    SortedSet<String> sorted = new TreeSet<>();
+    jars.filter(path -> !path.isEmpty()).forEach(sorted::add);
+
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+    try {
+      JsonWriter json = new JsonWriter(out);
+      json.beginObject();
+
+      int window = Math.max(1, threads) * 2;
+      Deque<Future<Result>> pending = new ArrayDeque<>(window);
+      for (String path : sorted) {
+        if (pending.size() == window) {
+          write(json, get(pending.removeFirst()));
+        }
+        pending.addLast(executor.submit(() -> hashAndIndex(path)));
+      }
+      while (!pending.isEmpty()) {
+        write(json, get(pending.removeFirst()));
+      }
+
+      json.endObject();
+      json.flush();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private Result hashAndIndex(String path) throws IOException {
+    Path jar = Paths.get(path);
+
+    // Since this tool is for private usage, just do a simple assertion for the filename argument.
+    if (!Files.isRegularFile(jar)) {
+      throw new IllegalArgumentException(
+          "File does not exist or is not a file: " + jar.toAbsolutePath());
+    }
+
+    String sha256;
+    try {
+      sha256 = hashCache == null ? Digests.sha256(jar) : hashCache.sha256(jar, verifyHashCache);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    return new Result(path, sha256, new IndexJar().index(jar));
+  }
+
+  private static Result get(Future<Result> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  private static void write(JsonWriter json, Result result) throws IOException {
+    PerJarIndexResults index = result.index;
+    json.name(result.path);
+    json.beginObject();
+    json.name("sha256").value(result.sha256);
+    json.name("packages");
+    writeStrings(json, index.getPackages());
+    json.name("classes");
+    writeStrings(json, index.getClasses());
+    json.name("serviceImplementations");
+    json.beginObject();
+    for (Map.Entry<String, SortedSet<String>> entry :
+        index.getServiceImplementations().entrySet()) {
+      json.name(entry.getKey());
+      writeStrings(json, entry.getValue());
+    }
+    json.endObject();
+    json.endObject();
+  }
+
+  private static void writeStrings(JsonWriter json, Collection<String> values) throws IOException {
+    json.beginArray();
+    for (String value : values) {
+      json.value(value);
+    }
+    json.endArray();
+  }
+
+  private static class Result {
+    private final String path;
+    private final String sha256;
+    private final PerJarIndexResults index;
+
+    Result(String path, String sha256, PerJarIndexResults index) {
+      this.path = path;
+      this.sha256 = sha256;
+      this.index = index;
+    }
+  }
+}
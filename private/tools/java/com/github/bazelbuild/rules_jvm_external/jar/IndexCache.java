@@ -0,0 +1,246 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.jar;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Remembers the results of indexing jars, keyed by the sha256 of the jar. The results only depend
+ * on the contents of the jar, so they can be shared between every pin on the machine.
+ *
+ * <p>The cache lives in {@code RJE_INDEX_CACHE} if that is set, or in the user's cache directory
+ * otherwise. Setting {@code RJE_INDEX_CACHE} to {@code 0} or {@code false} disables it. Entries are
+ * touched whenever they are used, and {@link #prune()} removes the least recently used ones once
+ * the cache grows too large or they have not been used for a long time.
+ */
+public class IndexCache {
+
+  // Change this whenever `IndexJar` starts returning something different for the same jar.
+  private static final String FORMAT = "v1";
+  private static final Pattern SHA256 = Pattern.compile("[0-9a-f]{64}");
+  // Enough for the jars of several large projects.
+  private static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+  private static final Duration DEFAULT_MAX_AGE = Duration.ofDays(60);
+
+  private final Path directory;
+  private final long maxBytes;
+  private final Duration maxAge;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /** Creates a cache in {@code directory}, or one which never caches if that is {@code null}. */
+  public IndexCache(Path directory) {
+    this(directory, DEFAULT_MAX_BYTES, DEFAULT_MAX_AGE);
+  }
+
+  // Visible for testing
+  IndexCache(Path directory, long maxBytes, Duration maxAge) {
+    this.directory = directory == null ? null : directory.resolve(FORMAT);
+    this.maxBytes = maxBytes;
+    this.maxAge = maxAge;
+  }
+
+  public static IndexCache fromEnvironment() {
+    String configured = System.getenv("RJE_INDEX_CACHE");
+    if (configured != null && !configured.isEmpty()) {
+      if ("0".equals(configured) || "false".equalsIgnoreCase(configured)) {
+        return new IndexCache(null);
+      }
+      return new IndexCache(Paths.get(configured));
+    }
+
+    String cacheHome = System.getenv("XDG_CACHE_HOME");
+    Path base =
+        cacheHome == null || cacheHome.isEmpty()
+            ? Paths.get(System.getProperty("user.home"), ".cache")
+            : Paths.get(cacheHome);
+    return new IndexCache(base.resolve("rules_jvm_external").resolve("jar-index"));
+  }
+
+  /**
+   * Indexes {@code jar}, unless a jar with the same {@code sha256} has been indexed before.
+   * Problems reading or writing the cache are ignored, since we can always index the jar again.
+   */
+  public PerJarIndexResults index(Path jar, String sha256) throws IOException {
+    Path cached = getCachePath(sha256);
+    if (cached == null) {
+      misses.incrementAndGet();
+      return new IndexJar().index(jar);
+    }
+
+    PerJarIndexResults results = read(cached);
+    if (results != null) {
+      hits.incrementAndGet();
+      touch(cached);
+      return results;
+    }
+
+    misses.incrementAndGet();
+    results = new IndexJar().index(jar);
+    write(cached, results);
+    return results;
+  }
+
+  /**
+   * Removes entries which have not been used for a while, and then the least recently used entries
+   * until the cache is small enough. Like the rest of the cache, problems are ignored.
+   */
+  public void prune() {
+    if (directory == null || !Files.isDirectory(directory)) {
+      return;
+    }
+
+    List<Map.Entry<Path, BasicFileAttributes>> entries = new ArrayList<>();
+    try (Stream<Path> paths = Files.walk(directory)) {
+      paths
+          .filter(path -> path.getFileName().toString().endsWith(".json"))
+          .forEach(
+              path -> {
+                try {
+                  entries.add(
+                      Map.entry(path, Files.readAttributes(path, BasicFileAttributes.class)));
+                } catch (IOException e) {
+                  // Most likely removed by someone else
+                }
+              });
+    } catch (IOException | UncheckedIOException e) {
+      return;
+    }
+
+    // Newest first, so that whatever is past the size limit is the least recently used.
+    entries.sort(
+        Comparator.comparing(
+                (Map.Entry<Path, BasicFileAttributes> entry) -> entry.getValue().lastModifiedTime())
+            .reversed());
+    FileTime oldest = FileTime.from(Instant.now().minus(maxAge));
+    long total = 0;
+    for (Map.Entry<Path, BasicFileAttributes> entry : entries) {
+      total += entry.getValue().size();
+      if (total > maxBytes || entry.getValue().lastModifiedTime().compareTo(oldest) < 0) {
+        try {
+          Files.deleteIfExists(entry.getKey());
+        } catch (IOException e) {
+          // Fine. We'll try again next time.
+        }
+      }
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  private Path getCachePath(String sha256) {
+    if (directory == null || sha256 == null) {
+      return null;
+    }
+    String key = sha256.toLowerCase(Locale.ROOT);
+    if (!SHA256.matcher(key).matches()) {
+      return null;
+    }
+    return directory.resolve(key.substring(0, 2)).resolve(key + ".json");
+  }
+
+  private static PerJarIndexResults read(Path path) {
+    if (!Files.exists(path)) {
+      return null;
+    }
+
+    try (Reader reader = Files.newBufferedReader(path, UTF_8)) {
+      Entry entry = new Gson().fromJson(reader, Entry.class);
+      if (entry == null
+          || entry.packages == null
+          || entry.classes == null
+          || entry.services == null) {
+        return null;
+      }
+      SortedMap<String, SortedSet<String>> services = new TreeMap<>();
+      entry.services.forEach((service, impls) -> services.put(service, new TreeSet<>(impls)));
+      return new PerJarIndexResults(
+          new TreeSet<>(entry.packages), new TreeSet<>(entry.classes), services);
+    } catch (IOException | JsonParseException e) {
+      return null;
+    }
+  }
+
+  private static void touch(Path path) {
+    try {
+      Files.setLastModifiedTime(path, FileTime.from(Instant.now()));
+    } catch (IOException e) {
+      // Fine. At worst the entry is pruned earlier than it needs to be.
+    }
+  }
+
+  private static void write(Path path, PerJarIndexResults results) {
+    Entry entry = new Entry();
+    entry.packages = results.getPackages();
+    entry.classes = results.getClasses();
+    entry.services = results.getServiceImplementations();
+
+    try {
+      Files.createDirectories(path.getParent());
+      // Write somewhere else first, so nobody else can see a partly written entry.
+      Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+      try {
+        try (Writer writer = Files.newBufferedWriter(temp, UTF_8)) {
+          new Gson().toJson(entry, writer);
+        }
+        Files.move(temp, path, REPLACE_EXISTING, ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+    } catch (IOException e) {
+      // Fine. We'll index the jar again next time.
+    }
+  }
+
+  private static class Entry {
+    private SortedSet<String> packages;
+    private SortedSet<String> classes;
+    private SortedMap<String, SortedSet<String>> services;
+  }
+}
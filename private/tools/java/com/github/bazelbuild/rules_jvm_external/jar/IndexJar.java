@@ -26,6 +26,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.AbstractMap;
 import java.util.Arrays;
+import java.util.Enumeration;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.SortedSet;
@@ -37,6 +38,7 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 public class IndexJar {
@@ -52,6 +54,14 @@ public class IndexJar {
       System.exit(1);
     }
 
+    // `coursier.bzl` asks for the sha256 of each jar through the environment rather than a flag,
+    // so that it can still use prebuilt copies of this tool from before it could hash jars.
+    String hashAndIndex = System.getenv("RJE_HASH_AND_INDEX");
+    if (hashAndIndex != null && ("1".equals(hashAndIndex) || Boolean.parseBoolean(hashAndIndex))) {
+      HashAndIndexJars.main(args);
+      return;
+    }
+
     Path argsFile = Paths.get(args[1]);
     Map<String, PerJarIndexResults> index = new IndexJar().index(Files.lines(argsFile));
     System.out.println(new Gson().toJson(index));
@@ -86,30 +96,46 @@ public class IndexJar {
     SortedSet<String> packages = new TreeSet<>();
     SortedSet<String> classes = new TreeSet<>();
     SortedMap<String, SortedSet<String>> serviceImplementations = new TreeMap<>();
+
+    // Reading the central directory means we only need to inflate the service files, rather than
+    // every entry in the jar.
+    try (ZipFile zip = new ZipFile(path.toFile())) {
+      Enumeration<? extends ZipEntry> entries = zip.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        if (isServiceFile(entry.getName())) {
+          try (InputStream is = zip.getInputStream(entry)) {
+            serviceImplementations.put(
+                entry.getName().substring(SERVICES_DIRECTORY_PREFIX.length()),
+                parseServiceImplementations(is));
+          }
+        }
+        addClass(entry.getName(), packages, classes);
+      }
+      return new PerJarIndexResults(packages, classes, serviceImplementations);
+    } catch (ZipException e) {
+      System.err.printf(
+          "Unable to read %s using its central directory, reading it as a stream: %s%n", path, e);
+    }
+
+    return indexStream(path);
+  }
+
+  private PerJarIndexResults indexStream(Path path) throws IOException {
+    SortedSet<String> packages = new TreeSet<>();
+    SortedSet<String> classes = new TreeSet<>();
+    SortedMap<String, SortedSet<String>> serviceImplementations = new TreeMap<>();
     try (InputStream fis = new BufferedInputStream(Files.newInputStream(path));
         ZipInputStream zis = new ZipInputStream(fis)) {
       try {
         ZipEntry entry;
         while ((entry = zis.getNextEntry()) != null) {
-          if (entry.getName().startsWith(SERVICES_DIRECTORY_PREFIX)
-              && !SERVICES_DIRECTORY_PREFIX.equals(entry.getName())) {
+          if (isServiceFile(entry.getName())) {
             String serviceInterface = entry.getName().substring(SERVICES_DIRECTORY_PREFIX.length());
             SortedSet<String> implementingClasses = parseServiceImplementations(zis);
             serviceImplementations.put(serviceInterface, implementingClasses);
           }
-          if (!entry.getName().endsWith(".class")) {
-            continue;
-          }
-          if ("module-info.class".equals(entry.getName())
-              || entry.getName().endsWith("/module-info.class")) {
-            continue;
-          }
-          // Skip inner classes, anonymous classes, and local classes (contain $)
-          if (isInnerClass(entry.getName())) {
-            continue;
-          }
-          packages.add(extractPackageName(entry.getName()));
-          classes.add(extractClassName(entry.getName()));
+          addClass(entry.getName(), packages, classes);
         }
       } catch (ZipException e) {
         System.err.printf("Caught ZipException: %s%n", e);
@@ -118,6 +144,27 @@ public class IndexJar {
     }
   }
 
+  private boolean isServiceFile(String zipEntryName) {
+    return zipEntryName.startsWith(SERVICES_DIRECTORY_PREFIX)
+        && !SERVICES_DIRECTORY_PREFIX.equals(zipEntryName);
+  }
+
+  private void addClass(
+      String zipEntryName, SortedSet<String> packages, SortedSet<String> classes) {
+    if (!zipEntryName.endsWith(".class")) {
+      return;
+    }
+    if ("module-info.class".equals(zipEntryName) || zipEntryName.endsWith("/module-info.class")) {
+      return;
+    }
+    // Skip inner classes, anonymous classes, and local classes (contain $)
+    if (isInnerClass(zipEntryName)) {
+      return;
+    }
+    packages.add(extractPackageName(zipEntryName));
+    classes.add(extractClassName(zipEntryName));
+  }
+
   // Visible for testing
   // Note that parseServiceImplementation does not close the passed InputStream, the caller is
   // responsible for doing this.
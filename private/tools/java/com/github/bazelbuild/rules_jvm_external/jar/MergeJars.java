@@ -19,15 +19,16 @@ package com.github.bazelbuild.rules_jvm_external.jar;
 
 import static com.github.bazelbuild.rules_jvm_external.jar.DuplicateEntryStrategy.LAST_IN_WINS;
 import static java.util.zip.Deflater.BEST_COMPRESSION;
-import static java.util.zip.ZipOutputStream.DEFLATED;
 
 import com.github.bazelbuild.rules_jvm_external.ByteStreams;
-import com.github.bazelbuild.rules_jvm_external.zip.StableZipEntry;
-import java.io.BufferedInputStream;
+import com.github.bazelbuild.rules_jvm_external.worker.PersistentWorker;
+import com.github.bazelbuild.rules_jvm_external.zip.ParallelZipWriter;
+import com.github.bazelbuild.rules_jvm_external.zip.RawZipFile;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -35,7 +36,6 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -49,9 +49,6 @@ import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipInputStream;
 
 public class MergeJars {
 
@@ -62,16 +59,32 @@ public class MergeJars {
           .collect(Collectors.toSet());
 
   public static void main(String[] args) throws IOException {
+    PersistentWorker.run(args, MergeJars::merge);
+  }
+
+  private static void merge(String[] args) throws IOException {
     Path out = null;
     // Insertion order may matter
     Set<Path> sources = new LinkedHashSet<>();
     Set<Path> excludes = new HashSet<>();
     Set<Predicate<String>> duplicateAllowList = new HashSet<>(ALWAYS_ALLOW_DUPLICATES);
     DuplicateEntryStrategy onDuplicate = LAST_IN_WINS;
+    boolean copyRaw = false;
+    int compressionLevel = BEST_COMPRESSION;
 
     for (int i = 0; i < args.length; i++) {
       switch (args[i]) {
+        case "--copy-raw":
+          copyRaw = true;
+          break;
+
         case "--compression":
+          // An optional level, as understood by `Deflater`. We always compress.
+          if (i + 1 < args.length && args[i + 1].matches("[0-9]")) {
+            compressionLevel = Integer.parseInt(args[++i]);
+          }
+          break;
+
         case "--normalize":
           // ignore
           break;
@@ -129,18 +142,21 @@ public class MergeJars {
 
     // Ultimately, we want the entries in the output zip to be sorted
     // so that we have a deterministic output.
-    Map<String, Path> fileToSourceJar = new TreeMap<>();
-    Map<String, byte[]> fileHashCodes = new HashMap<>();
+    Map<String, SourceEntry> fileToSourceJar = new TreeMap<>();
+    // Only the central directory of each jar is read while working out what goes where, and each
+    // jar is kept open until the output is written, so every source is only opened once.
+    List<RawZipFile> openJars = new ArrayList<>();
 
-    for (Path source : sources) {
-      try (InputStream fis = Files.newInputStream(source);
-          ZipInputStream zis = new ZipInputStream(fis)) {
+    try {
+      for (Path source : sources) {
+        RawZipFile jar = new RawZipFile(source);
+        openJars.add(jar);
 
-        ZipEntry entry;
-        while ((entry = zis.getNextEntry()) != null) {
+        for (RawZipFile.Entry entry : jar.entries()) {
           if ("META-INF/MANIFEST.MF".equals(entry.getName())) {
-            Manifest other = new Manifest(zis);
-            manifest = merge(manifest, other);
+            try (InputStream is = jar.getInputStream(entry)) {
+              manifest = merge(manifest, new Manifest(is));
+            }
             continue;
           }
 
@@ -154,32 +170,39 @@ public class MergeJars {
             String servicesName = entry.getName().substring("META-INF/services/".length());
             List<String> services =
                 allServices.computeIfAbsent(servicesName, key -> new ArrayList<>());
-            services.add(new String(ByteStreams.toByteArray(zis)));
+            try (InputStream is = jar.getInputStream(entry)) {
+              services.add(new String(ByteStreams.toByteArray(is)));
+            }
             continue;
           }
 
           if (!entry.isDirectory()) {
-            // Duplicate files, however may not be. We need the hash to determine
-            // whether we should do anything.
-            byte[] hash = hash(zis);
-
-            if (!fileToSourceJar.containsKey(entry.getName())) {
-              fileToSourceJar.put(entry.getName(), source);
-              fileHashCodes.put(entry.getName(), hash);
-            } else {
-              byte[] originalHashCode = fileHashCodes.get(entry.getName());
-              boolean replace =
-                  onDuplicate.isReplacingCurrent(entry.getName(), originalHashCode, hash);
-              if (replace) {
-                fileToSourceJar.put(entry.getName(), source);
-                fileHashCodes.put(entry.getName(), hash);
-              }
+            SourceEntry candidate = new SourceEntry(jar, entry);
+            SourceEntry current = fileToSourceJar.get(entry.getName());
+            if (current == null
+                || isReplacingCurrent(onDuplicate, entry.getName(), current, candidate)) {
+              fileToSourceJar.put(entry.getName(), candidate);
             }
           }
         }
       }
+
+      writeOutput(out, manifest, allServices, fileToSourceJar, copyRaw, compressionLevel);
+    } finally {
+      for (RawZipFile jar : openJars) {
+        jar.close();
+      }
     }
+  }
 
+  private static void writeOutput(
+      Path out,
+      Manifest manifest,
+      Map<String, List<String>> allServices,
+      Map<String, SourceEntry> fileToSourceJar,
+      boolean copyRaw,
+      int compressionLevel)
+      throws IOException {
     manifest.getMainAttributes().put(new Attributes.Name("Created-By"), "mergejars");
     // Bazel labels are an internal detail of the project producing the merged
     // jar and not useful for consumers.
@@ -190,50 +213,31 @@ public class MergeJars {
 
     Set<String> createdDirectories = new HashSet<>();
 
-    try (OutputStream os = Files.newOutputStream(out);
-        JarOutputStream jos = new JarOutputStream(os)) {
-      jos.setMethod(DEFLATED);
-      jos.setLevel(BEST_COMPRESSION);
-
+    try (ParallelZipWriter writer = new ParallelZipWriter(out, compressionLevel)) {
       // Write the manifest by hand to ensure the date is good
-      ZipEntry entry = new StableZipEntry("META-INF/");
-      jos.putNextEntry(entry);
-      jos.closeEntry();
-      createdDirectories.add(entry.getName());
+      writer.putDirectory("META-INF/");
+      createdDirectories.add("META-INF/");
 
-      entry = new StableZipEntry("META-INF/MANIFEST.MF");
       ByteArrayOutputStream bos = new ByteArrayOutputStream();
       manifest.write(bos);
-      entry.setSize(bos.size());
-      jos.putNextEntry(entry);
-      jos.write(bos.toByteArray());
-      jos.closeEntry();
+      writer.putEntry("META-INF/MANIFEST.MF", bos.toByteArray());
 
       if (!allServices.isEmpty()) {
         if (!createdDirectories.contains("META-INF/services/")) {
-          entry = new StableZipEntry("META-INF/services/");
-          jos.putNextEntry(entry);
-          jos.closeEntry();
-          createdDirectories.add(entry.getName());
+          writer.putDirectory("META-INF/services/");
+          createdDirectories.add("META-INF/services/");
         }
         for (Map.Entry<String, List<String>> kv : allServices.entrySet()) {
-          entry = new StableZipEntry("META-INF/services/" + kv.getKey());
           bos = new ByteArrayOutputStream();
 
           bos.write(String.join("\n\n", kv.getValue()).getBytes());
           bos.write("\n".getBytes());
-          entry.setSize(bos.size());
-          jos.putNextEntry(entry);
-          jos.write(bos.toByteArray());
-          jos.closeEntry();
+          writer.putEntry("META-INF/services/" + kv.getKey(), bos.toByteArray());
         }
       }
 
-      Path previousSource = sources.isEmpty() ? null : sources.iterator().next();
-      ZipFile source = previousSource == null ? null : new ZipFile(previousSource.toFile());
-
       // We should never enter this loop without there being any sources
-      for (Map.Entry<String, Path> pathAndSource : fileToSourceJar.entrySet()) {
+      for (Map.Entry<String, SourceEntry> pathAndSource : fileToSourceJar.entrySet()) {
         // Get the original entry
         String name = pathAndSource.getKey();
 
@@ -245,45 +249,50 @@ public class MergeJars {
           name = name.substring(1);
         }
 
-        createDirectories(jos, name, createdDirectories);
+        createDirectories(writer, name, createdDirectories);
 
         if (createdDirectories.contains(name)) {
           continue;
         }
 
-        if (!Objects.equals(previousSource, pathAndSource.getValue())) {
-          if (source != null) {
-            source.close();
-          }
-          source = new ZipFile(pathAndSource.getValue().toFile());
-          previousSource = pathAndSource.getValue();
-        }
-
-        ZipEntry original = source.getEntry(name);
+        RawZipFile source = pathAndSource.getValue().jar;
+        RawZipFile.Entry original = source.getEntry(name);
         if (original == null) {
           continue;
         }
 
-        ZipEntry je = new StableZipEntry(name);
-        jos.putNextEntry(je);
-
-        try (InputStream is = source.getInputStream(original)) {
-          ByteStreams.copy(is, jos);
+        if (copyRaw) {
+          // The entry is already compressed, so copy the bytes as they are.
+          writer.copyEntry(name, source, original);
+        } else {
+          writer.putEntry(name, original.getSize(), () -> source.getInputStream(original));
         }
-        jos.closeEntry();
-      }
-      if (source != null) {
-        source.close();
       }
     }
   }
 
-  private static void createDirectories(JarOutputStream jos, String name, Set<String> createdDirs)
+  /**
+   * Entries with a different CRC or size must differ, so there's no need to read them to find out.
+   * Only when both match do we need to read the contents to be sure they're the same.
+   */
+  private static boolean isReplacingCurrent(
+      DuplicateEntryStrategy onDuplicate, String name, SourceEntry current, SourceEntry candidate)
       throws IOException {
+    byte[] currentHash = current.summary();
+    byte[] candidateHash = candidate.summary();
+    if (Arrays.equals(currentHash, candidateHash)) {
+      currentHash = current.hash();
+      candidateHash = candidate.hash();
+    }
+    return onDuplicate.isReplacingCurrent(name, currentHash, candidateHash);
+  }
+
+  private static void createDirectories(
+      ParallelZipWriter writer, String name, Set<String> createdDirs) throws IOException {
     if (!name.endsWith("/")) {
       int slashIndex = name.lastIndexOf('/');
       if (slashIndex != -1) {
-        createDirectories(jos, name.substring(0, slashIndex + 1), createdDirs);
+        createDirectories(writer, name.substring(0, slashIndex + 1), createdDirs);
       }
       return;
     }
@@ -302,9 +311,7 @@ public class MergeJars {
         continue;
       }
 
-      ZipEntry entry = new StableZipEntry(newPath);
-      jos.putNextEntry(entry);
-      jos.closeEntry();
+      writer.putDirectory(newPath);
       createdDirs.add(newPath);
     }
   }
@@ -314,18 +321,14 @@ public class MergeJars {
     Set<String> paths = new HashSet<>();
 
     for (Path exclude : excludes) {
-      try (InputStream is = Files.newInputStream(exclude);
-          BufferedInputStream bis = new BufferedInputStream(is);
-          ZipInputStream jis = new ZipInputStream(bis)) {
-        ZipEntry entry;
-        while ((entry = jis.getNextEntry()) != null) {
+      try (RawZipFile jar = new RawZipFile(exclude)) {
+        for (RawZipFile.Entry entry : jar.entries()) {
           if (entry.isDirectory()) {
             continue;
           }
 
           // We hope that the duplicate allow list is nice and short
-          ZipEntry finalEntry = entry;
-          if (duplicateAllowList.stream().anyMatch(pred -> pred.test(finalEntry.getName()))) {
+          if (duplicateAllowList.stream().anyMatch(pred -> pred.test(entry.getName()))) {
             continue;
           }
 
@@ -384,4 +387,29 @@ public class MergeJars {
       throw new RuntimeException(e);
     }
   }
+
+  private static class SourceEntry {
+    private final RawZipFile jar;
+    private final RawZipFile.Entry entry;
+    private byte[] hash;
+
+    private SourceEntry(RawZipFile jar, RawZipFile.Entry entry) {
+      this.jar = jar;
+      this.entry = entry;
+    }
+
+    /** The CRC and size recorded in the central directory. */
+    byte[] summary() {
+      return ByteBuffer.allocate(16).putLong(entry.getCrc()).putLong(entry.getSize()).array();
+    }
+
+    byte[] hash() throws IOException {
+      if (hash == null) {
+        try (InputStream is = jar.getInputStream(entry)) {
+          hash = MergeJars.hash(is);
+        }
+      }
+      return hash;
+    }
+  }
 }
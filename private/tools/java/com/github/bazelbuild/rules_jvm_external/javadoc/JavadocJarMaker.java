@@ -22,6 +22,7 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.github.bazelbuild.rules_jvm_external.ByteStreams;
 import com.github.bazelbuild.rules_jvm_external.jar.CreateJar;
+import com.github.bazelbuild.rules_jvm_external.worker.PersistentWorker;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -45,6 +46,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -60,6 +62,10 @@ public class JavadocJarMaker {
   private static final Version JAVA_13 = Version.parse("13");
 
   public static void main(String[] args) throws IOException {
+    PersistentWorker.run(args, JavadocJarMaker::makeJavadocJar);
+  }
+
+  private static void makeJavadocJar(String[] args) throws IOException {
     Set<Path> sourceJars = new HashSet<>();
     Set<Path> resources = new HashSet<>();
     Path out = null;
@@ -244,16 +250,15 @@ public class JavadocJarMaker {
       }
 
       CreateJar.createJar(out, outputTo);
+    } finally {
+      // Even if javadoc fails, since a persistent worker may be asked for many more jars
+      tempDirs.forEach(JavadocJarMaker::delete);
     }
-    tempDirs.forEach(JavadocJarMaker::delete);
   }
 
   private static void delete(Path toDelete) {
-    try {
-      Files.walk(toDelete)
-          .sorted(Comparator.reverseOrder())
-          .map(Path::toFile)
-          .forEach(File::delete);
+    try (Stream<Path> walk = Files.walk(toDelete)) {
+      walk.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
     } catch (IOException e) {
       throw new UncheckedIOException(e);
     }
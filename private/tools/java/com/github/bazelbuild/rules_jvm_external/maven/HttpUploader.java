@@ -0,0 +1,163 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.maven;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.github.bazelbuild.rules_jvm_external.resolver.events.EventListener;
+import com.github.bazelbuild.rules_jvm_external.resolver.events.UploadEvent;
+import com.github.bazelbuild.rules_jvm_external.resolver.remote.PerHostLimiter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+/**
+ * Uploads files to HTTP repositories through a single shared {@link HttpClient}. Connections are
+ * kept alive, and multiplexed over HTTP/2 where the server supports it, so publishing does not need
+ * a new TLS handshake for every checksum and signature. Only a few uploads run against any one host
+ * at a time, and failed uploads are retried after an increasing delay.
+ */
+class HttpUploader {
+
+  private static final int MAX_ATTEMPTS = 4;
+  private static final long INITIAL_BACKOFF_MILLIS = 500;
+  private static final Set<Integer> RETRY_RESPONSE_CODES = Set.of(408, 429, 500, 502, 503, 504);
+  private static final Logger LOG = Logger.getLogger(HttpUploader.class.getName());
+  // Shared, so a process that publishes many artifacts keeps its connections open between them.
+  private static final HttpClient CLIENT =
+      HttpClient.newBuilder()
+          .version(HttpClient.Version.HTTP_2)
+          .connectTimeout(Duration.ofMinutes(5))
+          .followRedirects(HttpClient.Redirect.NORMAL)
+          .proxy(ProxySelector.getDefault())
+          .build();
+
+  private final EventListener listener;
+  private final PerHostLimiter perHostLimiter;
+
+  HttpUploader(int maxUploadsPerHost, EventListener listener) {
+    this.listener = listener;
+    this.perHostLimiter = new PerHostLimiter(maxUploadsPerHost);
+  }
+
+  /**
+   * Uploads {@code body} to {@code target}. The body is sent again for each attempt, so it must be
+   * one that can be subscribed to more than once, such as those from {@link
+   * HttpRequest.BodyPublishers#ofFile} and {@link HttpRequest.BodyPublishers#ofByteArray}.
+   */
+  CompletableFuture<Void> put(
+      URI target, Map<String, List<String>> headers, HttpRequest.BodyPublisher body) {
+    HttpRequest.Builder builder =
+        HttpRequest.newBuilder()
+            .uri(target)
+            .header("User-Agent", "rules_jvm_external publisher")
+            .timeout(Duration.ofMinutes(30))
+            .PUT(body);
+    if (!"https".equals(target.getScheme())) {
+      // Asking a plain HTTP server to upgrade to HTTP/2 part way through a large PUT does more harm
+      // than good.
+      builder.version(HttpClient.Version.HTTP_1_1);
+    }
+    headers.forEach((name, values) -> values.forEach(value -> builder.header(name, value)));
+
+    LOG.info(String.format("Uploading to %s", target));
+    return put(1, builder.build(), System.nanoTime());
+  }
+
+  private CompletableFuture<Void> put(int attempt, HttpRequest request, long startNanos) {
+    // Nothing in flight holds one of the host's slots while we wait to retry.
+    Executor executor =
+        attempt == 1
+            ? Runnable::run
+            : CompletableFuture.delayedExecutor(
+                INITIAL_BACKOFF_MILLIS << (attempt - 2), MILLISECONDS);
+
+    return CompletableFuture.supplyAsync(() -> String.valueOf(request.uri().getHost()), executor)
+        .thenCompose(
+            host ->
+                perHostLimiter.submit(
+                    host, () -> CLIENT.sendAsync(request, HttpResponse.BodyHandlers.ofString())))
+        .handle(
+            (response, throwable) -> shouldRetry(attempt, request, startNanos, response, throwable))
+        .thenCompose(
+            retry ->
+                retry
+                    ? put(attempt + 1, request, startNanos)
+                    : CompletableFuture.completedFuture(null));
+  }
+
+  private boolean shouldRetry(
+      int attempt,
+      HttpRequest request,
+      long startNanos,
+      HttpResponse<String> response,
+      Throwable throwable) {
+    if (throwable != null) {
+      Throwable cause = unwrap(throwable);
+      // Connections are dropped, and HTTP/2 servers send `GOAWAY` frames. Have another go.
+      if (cause instanceof IOException && attempt < MAX_ATTEMPTS) {
+        LOG.fine(String.format("Attempt %d failed for %s: %s", attempt, request.uri(), cause));
+        return true;
+      }
+      throw new CompletionException(cause);
+    }
+
+    int code = response.statusCode();
+    if (RETRY_RESPONSE_CODES.contains(code) && attempt < MAX_ATTEMPTS) {
+      LOG.fine(String.format("Attempt %d for %s got response %d", attempt, request.uri(), code));
+      return true;
+    }
+
+    listener.onEvent(
+        new UploadEvent(
+            request.uri().toString(),
+            request.bodyPublisher().map(HttpRequest.BodyPublisher::contentLength).orElse(-1L),
+            code,
+            attempt,
+            Duration.ofNanos(System.nanoTime() - startNanos)));
+
+    if (code < 200 || code > 299) {
+      String message = String.format("Unable to upload %s (%s)", request.uri(), code);
+      String details =
+          code == 401
+              ? response.headers().firstValue("WWW-Authenticate").orElse("")
+              : response.body();
+      if (details != null && !details.isEmpty()) {
+        message += " " + details;
+      }
+      throw new UncheckedIOException(new IOException(message));
+    }
+    return false;
+  }
+
+  private static Throwable unwrap(Throwable throwable) {
+    while (throwable instanceof CompletionException && throwable.getCause() != null) {
+      throwable = throwable.getCause();
+    }
+    return throwable;
+  }
+}
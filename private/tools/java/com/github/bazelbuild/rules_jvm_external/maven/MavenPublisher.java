@@ -25,6 +25,7 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.concurrent.TimeUnit.MINUTES;
 
 import com.github.bazelbuild.rules_jvm_external.ByteStreams;
+import com.github.bazelbuild.rules_jvm_external.Digests;
 import com.github.bazelbuild.rules_jvm_external.maven.MavenSigning.SigningMetadata;
 import com.github.bazelbuild.rules_jvm_external.resolver.netrc.Netrc;
 import com.github.bazelbuild.rules_jvm_external.resolver.remote.HttpDownloader;
@@ -37,38 +38,41 @@ import com.google.cloud.storage.StorageOptions;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.io.CharStreams;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.io.StringReader;
 import java.io.UncheckedIOException;
-import java.math.BigInteger;
-import java.net.HttpURLConnection;
 import java.net.URI;
-import java.net.URL;
+import java.net.http.HttpRequest;
 import java.nio.channels.Channels;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
@@ -77,6 +81,7 @@ import org.apache.maven.artifact.repository.metadata.Versioning;
 import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Reader;
 import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Writer;
 import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
@@ -94,12 +99,16 @@ public class MavenPublisher {
     "file:/", "http://", "https://", "s3://"
   };
 
+  // Created on first use, since most repositories are not reached over HTTP
+  private static HttpUploader httpUploader;
+
   public static void main(String[] args) throws Exception {
 
-    if (args.length < 4) {
+    boolean batch = args.length == 2 && "--batch".equals(args[0]);
+    if (!batch && args.length < 4) {
       throw new IllegalArgumentException(
           "Expected at least 4 arguments: <coordinates> <path to pom> <path to main artifact>"
-              + " <publish maven metadata> [<extra artifacts>]");
+              + " <publish maven metadata> [<extra artifacts>], or --batch <path to manifest>");
     }
 
     final String repo = System.getenv("MAVEN_REPO");
@@ -107,14 +116,6 @@ public class MavenPublisher {
       throw new IllegalArgumentException("MAVEN_REPO environment variable must be set");
     }
 
-    if (!"true".equalsIgnoreCase(args[3]) && !"false".equalsIgnoreCase(args[3])) {
-      throw new IllegalArgumentException(
-          String.format(
-              "Fourth argument <publish maven metadata> should be true or false. Found: %s.",
-              args[3]));
-    }
-    boolean publishMavenMetadata = Boolean.parseBoolean(args[3]);
-
     boolean gpgSign = Boolean.parseBoolean(System.getenv("GPG_SIGN"));
     Credentials credentials =
         new BasicAuthCredentials(System.getenv("MAVEN_USER"), System.getenv("MAVEN_PASSWORD"));
@@ -124,21 +125,23 @@ public class MavenPublisher {
     SigningMetadata signingMetadata =
         new SigningMetadata(gpgSign, useInMemoryPgpKeys, signingKey, signingPassword);
 
-    final ExecutorService executorService =
-        Executors.newFixedThreadPool(
-            Optional.ofNullable(System.getenv("RJE_MAX_THREADS")).map(Integer::parseInt).orElse(8));
+    final ExecutorService executorService = Executors.newFixedThreadPool(maxThreads());
 
     try {
-      run(
-          args[0],
-          args[1],
-          args[2],
-          publishMavenMetadata,
-          args.length > 4 ? args[4] : null,
-          repo,
-          credentials,
-          signingMetadata,
-          executorService);
+      if (batch) {
+        run(Paths.get(args[1]), repo, credentials, signingMetadata, executorService);
+      } else {
+        run(
+            args[0],
+            args[1],
+            args[2],
+            parsePublishMavenMetadata(args[3], "Fourth argument"),
+            args.length > 4 ? args[4] : null,
+            repo,
+            credentials,
+            signingMetadata,
+            executorService);
+      }
     } finally {
       executorService.shutdown();
     }
@@ -156,26 +159,108 @@ public class MavenPublisher {
       Executor executor)
       throws Exception {
 
-    if (!isSchemeSupported(repo)) {
-      throw new IllegalArgumentException(
-          "Repository must be accessed via the supported schemes: "
-              + Arrays.toString(SUPPORTED_SCHEMES));
+    checkRepository(repo, publishMavenMetadata);
+
+    final Coordinates coords = Coordinates.fromString(coordinates);
+    CompletableFuture<Void> all =
+        uploadFiles(
+            new Publication(
+                coords, pomPath, mainArtifactPath, publishMavenMetadata, extraArtifacts),
+            repo,
+            credentials,
+            signingMetadata,
+            executor);
+
+    // uploading the maven-metadata.xml signals to cut over to the new version, so it must be at
+    // the end.
+    // publishing the file is opt-in for remote repositories, but always done for local file
+    // repositories.
+    if (publishMavenMetadata || repo.startsWith("file:/")) {
+      all = all.thenCompose(Void -> uploadMavenMetadata(repo, credentials, coords, executor));
     }
 
-    if (!isUploadSchemeSupported(repo) && publishMavenMetadata) {
-      throw new IllegalArgumentException(
-          "publishMavenMetadata enabled. Repository must be uploaded to via the supported schemes: "
-              + Arrays.toString(SUPPORTED_UPLOAD_SCHEMES));
+    all.get(30, MINUTES);
+  }
+
+  /**
+   * Publishes every coordinate listed in {@code batchManifest}, sharing one executor and one set of
+   * connections between them all. Each line of the manifest holds the arguments used to publish a
+   * single coordinate, separated by tabs: the coordinates, the path to the pom, the path to the
+   * main artifact (which may be empty), whether to publish maven metadata, and optionally the extra
+   * artifacts. Blank lines are ignored.
+   */
+  protected static void run(
+      Path batchManifest,
+      String repo,
+      @Nullable Credentials credentials,
+      SigningMetadata signingMetadata,
+      Executor executor)
+      throws Exception {
+
+    List<Publication> publications = Publication.readManifest(batchManifest);
+    for (Publication publication : publications) {
+      checkRepository(repo, publication.publishMavenMetadata);
+    }
+    LOG.info(String.format("Publishing %d coordinates to %s", publications.size(), repo));
+
+    // Every coordinate is published at once. Only each maven-metadata.xml has to wait, until the
+    // files for its own coordinate are in place. Versions of the same artifact share a metadata
+    // file, so their updates are made one after another rather than racing.
+    Map<String, CompletableFuture<Void>> metadataUploads = new HashMap<>();
+    Map<Coordinates, CompletableFuture<Void>> published = new LinkedHashMap<>();
+    for (Publication publication : publications) {
+      Coordinates coords = publication.coordinates;
+      CompletableFuture<Void> all =
+          uploadFiles(publication, repo, credentials, signingMetadata, executor);
+
+      if (publication.publishMavenMetadata || repo.startsWith("file:/")) {
+        String artifact = coords.groupId + ":" + coords.artifactId;
+        CompletableFuture<Void> previous =
+            metadataUploads.getOrDefault(artifact, CompletableFuture.completedFuture(null));
+        // Failing to publish one version shouldn't stop the next from being added
+        all =
+            CompletableFuture.allOf(all, previous.exceptionally(t -> null))
+                .thenCompose(Void -> uploadMavenMetadata(repo, credentials, coords, executor));
+        metadataUploads.put(artifact, all);
+      }
+
+      published.put(coords, all);
     }
 
-    final Coordinates coords = Coordinates.fromString(coordinates);
+    List<Coordinates> failed = new ArrayList<>();
+    for (Map.Entry<Coordinates, CompletableFuture<Void>> entry : published.entrySet()) {
+      try {
+        entry.getValue().get(30, MINUTES);
+      } catch (ExecutionException | TimeoutException e) {
+        LOG.log(Level.SEVERE, String.format("Unable to publish %s", entry.getKey()), e);
+        failed.add(entry.getKey());
+      }
+    }
+
+    if (!failed.isEmpty()) {
+      throw new IOException(
+          String.format(
+              "Unable to publish %d of %d coordinates: %s",
+              failed.size(), published.size(), failed));
+    }
+  }
+
+  /** Uploads the pom and artifacts of {@code publication}, but not the maven-metadata.xml. */
+  private static CompletableFuture<Void> uploadFiles(
+      Publication publication,
+      String repo,
+      @Nullable Credentials credentials,
+      SigningMetadata signingMetadata,
+      Executor executor) {
+    Coordinates coords = publication.coordinates;
 
     // Calculate md5 and sha1 for each of the inputs
-    Path pom = Paths.get(pomPath);
+    Path pom = Paths.get(publication.pomPath);
 
     List<CompletableFuture<Void>> futures = new ArrayList<>();
     futures.add(upload(repo, credentials, coords, ".pom", pom, signingMetadata, executor));
 
+    String mainArtifactPath = publication.mainArtifactPath;
     if (!mainArtifactPath.isEmpty()) {
       futures.add(
           upload(
@@ -188,6 +273,7 @@ public class MavenPublisher {
               executor));
     }
 
+    String extraArtifacts = publication.extraArtifacts;
     if (!Strings.isNullOrEmpty(extraArtifacts)) {
       List<String> extraArtifactTuples = Splitter.onPattern(",").splitToList(extraArtifacts);
       for (String artifactTuple : extraArtifactTuples) {
@@ -207,18 +293,41 @@ public class MavenPublisher {
       }
     }
 
-    CompletableFuture<Void> all =
-        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+  }
 
-    // uploading the maven-metadata.xml signals to cut over to the new version, so it must be at
-    // the end.
-    // publishing the file is opt-in for remote repositories, but always done for local file
-    // repositories.
-    if (publishMavenMetadata || repo.startsWith("file:/")) {
-      all = all.thenCompose(Void -> uploadMavenMetadata(repo, credentials, coords, executor));
+  private static void checkRepository(String repo, boolean publishMavenMetadata) {
+    if (!isSchemeSupported(repo)) {
+      throw new IllegalArgumentException(
+          "Repository must be accessed via the supported schemes: "
+              + Arrays.toString(SUPPORTED_SCHEMES));
     }
 
-    all.get(30, MINUTES);
+    if (!isUploadSchemeSupported(repo) && publishMavenMetadata) {
+      throw new IllegalArgumentException(
+          "publishMavenMetadata enabled. Repository must be uploaded to via the supported schemes: "
+              + Arrays.toString(SUPPORTED_UPLOAD_SCHEMES));
+    }
+  }
+
+  private static boolean parsePublishMavenMetadata(String value, String source) {
+    if (!"true".equalsIgnoreCase(value) && !"false".equalsIgnoreCase(value)) {
+      throw new IllegalArgumentException(
+          String.format(
+              "%s <publish maven metadata> should be true or false. Found: %s.", source, value));
+    }
+    return Boolean.parseBoolean(value);
+  }
+
+  private static int maxThreads() {
+    return Optional.ofNullable(System.getenv("RJE_MAX_THREADS")).map(Integer::parseInt).orElse(8);
+  }
+
+  private static synchronized HttpUploader httpUploader() {
+    if (httpUploader == null) {
+      httpUploader = new HttpUploader(maxThreads(), event -> LOG.info(event.toString()));
+    }
+    return httpUploader;
   }
 
   private static boolean isSchemeSupported(String repo) {
@@ -303,11 +412,13 @@ public class MavenPublisher {
                     versioning.getVersions().stream().distinct().collect(Collectors.toList()));
                 metadata.setVersioning(versioning);
 
-                Path newMavenMetadataXml = Files.createTempFile("maven-metadata", ".xml");
                 ByteArrayOutputStream os = new ByteArrayOutputStream();
                 new MetadataXpp3Writer().write(os, metadata);
-                Files.write(newMavenMetadataXml, os.toByteArray());
-                return upload(mavenMetadataUrl, credentials, newMavenMetadataXml, executor);
+                return upload(
+                    mavenMetadataUrl,
+                    credentials,
+                    Content.of("maven-metadata.xml", os.toByteArray()),
+                    executor);
               } catch (Exception e) {
                 throw new RuntimeException(e);
               }
@@ -321,8 +432,7 @@ public class MavenPublisher {
       String append,
       Path item,
       SigningMetadata signingMetadata,
-      Executor executor)
-      throws IOException {
+      Executor executor) {
 
     String base =
         String.format(
@@ -334,84 +444,95 @@ public class MavenPublisher {
             coords.artifactId,
             coords.version);
 
-    byte[] toHash = Files.readAllBytes(item);
+    // For SNAPSHOT versions, skip uploading separate checksum files
+    // Artifactory renames SNAPSHOT files with timestamps, causing checksum uploads to fail
+    // Most Maven repositories (Artifactory, Nexus, etc.) automatically calculate checksums
+    boolean isSnapshot = coords.version.contains("SNAPSHOT");
+
+    // The checksums are calculated while the primary file uploads, streaming the file from disk
+    // rather than holding it on the heap.
+    CompletableFuture<Map<String, byte[]>> checksums =
+        isSnapshot
+            ? CompletableFuture.completedFuture(Collections.emptyMap())
+            : CompletableFuture.supplyAsync(
+                () -> {
+                  try {
+                    return checksums(item);
+                  } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                  }
+                },
+                executor);
 
     // Upload primary file first, then upload hash files after it completes
     // This is required for Artifactory which rejects hash files uploaded before the primary file
-    CompletableFuture<Void> primaryUpload = upload(String.format("%s%s", base, append), credentials, item, executor);
-
-    return primaryUpload.thenCompose(v -> {
-      try {
-        List<CompletableFuture<?>> hashUploads = new ArrayList<>();
-
-        // For SNAPSHOT versions, skip uploading separate checksum files
-        // Artifactory renames SNAPSHOT files with timestamps, causing checksum uploads to fail
-        // Most Maven repositories (Artifactory, Nexus, etc.) automatically calculate checksums
-        boolean isSnapshot = coords.version.contains("SNAPSHOT");
-        if (!isSnapshot) {
-          Path md5 = Files.createTempFile(item.getFileName().toString(), ".md5");
-          Files.write(md5, toMd5(toHash).getBytes(UTF_8));
-
-          Path sha1 = Files.createTempFile(item.getFileName().toString(), ".sha1");
-          Files.write(sha1, toSha1(toHash).getBytes(UTF_8));
-
-          Path sha256 = Files.createTempFile(item.getFileName().toString(), ".sha256");
-          Files.write(sha256, toSha256(toHash).getBytes(UTF_8));
-
-          Path sha512 = Files.createTempFile(item.getFileName().toString(), ".sha512");
-          Files.write(sha512, toSha512(toHash).getBytes(UTF_8));
-
-          hashUploads.add(upload(String.format("%s%s.md5", base, append), credentials, md5, executor));
-          hashUploads.add(upload(String.format("%s%s.sha1", base, append), credentials, sha1, executor));
-          hashUploads.add(upload(String.format("%s%s.sha256", base, append), credentials, sha256, executor));
-          hashUploads.add(upload(String.format("%s%s.sha512", base, append), credentials, sha512, executor));
-        }
-
-        MavenSigning.SigningMethod signingMethod = signingMetadata.signingMethod;
-        if (signingMethod.equals(MavenSigning.SigningMethod.GPG)) {
-          hashUploads.add(
-              upload(String.format("%s%s.asc", base, append), credentials, gpg_sign(item), executor));
-        } else if (signingMethod.equals(MavenSigning.SigningMethod.PGP)) {
-          hashUploads.add(
-              upload(
-                  String.format("%s%s.asc", base, append),
-                  credentials,
-                  in_memory_pgp_sign(
-                      item, signingMetadata.getSigningKey(), signingMetadata.getSigningPassword()),
-                  executor));
-        }
-
-        return CompletableFuture.allOf(hashUploads.toArray(new CompletableFuture<?>[0]));
-      } catch (IOException | InterruptedException e) {
-        throw new RuntimeException(e);
-      }
-    });
-  }
-
-  private static String toSha1(byte[] toHash) {
-    return toHexS("%040x", "SHA-1", toHash);
-  }
-
-  private static String toSha256(byte[] toHash) {
-    return toHexS("%064x", "SHA-256", toHash);
-  }
-
-  private static String toSha512(byte[] toHash) {
-    return toHexS("%0128x", "SHA-512", toHash);
-  }
+    CompletableFuture<Void> primaryUpload =
+        upload(String.format("%s%s", base, append), credentials, Content.of(item), executor);
+
+    // Signing blocks while gpg runs, so keep it off the thread which completed the primary upload
+    return primaryUpload
+        .thenCombine(checksums, (v, sums) -> sums)
+        .thenComposeAsync(
+            sums -> {
+              try {
+                List<CompletableFuture<?>> hashUploads = new ArrayList<>();
+
+                sums.forEach(
+                    (extension, checksum) ->
+                        hashUploads.add(
+                            upload(
+                                String.format("%s%s.%s", base, append, extension),
+                                credentials,
+                                Content.of(item.getFileName() + "." + extension, checksum),
+                                executor)));
+
+                MavenSigning.SigningMethod signingMethod = signingMetadata.signingMethod;
+                if (signingMethod.equals(MavenSigning.SigningMethod.GPG)) {
+                  hashUploads.add(
+                      upload(
+                          String.format("%s%s.asc", base, append),
+                          credentials,
+                          Content.of(gpg_sign(item)),
+                          executor));
+                } else if (signingMethod.equals(MavenSigning.SigningMethod.PGP)) {
+                  hashUploads.add(
+                      upload(
+                          String.format("%s%s.asc", base, append),
+                          credentials,
+                          Content.of(
+                              in_memory_pgp_sign(
+                                  item,
+                                  signingMetadata.getSigningKey(),
+                                  signingMetadata.getSigningPassword())),
+                          executor));
+                }
 
-  private static String toMd5(byte[] toHash) {
-    return toHexS("%032x", "MD5", toHash);
+                return CompletableFuture.allOf(hashUploads.toArray(new CompletableFuture<?>[0]));
+              } catch (IOException | InterruptedException e) {
+                throw new RuntimeException(e);
+              }
+            },
+            executor);
   }
 
-  private static String toHexS(String fmt, String algorithm, byte[] toHash) {
-    try {
-      MessageDigest digest = MessageDigest.getInstance(algorithm);
-      digest.update(toHash);
-      return String.format(fmt, new BigInteger(1, digest.digest()));
-    } catch (NoSuchAlgorithmException e) {
-      throw new RuntimeException(e);
-    }
+  /**
+   * Calculates the bodies of the checksum files published alongside {@code item}, keyed by their
+   * file extension. The file is read once, however many checksums there are.
+   */
+  static Map<String, byte[]> checksums(Path item) throws IOException {
+    Map<String, MessageDigest> digests = new LinkedHashMap<>();
+    digests.put("md5", Digests.newDigest("MD5"));
+    digests.put("sha1", Digests.newDigest("SHA-1"));
+    digests.put("sha256", Digests.newDigest("SHA-256"));
+    digests.put("sha512", Digests.newDigest("SHA-512"));
+
+    Digests.digestAll(item, digests.values().toArray(new MessageDigest[0]));
+
+    Map<String, byte[]> checksums = new LinkedHashMap<>();
+    digests.forEach(
+        (extension, digest) ->
+            checksums.put(extension, Digests.toHex(digest.digest()).getBytes(UTF_8)));
+    return checksums;
   }
 
   /**
@@ -486,16 +607,18 @@ public class MavenPublisher {
   }
 
   private static CompletableFuture<Void> upload(
-      String targetUrl, Credentials credentials, Path toUpload, Executor executor) {
-    Callable<Void> callable;
+      String targetUrl, Credentials credentials, Content toUpload, Executor executor) {
     if (targetUrl.startsWith("http://") || targetUrl.startsWith("https://")) {
-      callable = httpUpload(targetUrl, credentials, toUpload);
-    } else if (targetUrl.startsWith("gs://")) {
+      return httpUpload(targetUrl, credentials, toUpload, executor);
+    } else if (targetUrl.startsWith("artifactregistry://")) {
+      return arUpload(targetUrl, toUpload, executor);
+    }
+
+    Callable<Void> callable;
+    if (targetUrl.startsWith("gs://")) {
       callable = gcsUpload(targetUrl, toUpload);
     } else if (targetUrl.startsWith("s3://")) {
       callable = s3upload(targetUrl, toUpload);
-    } else if (targetUrl.startsWith("artifactregistry://")) {
-      callable = arUpload(targetUrl, toUpload);
     } else {
       callable = writeFile(targetUrl, toUpload);
     }
@@ -511,73 +634,58 @@ public class MavenPublisher {
         executor);
   }
 
-  private static Callable<Void> httpUpload(
-      String targetUrl, Credentials credentials, Path toUpload) {
-    return () -> {
-      LOG.info(String.format("Uploading to %s", targetUrl));
-      URL url = new URL(targetUrl);
-
-      HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-      connection.setRequestMethod("PUT");
-      connection.setDoOutput(true);
-      if (credentials != null) {
-        if (!credentials.hasRequestMetadataOnly()) {
-          throw new RuntimeException("Unsupported credentials");
-        }
-        if (credentials.hasRequestMetadata()) {
-          credentials
-              .getRequestMetadata()
-              .forEach(
-                  (k, l) -> {
-                    l.forEach(v -> connection.addRequestProperty(k, v));
-                  });
-        }
-      }
-      connection.setRequestProperty("Content-Length", "" + Files.size(toUpload));
-
-      try (OutputStream out = connection.getOutputStream()) {
-        try (InputStream is = Files.newInputStream(toUpload)) {
-          ByteStreams.copy(is, out);
-        }
-
-        int code = connection.getResponseCode();
-
-        if (code == HttpURLConnection.HTTP_UNAUTHORIZED) {
-          throw new RuntimeException(connection.getHeaderField("WWW-Authenticate"));
-        }
-
-        if (code < 200 || code > 299) {
-          try (InputStream in = connection.getErrorStream()) {
-            String message;
-            if (in != null) {
-              String body = new String(ByteStreams.toByteArray(in));
-              message = String.format("Unable to upload %s (%s) %s", targetUrl, code, body);
-            } else {
-              message = String.format("Unable to upload %s (%s)", targetUrl, code);
-            }
+  private static CompletableFuture<Void> httpUpload(
+      String targetUrl, Credentials credentials, Content toUpload, Executor executor) {
+    // Fetching credentials' metadata may block while tokens are refreshed, so do it on the executor
+    return CompletableFuture.supplyAsync(
+            () -> {
+              try {
+                return requestHeaders(credentials);
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            },
+            executor)
+        .thenCompose(
+            headers -> {
+              try {
+                return httpUploader()
+                    .put(URI.create(targetUrl), headers, toUpload.toBodyPublisher());
+              } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+              }
+            });
+  }
 
-            throw new IOException(message);
-          }
-        }
-      }
-      LOG.info(String.format("Upload to %s complete.", targetUrl));
-      return null;
-    };
+  private static Map<String, List<String>> requestHeaders(@Nullable Credentials credentials)
+      throws IOException {
+    if (credentials == null) {
+      return Collections.emptyMap();
+    }
+    if (!credentials.hasRequestMetadataOnly()) {
+      throw new RuntimeException("Unsupported credentials");
+    }
+    if (!credentials.hasRequestMetadata()) {
+      return Collections.emptyMap();
+    }
+    return credentials.getRequestMetadata();
   }
 
-  private static Callable<Void> writeFile(String targetUrl, Path toUpload) {
+  private static Callable<Void> writeFile(String targetUrl, Content toUpload) {
     return () -> {
       LOG.info(String.format("Copying %s to %s", toUpload, targetUrl));
       Path path = Paths.get(URI.create(targetUrl));
       Files.createDirectories(path.getParent());
       Files.deleteIfExists(path);
-      Files.copy(toUpload, path);
+      try (InputStream is = toUpload.open()) {
+        Files.copy(is, path);
+      }
 
       return null;
     };
   }
 
-  private static Callable<Void> gcsUpload(String targetUrl, Path toUpload) {
+  private static Callable<Void> gcsUpload(String targetUrl, Content toUpload) {
     return () -> {
       Storage storage = StorageOptions.getDefaultInstance().getService();
       URI gsUri = URI.create(targetUrl);
@@ -587,7 +695,7 @@ public class MavenPublisher {
       LOG.info(String.format("Copying %s to gs://%s/%s", toUpload, bucketName, path));
       BlobInfo blobInfo = BlobInfo.newBuilder(bucketName, path).build();
       try (WriteChannel writer = storage.writer(blobInfo);
-          InputStream is = Files.newInputStream(toUpload)) {
+          InputStream is = toUpload.open()) {
         ByteStreams.copy(is, Channels.newOutputStream(writer));
       }
 
@@ -595,7 +703,7 @@ public class MavenPublisher {
     };
   }
 
-  private static Callable<Void> s3upload(String targetUrl, Path toUpload) {
+  private static Callable<Void> s3upload(String targetUrl, Content toUpload) {
     return () -> {
       try (S3Client s3Client = S3Client.create()) {
         URI s3Uri = URI.create(targetUrl);
@@ -604,18 +712,119 @@ public class MavenPublisher {
 
         LOG.info(String.format("Copying %s to s3://%s/%s", toUpload, bucketName, path));
         s3Client.putObject(
-            PutObjectRequest.builder().bucket(bucketName).key(path).build(), toUpload);
+            PutObjectRequest.builder().bucket(bucketName).key(path).build(),
+            toUpload.toRequestBody());
       }
       return null;
     };
   }
 
-  private static Callable<Void> arUpload(String targetUrl, Path toUpload) {
-    return () -> {
-      Credentials cred = GoogleCredentials.getApplicationDefault();
-      String url = "https://" + targetUrl.substring(19);
-      return httpUpload(url, cred, toUpload).call();
-    };
+  private static CompletableFuture<Void> arUpload(
+      String targetUrl, Content toUpload, Executor executor) {
+    String url = "https://" + targetUrl.substring(19);
+    return CompletableFuture.supplyAsync(
+            () -> {
+              try {
+                return GoogleCredentials.getApplicationDefault();
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            },
+            executor)
+        .thenCompose(cred -> httpUpload(url, cred, toUpload, executor));
+  }
+
+  /**
+   * Something to upload. Files are streamed from disk, and only small bodies, such as checksums and
+   * metadata, are ever held in memory.
+   */
+  private static class Content {
+    private final String description;
+    private final @Nullable Path path;
+    private final @Nullable byte[] bytes;
+
+    private Content(String description, @Nullable Path path, @Nullable byte[] bytes) {
+      this.description = description;
+      this.path = path;
+      this.bytes = bytes;
+    }
+
+    static Content of(Path path) {
+      return new Content(path.toString(), path, null);
+    }
+
+    static Content of(String description, byte[] bytes) {
+      return new Content(description, null, bytes);
+    }
+
+    InputStream open() throws IOException {
+      return path != null ? Files.newInputStream(path) : new ByteArrayInputStream(bytes);
+    }
+
+    HttpRequest.BodyPublisher toBodyPublisher() throws FileNotFoundException {
+      return path != null
+          ? HttpRequest.BodyPublishers.ofFile(path)
+          : HttpRequest.BodyPublishers.ofByteArray(bytes);
+    }
+
+    RequestBody toRequestBody() {
+      return path != null ? RequestBody.fromFile(path) : RequestBody.fromBytes(bytes);
+    }
+
+    @Override
+    public String toString() {
+      return description;
+    }
+  }
+
+  /** The arguments for publishing a single coordinate. */
+  private static class Publication {
+    private final Coordinates coordinates;
+    private final String pomPath;
+    private final String mainArtifactPath;
+    private final boolean publishMavenMetadata;
+    private final @Nullable String extraArtifacts;
+
+    Publication(
+        Coordinates coordinates,
+        String pomPath,
+        String mainArtifactPath,
+        boolean publishMavenMetadata,
+        @Nullable String extraArtifacts) {
+      this.coordinates = coordinates;
+      this.pomPath = pomPath;
+      this.mainArtifactPath = mainArtifactPath;
+      this.publishMavenMetadata = publishMavenMetadata;
+      this.extraArtifacts = extraArtifacts;
+    }
+
+    static List<Publication> readManifest(Path manifest) throws IOException {
+      List<String> lines = Files.readAllLines(manifest, UTF_8);
+      List<Publication> publications = new ArrayList<>();
+      for (int i = 0; i < lines.size(); i++) {
+        String line = lines.get(i);
+        if (line.isBlank()) {
+          continue;
+        }
+
+        String source = String.format("Line %d of %s:", i + 1, manifest);
+        String[] fields = line.split("\t", -1);
+        if (fields.length < 4 || fields.length > 5) {
+          throw new IllegalArgumentException(
+              source
+                  + " expected 4 or 5 tab separated fields: <coordinates> <path to pom> <path to"
+                  + " main artifact> <publish maven metadata> [<extra artifacts>]");
+        }
+        publications.add(
+            new Publication(
+                Coordinates.fromString(fields[0]),
+                fields[1],
+                fields[2],
+                parsePublishMavenMetadata(fields[3], source),
+                fields.length > 4 ? fields[4] : null));
+      }
+      return publications;
+    }
   }
 
   private static class Coordinates {
@@ -637,6 +846,11 @@ public class MavenPublisher {
       }
       return new Coordinates(parts[0], parts[1], parts[2]);
     }
+
+    @Override
+    public String toString() {
+      return groupId + ":" + artifactId + ":" + version;
+    }
   }
 
   private static class BasicAuthCredentials extends Credentials {
@@ -28,6 +28,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -42,6 +43,7 @@ public class ResolutionRequest {
   private boolean useUnsafeSharedCache;
   private Path userHome;
   private boolean isUsingM2Local;
+  private Map<String, String> runfilesEnvironment;
 
   public ResolutionRequest addRepository(String uri) {
     if ("m2local".equals(uri) || "m2Local".equals(uri)) {
@@ -123,6 +125,19 @@ public class ResolutionRequest {
     return this;
   }
 
+  /**
+   * Sets the environment variables used to find runfiles. A resolver daemon resolves on behalf of
+   * processes with their own runfiles trees, so it can't use its own environment.
+   */
+  public ResolutionRequest setRunfilesEnvironment(Map<String, String> runfilesEnvironment) {
+    this.runfilesEnvironment = runfilesEnvironment;
+    return this;
+  }
+
+  public Map<String, String> getRunfilesEnvironment() {
+    return runfilesEnvironment == null ? System.getenv() : runfilesEnvironment;
+  }
+
   public ResolutionRequest replaceDependencies(Collection<Artifact> amended) {
     ResolutionRequest toReturn = new ResolutionRequest();
 
@@ -133,6 +148,7 @@ public class ResolutionRequest {
     toReturn.useUnsafeSharedCache = isUseUnsafeSharedCache();
     toReturn.userHome = userHome;
     toReturn.isUsingM2Local = isUsingM2Local();
+    toReturn.runfilesEnvironment = runfilesEnvironment;
 
     return toReturn;
   }
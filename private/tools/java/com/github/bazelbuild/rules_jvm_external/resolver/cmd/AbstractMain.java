@@ -14,17 +14,17 @@
 
 package com.github.bazelbuild.rules_jvm_external.resolver.cmd;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.stream.Collectors.joining;
 
 import com.github.bazelbuild.rules_jvm_external.Coordinates;
-import com.github.bazelbuild.rules_jvm_external.jar.IndexJar;
+import com.github.bazelbuild.rules_jvm_external.jar.IndexCache;
 import com.github.bazelbuild.rules_jvm_external.jar.PerJarIndexResults;
 import com.github.bazelbuild.rules_jvm_external.resolver.Conflict;
 import com.github.bazelbuild.rules_jvm_external.resolver.DependencyInfo;
 import com.github.bazelbuild.rules_jvm_external.resolver.ResolutionRequest;
 import com.github.bazelbuild.rules_jvm_external.resolver.ResolutionResult;
 import com.github.bazelbuild.rules_jvm_external.resolver.Resolver;
+import com.github.bazelbuild.rules_jvm_external.resolver.events.CacheEvent;
 import com.github.bazelbuild.rules_jvm_external.resolver.events.EventListener;
 import com.github.bazelbuild.rules_jvm_external.resolver.events.PhaseEvent;
 import com.github.bazelbuild.rules_jvm_external.resolver.lockfile.DependencyIndex;
@@ -37,49 +37,91 @@ import com.github.bazelbuild.rules_jvm_external.resolver.remote.UriNotFoundExcep
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.graph.Graph;
-import com.google.gson.GsonBuilder;
-import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalInt;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.function.Supplier;
 
 public abstract class AbstractMain {
 
   public void doMain(String[] args) {
+    if (args.length > 0 && ResolverDaemon.SERVE_FLAG.equals(args[0])) {
+      ResolverDaemon.serve(this, args);
+      System.exit(0);
+    }
+
+    if (ResolverDaemon.isEnabled()) {
+      OptionalInt exitCode = ResolverDaemon.delegate(this, args);
+      if (exitCode.isPresent()) {
+        System.exit(exitCode.getAsInt());
+      }
+    }
+
+    System.exit(run(args, Paths.get(""), System.console() != null, System.getenv()));
+  }
+
+  /**
+   * Performs a single resolution, returning the exit code for the process. This may be called many
+   * times by the same process, so must not exit. Runfiles are found using {@code
+   * runfilesEnvironment}, as they belong to whichever process asked for the resolution.
+   */
+  int run(
+      String[] args,
+      Path workingDirectory,
+      boolean consoleAvailable,
+      Map<String, String> runfilesEnvironment) {
     Set<DependencyInfo> infos;
-    try (EventListener listener = HttpDownloader.defaultEventListener()) {
-      ResolverConfig config = new ResolverConfig(listener, args);
+    try (EventListener listener = HttpDownloader.defaultEventListener(consoleAvailable)) {
+      ResolverConfig config = new ResolverConfig(listener, workingDirectory, args);
 
-      ResolutionRequest request = config.getResolutionRequest();
+      ResolutionRequest request =
+          config.getResolutionRequest().setRunfilesEnvironment(runfilesEnvironment);
 
       Resolver resolver = getResolver(config.getNetrc(), config.getMaxThreads(), listener);
 
-      ResolutionResult resolutionResult = resolver.resolve(request);
+      PreviousResolution previous =
+          config.isIncremental() ? PreviousResolution.read(config, listener) : null;
+
+      ResolutionResult resolutionResult;
+      if (previous != null && previous.hasSameInputs(config)) {
+        listener.onEvent(new PhaseEvent("Reusing previous resolution"));
+        resolutionResult = previous.getResolutionResult(request);
+      } else {
+        resolutionResult = resolver.resolve(request);
+      }
 
-      infos = fulfillDependencyInfos(resolver, listener, config, resolutionResult);
+      infos = fulfillDependencyInfos(resolver, listener, config, resolutionResult, previous);
 
       writeLockFile(listener, config, request, infos, resolutionResult.getConflicts());
       writeDependencyIndex(config, infos);
 
-      System.exit(0);
+      return 0;
+    } catch (FetchFailedException e) {
+      e.getCause().printStackTrace();
+      return e.exitCode;
     } catch (Exception e) {
       e.printStackTrace();
-      System.exit(1);
+      return 1;
     }
   }
 
@@ -89,7 +131,8 @@ public abstract class AbstractMain {
       Resolver resolver,
       EventListener listener,
       ResolverConfig config,
-      ResolutionResult resolutionResult) {
+      ResolutionResult resolutionResult,
+      PreviousResolution previous) {
     listener.onEvent(new PhaseEvent("Downloading dependencies"));
 
     ResolutionRequest request = config.getResolutionRequest();
@@ -106,73 +149,130 @@ public abstract class AbstractMain {
             request.getRepositories(),
             listener,
             cacheResults,
-            resolutionResult.getPaths());
+            resolutionResult.getPaths(),
+            // Every download thread may be busy with the same repository, such as Maven Central
+            config.getMaxThreads());
 
     List<CompletableFuture<Set<DependencyInfo>>> futures = new LinkedList<>();
 
     Graph<Coordinates> resolved = resolutionResult.getResolution();
+    IndexCache indexCache = IndexCache.fromEnvironment();
+    long reusedCount = 0;
+    long fetchedCount = 0;
 
+    // Fetching is bound by the network and indexing by the CPU, so each gets its own pool. The
+    // number of downloads in flight is still capped by the configured max threads, but a thread
+    // is no longer tied up indexing a jar when it could be fetching the next one.
     ExecutorService downloadService =
+        Executors.newFixedThreadPool(config.getMaxThreads(), daemonThreads("downloader"));
+    ExecutorService indexService =
         Executors.newFixedThreadPool(
-            config.getMaxThreads(),
-            r -> {
-              Thread thread = new Thread(r);
-              thread.setDaemon(true);
-              thread.setName("downloader");
-              return thread;
-            });
+            Runtime.getRuntime().availableProcessors(), daemonThreads("indexer"));
     try {
       for (Coordinates coords : resolved.nodes()) {
-        Supplier<Set<DependencyInfo>> dependencyInfoSupplier =
-            () -> {
-              try {
-                return getDependencyInfos(
-                    downloader,
-                    coords,
-                    resolved.successors(coords),
-                    config.isFetchSources(),
-                    config.isFetchJavadoc());
-              } catch (UriNotFoundException e) {
-                List<Coordinates> path = new LinkedList<>();
-                path.add(coords);
-                Set<Coordinates> predecessors = resolved.predecessors(coords);
-                while (!predecessors.isEmpty()) {
-                  Coordinates next = predecessors.iterator().next();
-                  path.add(next);
-                  predecessors = resolved.predecessors(next);
+        Set<Coordinates> dependencies = resolved.successors(coords);
+
+        // Only artifacts new to the graph need to be downloaded and indexed
+        Optional<DependencyInfo> reused =
+            previous == null ? Optional.empty() : previous.reuse(coords, dependencies);
+        CompletableFuture<Boolean> found;
+        if (reused.isPresent()) {
+          reusedCount++;
+          futures.add(CompletableFuture.completedFuture(Set.of(reused.get())));
+          found = CompletableFuture.completedFuture(true);
+        } else {
+          fetchedCount++;
+          Supplier<DownloadResult> downloadSupplier =
+              () -> {
+                try {
+                  return downloader.download(coords);
+                } catch (UriNotFoundException e) {
+                  List<Coordinates> path = new LinkedList<>();
+                  path.add(coords);
+                  Set<Coordinates> predecessors = resolved.predecessors(coords);
+                  while (!predecessors.isEmpty()) {
+                    Coordinates next = predecessors.iterator().next();
+                    path.add(next);
+                    predecessors = resolved.predecessors(next);
+                  }
+                  Collections.reverse(path);
+                  throw new UriNotFoundException(
+                      String.format(
+                          "Unable to download %s from any of %s. Required because: %s",
+                          coords,
+                          request.getRepositories(),
+                          path.stream().map(Object::toString).collect(joining(" -> "))));
                 }
-                Collections.reverse(path);
-                throw new UriNotFoundException(
-                    String.format(
-                        "Unable to download %s from any of %s. Required because: %s",
-                        coords,
-                        request.getRepositories(),
-                        path.stream().map(Object::toString).collect(joining(" -> "))));
-              }
-            };
-        futures.add(CompletableFuture.supplyAsync(dependencyInfoSupplier, downloadService));
+              };
+          CompletableFuture<DownloadResult> download =
+              CompletableFuture.supplyAsync(downloadSupplier, downloadService);
+          futures.add(
+              download.thenApplyAsync(
+                  result -> getDependencyInfos(indexCache, coords, dependencies, result),
+                  indexService));
+          found = download.thenApply(Objects::nonNull);
+        }
+
+        // Sources and javadoc are fetched alongside the main artifact rather than after it. They
+        // are only kept if the main artifact could be found.
+        if (config.isFetchSources()) {
+          futures.add(
+              fetchClassifierInfos(
+                  downloader, previous, coords, "sources", found, downloadService));
+        }
+        if (config.isFetchJavadoc()) {
+          futures.add(
+              fetchClassifierInfos(
+                  downloader, previous, coords, "javadoc", found, downloadService));
+        }
       }
 
-      return futures.stream()
-          .map(
-              future -> {
-                try {
-                  return future.get();
-                } catch (InterruptedException e) {
-                  System.exit(5);
-                } catch (ExecutionException e) {
-                  e.getCause().printStackTrace();
-                  System.exit(2);
-                }
-                return null;
-              })
-          .flatMap(Set::stream)
-          .collect(ImmutableSet.toImmutableSet());
+      if (previous != null) {
+        listener.onEvent(new CacheEvent("lock file", reusedCount, fetchedCount));
+      }
+
+      Set<DependencyInfo> infos =
+          futures.stream()
+              .map(
+                  future -> {
+                    try {
+                      return future.get();
+                    } catch (InterruptedException e) {
+                      Thread.currentThread().interrupt();
+                      throw new FetchFailedException(5, e);
+                    } catch (ExecutionException e) {
+                      throw new FetchFailedException(2, e.getCause());
+                    }
+                  })
+              .flatMap(Set::stream)
+              .collect(ImmutableSet.toImmutableSet());
+      listener.onEvent(new CacheEvent("index", indexCache.getHits(), indexCache.getMisses()));
+      indexCache.prune();
+      return infos;
     } finally {
       downloadService.shutdown();
+      indexService.shutdown();
+    }
+  }
+
+  private static class FetchFailedException extends RuntimeException {
+    private final int exitCode;
+
+    FetchFailedException(int exitCode, Throwable cause) {
+      super(cause);
+      this.exitCode = exitCode;
     }
   }
 
+  private static ThreadFactory daemonThreads(String name) {
+    return r -> {
+      Thread thread = new Thread(r);
+      thread.setDaemon(true);
+      thread.setName(name);
+      return thread;
+    };
+  }
+
   private static DownloadResult optionallyDownload(Downloader downloader, Coordinates coords) {
     try {
       return downloader.download(coords);
@@ -181,16 +281,32 @@ public abstract class AbstractMain {
     }
   }
 
-  private static Set<DependencyInfo> getDependencyInfos(
+  private static CompletableFuture<Set<DependencyInfo>> fetchClassifierInfos(
       Downloader downloader,
+      PreviousResolution previous,
+      Coordinates coords,
+      String classifier,
+      CompletableFuture<Boolean> found,
+      Executor executor) {
+    Coordinates classified = coords.setClassifier(classifier).setExtension("jar");
+    Optional<DependencyInfo> reused =
+        previous == null ? Optional.empty() : previous.reuse(classified, Set.of());
+    if (reused.isPresent()) {
+      return found.thenApply(isFound -> isFound ? Set.of(reused.get()) : Set.<DependencyInfo>of());
+    }
+
+    return found.thenCombine(
+        CompletableFuture.supplyAsync(() -> optionallyDownload(downloader, classified), executor),
+        AbstractMain::getClassifierInfos);
+  }
+
+  private static Set<DependencyInfo> getDependencyInfos(
+      IndexCache indexCache,
       Coordinates coords,
       Set<Coordinates> dependencies,
-      boolean fetchSources,
-      boolean fetchJavadoc) {
+      DownloadResult result) {
     ImmutableSet.Builder<DependencyInfo> toReturn = ImmutableSet.builder();
 
-    DownloadResult result = downloader.download(coords);
-
     if (result == null) {
       return toReturn.build();
     }
@@ -198,7 +314,7 @@ public abstract class AbstractMain {
     PerJarIndexResults indexResults;
     if (result.getPath().isPresent()) {
       try {
-        indexResults = new IndexJar().index(result.getPath().get());
+        indexResults = indexCache.index(result.getPath().get(), result.getSha256().orElse(null));
       } catch (IOException e) {
         throw new UncheckedIOException(e);
       }
@@ -217,41 +333,25 @@ public abstract class AbstractMain {
             indexResults.getClasses(),
             indexResults.getServiceImplementations()));
 
-    if (fetchSources) {
-      Coordinates sourceCoords = coords.setClassifier("sources").setExtension("jar");
-      DownloadResult source = optionallyDownload(downloader, sourceCoords);
-      if (source != null) {
-        toReturn.add(
-            new DependencyInfo(
-                sourceCoords,
-                source.getRepositories(),
-                source.getPath(),
-                source.getSha256(),
-                ImmutableSet.of(),
-                ImmutableSet.of(),
-                ImmutableSet.of(),
-                ImmutableSortedMap.of()));
-      }
-    }
+    return toReturn.build();
+  }
 
-    if (fetchJavadoc) {
-      Coordinates docCoords = coords.setClassifier("javadoc").setExtension("jar");
-      DownloadResult javadoc = optionallyDownload(downloader, docCoords);
-      if (javadoc != null) {
-        toReturn.add(
-            new DependencyInfo(
-                docCoords,
-                javadoc.getRepositories(),
-                javadoc.getPath(),
-                javadoc.getSha256(),
-                ImmutableSet.of(),
-                ImmutableSet.of(),
-                ImmutableSet.of(),
-                ImmutableSortedMap.of()));
-      }
+  private static Set<DependencyInfo> getClassifierInfos(
+      boolean mainFound, DownloadResult classified) {
+    if (!mainFound || classified == null) {
+      return ImmutableSet.of();
     }
 
-    return toReturn.build();
+    return ImmutableSet.of(
+        new DependencyInfo(
+            classified.getCoordinates(),
+            classified.getRepositories(),
+            classified.getPath(),
+            classified.getSha256(),
+            ImmutableSet.of(),
+            ImmutableSet.of(),
+            ImmutableSet.of(),
+            ImmutableSortedMap.of()));
   }
 
   private static void writeLockFile(
@@ -269,27 +369,22 @@ public abstract class AbstractMain {
     // If a dependency index is being generated, we can omit packages from the lock file
     // since that information is available in the index file
     boolean includePackages = config.getDependencyIndexOutput() == null;
-    Map<String, Object> rendered =
-        new V3LockFile(request.getRepositories(), infos, conflicts, includePackages).render();
-
-    Map<Object, Object> toReturn = new TreeMap<>(rendered);
-    // We don't need this, and having it will cause problems
-    toReturn.remove("files");
+    V3LockFile lockFile =
+        new V3LockFile(request.getRepositories(), infos, conflicts, includePackages);
 
-    toReturn.put(
+    // The lock file itself never includes the "files", as having them will cause problems
+    Map<String, Object> header = new LinkedHashMap<>();
+    header.put(
         "__AUTOGENERATED_FILE_DO_NOT_MODIFY_THIS_FILE_MANUALLY", "THERE_IS_NO_DATA_ONLY_ZUUL");
 
     if (config.getInputHash() != null) {
-      toReturn.put("__INPUT_ARTIFACTS_HASH", config.getInputHash());
-      toReturn.put("__RESOLVED_ARTIFACTS_HASH", calculateArtifactHash(rendered));
+      header.put("__INPUT_ARTIFACTS_HASH", config.getInputHash());
+      header.put(
+          "__RESOLVED_ARTIFACTS_HASH", calculateArtifactHash(lockFile.renderHashedSections()));
     }
 
-    String converted =
-        new GsonBuilder().setPrettyPrinting().serializeNulls().create().toJson(toReturn) + "\n";
-
-    try (OutputStream os = output == null ? System.out : Files.newOutputStream(output);
-        BufferedOutputStream bos = new BufferedOutputStream(os)) {
-      bos.write(converted.getBytes(UTF_8));
+    try (OutputStream os = output == null ? System.out : Files.newOutputStream(output)) {
+      lockFile.write(header, os);
     }
   }
 
@@ -300,114 +395,12 @@ public abstract class AbstractMain {
       return;
     }
 
-    Map<String, Object> rendered = new DependencyIndex(infos).render();
-
-    String converted =
-        new GsonBuilder().setPrettyPrinting().serializeNulls().create().toJson(rendered) + "\n";
-
-    try (OutputStream os = Files.newOutputStream(output);
-        BufferedOutputStream bos = new BufferedOutputStream(os)) {
-      bos.write(converted.getBytes(UTF_8));
+    try (OutputStream os = Files.newOutputStream(output)) {
+      new DependencyIndex(infos).write(os);
     }
   }
 
-  @SuppressWarnings("unchecked")
   public static Map<String, Integer> calculateArtifactHash(Map<String, Object> rendered) {
-    Map<String, Map<String, Object>> allInfos = new LinkedHashMap<>();
-
-    Map<String, Map<String, Object>> artifacts =
-        sortMapRecursively((Map<?, ?>) rendered.get("artifacts"));
-    for (Map.Entry<String, Map<String, Object>> dep : artifacts.entrySet()) {
-      Map<String, Object> depInfo = dep.getValue();
-      Map<String, String> shasums = (Map<String, String>) depInfo.get("shasums");
-
-      Map<String, Object> commonInfo = new LinkedHashMap<>(depInfo);
-      commonInfo.remove("shasums");
-
-      boolean isJarType = dep.getKey().chars().filter(x -> x == ':').count() == 1;
-
-      for (Map.Entry<String, String> shaEntry : shasums.entrySet()) {
-        String type = shaEntry.getKey();
-        String sha = shaEntry.getValue();
-
-        String jarSuffix = isJarType ? ":jar" : "";
-        String suffix = (!type.equals("jar")) ? jarSuffix + ":" + type : "";
-
-        Map<String, Object> typeInfo = new LinkedHashMap<>();
-        typeInfo.put("standard", commonInfo);
-        typeInfo.put("sha", sha);
-        allInfos.put(dep.getKey() + suffix, typeInfo);
-      }
-    }
-
-    Map<String, Iterable<String>> repositories =
-        sortMapRecursively((Map<?, ?>) rendered.get("repositories"));
-    for (Map.Entry<String, Iterable<String>> repo : repositories.entrySet()) {
-      Iterable<String> repoArtifacts = repo.getValue();
-      for (String art : repoArtifacts) {
-        allInfos.get(art).put("repository", repo.getKey());
-      }
-    }
-
-    Map<String, Set<String>> dependencies =
-        sortMapRecursively((Map<?, ?>) rendered.get("dependencies"));
-    for (Map.Entry<String, Set<String>> dep : dependencies.entrySet()) {
-      allInfos.get(dep.getKey()).put("dependencies", dep.getValue());
-    }
-
-    Map<String, Integer> finalHash = new TreeMap<>();
-    allInfos.forEach((k, v) -> calculateFinalHash(k, allInfos, finalHash));
-
-    return finalHash;
-  }
-
-  @SuppressWarnings("unchecked")
-  private static int calculateFinalHash(
-      String curr, Map<String, Map<String, Object>> allInfos, Map<String, Integer> finalHash) {
-    StarlarkRepr repr = new StarlarkRepr();
-
-    if (finalHash.containsKey(curr)) {
-      return finalHash.get(curr);
-    }
-    if (!allInfos.containsKey(curr)) {
-      return 0;
-    }
-
-    finalHash.put(curr, repr.repr(allInfos.get(curr)).hashCode());
-
-    Set<String> deps =
-        (Set<String>) allInfos.get(curr).getOrDefault("dependencies", Collections.emptySet());
-    Map<String, Integer> hashedDeps = new TreeMap<>();
-    for (String dep : deps) {
-      hashedDeps.put(dep, calculateFinalHash(dep, allInfos, finalHash));
-    }
-
-    allInfos.get(curr).put("dependency_hashes", hashedDeps);
-    finalHash.put(curr, repr.repr(allInfos.get(curr)).hashCode());
-    return finalHash.get(curr);
-  }
-
-  @SuppressWarnings("unchecked")
-  private static <T> Map<String, T> sortMapRecursively(Map<?, ?> map) {
-    TreeMap<String, T> sorted = new TreeMap<>();
-    for (Map.Entry<?, ?> entry : map.entrySet()) {
-      Object value = entry.getValue();
-      if (value instanceof Map) {
-        value = sortMapRecursively((Map<?, ?>) value);
-      } else if (value instanceof List) {
-        List<?> list = (List<?>) value;
-        List<Object> sortedList = new java.util.ArrayList<>();
-        for (Object item : list) {
-          if (item instanceof Map) {
-            sortedList.add(sortMapRecursively((Map<?, ?>) item));
-          } else {
-            sortedList.add(item);
-          }
-        }
-        value = sortedList;
-      }
-      sorted.put(String.valueOf(entry.getKey()), (T) value);
-    }
-    return sorted;
+    return ResolvedArtifactsHash.calculate(rendered);
   }
 }
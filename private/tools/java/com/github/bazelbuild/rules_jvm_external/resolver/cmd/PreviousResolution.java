@@ -0,0 +1,166 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.cmd;
+
+import com.github.bazelbuild.rules_jvm_external.Coordinates;
+import com.github.bazelbuild.rules_jvm_external.resolver.Artifact;
+import com.github.bazelbuild.rules_jvm_external.resolver.DependencyInfo;
+import com.github.bazelbuild.rules_jvm_external.resolver.ResolutionRequest;
+import com.github.bazelbuild.rules_jvm_external.resolver.ResolutionResult;
+import com.github.bazelbuild.rules_jvm_external.resolver.events.EventListener;
+import com.github.bazelbuild.rules_jvm_external.resolver.events.LogEvent;
+import com.github.bazelbuild.rules_jvm_external.resolver.lockfile.V3LockFile;
+import com.google.common.graph.GraphBuilder;
+import com.google.common.graph.ImmutableGraph;
+import com.google.common.graph.MutableGraph;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The results of a previous resolution, read back from the lock file we are about to replace. When
+ * re-pinning incrementally, anything which cannot have changed since then is taken from here rather
+ * than being resolved, downloaded and indexed again.
+ *
+ * <p>Maven picks versions by looking at the whole graph, so adding a single artifact can change the
+ * version of any other. Because of this, if any input has changed the graph is resolved in full,
+ * but only artifacts which are new to the graph are downloaded and indexed.
+ */
+class PreviousResolution {
+
+  private final V3LockFile lockFile;
+  private final boolean canReuseArtifacts;
+  private final Map<Coordinates, DependencyInfo> infos;
+
+  private PreviousResolution(V3LockFile lockFile, boolean canReuseArtifacts) {
+    this.lockFile = lockFile;
+    this.canReuseArtifacts = canReuseArtifacts;
+    this.infos = new HashMap<>();
+    lockFile.getDependencyInfos().forEach(info -> infos.put(info.getCoordinates(), info));
+  }
+
+  /**
+   * Reads the lock file that {@code config} will write to, returning {@code null} if there isn't
+   * one we can use.
+   */
+  static PreviousResolution read(ResolverConfig config, EventListener listener) {
+    Path output = config.getOutput();
+    if (output == null || !Files.exists(output)) {
+      return null;
+    }
+
+    try {
+      V3LockFile lockFile = V3LockFile.read(output);
+
+      // Class listings are only kept in the dependency index, so if we need them we must index
+      // the jars again. Nor can we trust which repositories hold an artifact if the list of
+      // repositories has changed.
+      boolean canReuseArtifacts =
+          config.getDependencyIndexOutput() == null
+              && lockFile.isRenderingPackages()
+              && renderRepositories(lockFile.getRepositories())
+                  .equals(renderRepositories(config.getResolutionRequest().getRepositories()));
+
+      return new PreviousResolution(lockFile, canReuseArtifacts);
+    } catch (IOException | RuntimeException e) {
+      listener.onEvent(
+          new LogEvent(
+              "incremental",
+              "Unable to read previous lock file from " + output + ". Resolving from scratch.",
+              e.toString()));
+      return null;
+    }
+  }
+
+  /** Whether {@code config} asks for exactly what was asked for last time. */
+  boolean hasSameInputs(ResolverConfig config) {
+    Map<String, Integer> inputHash = lockFile.getInputHash();
+    return inputHash != null && inputHash.equals(config.getInputHash());
+  }
+
+  /** Recreates the previous resolution, without consulting any repositories. */
+  ResolutionResult getResolutionResult(ResolutionRequest request) {
+    Set<Coordinates> requested =
+        request.getDependencies().stream()
+            .map(Artifact::getCoordinates)
+            .collect(Collectors.toSet());
+
+    MutableGraph<Coordinates> graph = GraphBuilder.directed().allowsSelfLoops(false).build();
+    for (DependencyInfo info : infos.values()) {
+      Coordinates coords = info.getCoordinates();
+      // Sources and javadoc jars were fetched alongside the artifact they belong to, and will be
+      // again, so they are not part of the graph unless they were asked for.
+      if (isFetchedAlongside(coords) && !requested.contains(coords)) {
+        continue;
+      }
+      graph.addNode(coords);
+      info.getDependencies().forEach(dep -> graph.putEdge(coords, dep));
+    }
+
+    return new ResolutionResult(ImmutableGraph.copyOf(graph), lockFile.getConflicts(), Map.of());
+  }
+
+  /**
+   * Returns what we knew about {@code coords} last time, or an empty {@link Optional} if it needs
+   * to be downloaded and indexed again.
+   */
+  Optional<DependencyInfo> reuse(Coordinates coords, Set<Coordinates> dependencies) {
+    if (!canReuseArtifacts || coords.getVersion().endsWith("-SNAPSHOT")) {
+      return Optional.empty();
+    }
+
+    DependencyInfo info = infos.get(coords);
+    if (info == null) {
+      return Optional.empty();
+    }
+
+    return Optional.of(
+        new DependencyInfo(
+            coords,
+            info.getRepositories(),
+            Optional.empty(),
+            info.getSha256(),
+            dependencies,
+            info.getPackages(),
+            info.getClasses(),
+            info.getServices()));
+  }
+
+  private boolean isFetchedAlongside(Coordinates coords) {
+    String classifier = coords.getClassifier();
+    if (!"sources".equals(classifier) && !"javadoc".equals(classifier)) {
+      return false;
+    }
+    return infos.containsKey(coords.setClassifier(null));
+  }
+
+  private static Object renderRepositories(Collection<URI> repositories) {
+    Map<String, Object> rendered = new V3LockFile(repositories, Set.of(), Set.of(), false).render();
+    Map<?, ?> repos = (Map<?, ?>) rendered.get("repositories");
+    return Map.of(
+        "repositories",
+        Set.copyOf(repos.keySet()),
+        "m2local",
+        Objects.equals(Boolean.TRUE, rendered.get("m2local")));
+  }
+}
@@ -0,0 +1,333 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.cmd;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+
+/**
+ * Calculates the {@code __RESOLVED_ARTIFACTS_HASH} of a lock file.
+ *
+ * <p>{@code v3_lock_file.bzl} checks these values by building a dict for every artifact, adding the
+ * hashes of its dependencies to it, and calling {@code hash(repr(...))} on the result. Starlark
+ * hashes strings the same way as {@link String#hashCode()}, which means the hash of two strings
+ * joined together can be worked out from the hash of each part. We use that to calculate the hash
+ * of each artifact's {@code repr} from pieces which are only worked out once: an artifact's own
+ * details, and the hashes of its dependencies. Nothing is printed more than once, so the time taken
+ * grows with the size of the graph rather than with how many dependencies each artifact has.
+ */
+class ResolvedArtifactsHash {
+
+  private static final ReprHash STANDARD = ReprHash.of("{\"standard\": ");
+  private static final ReprHash SHA = ReprHash.of(", \"sha\": ");
+  private static final ReprHash REPOSITORY = ReprHash.of(", \"repository\": ");
+  private static final ReprHash DEPENDENCIES = ReprHash.of(", \"dependencies\": ");
+  private static final ReprHash DEPENDENCY_HASHES = ReprHash.of(", \"dependency_hashes\": {");
+  private static final ReprHash SEPARATOR = ReprHash.of(", ");
+  private static final ReprHash KEY_SEPARATOR = ReprHash.of(": ");
+
+  private final StarlarkRepr repr = new StarlarkRepr();
+  // Insertion order matters: it is the order in which the graph is walked
+  private final Map<String, Node> nodes = new LinkedHashMap<>();
+  private final Map<String, ReprHash> quoted = new HashMap<>();
+
+  private ResolvedArtifactsHash() {
+    // Use `calculate`
+  }
+
+  static Map<String, Integer> calculate(Map<String, Object> rendered) {
+    ResolvedArtifactsHash hash = new ResolvedArtifactsHash();
+    hash.addArtifacts((Map<?, ?>) rendered.get("artifacts"));
+    hash.addRepositories((Map<?, ?>) rendered.get("repositories"));
+    hash.addDependencies((Map<?, ?>) rendered.get("dependencies"));
+    return hash.calculateFinalHashes();
+  }
+
+  private void addArtifacts(Map<?, ?> artifacts) {
+    if (artifacts == null) {
+      return;
+    }
+
+    for (Map.Entry<?, ?> artifact : new TreeMap<>(artifacts).entrySet()) {
+      String key = String.valueOf(artifact.getKey());
+      Map<?, ?> details = (Map<?, ?>) artifact.getValue();
+      Map<?, ?> shasums = (Map<?, ?>) details.get("shasums");
+
+      // Everything other than the shasums is shared between all the classifiers
+      Map<String, Object> common = sortRecursively(details);
+      common.remove("shasums");
+      ReprHash standard = ReprHash.of(repr.repr(common));
+
+      boolean isJarType = key.chars().filter(c -> c == ':').count() == 1;
+      String jarSuffix = isJarType ? ":jar" : "";
+
+      for (Map.Entry<?, ?> shasum : new TreeMap<>(shasums).entrySet()) {
+        String type = String.valueOf(shasum.getKey());
+        String suffix = "jar".equals(type) ? "" : jarSuffix + ":" + type;
+        Object sha = shasum.getValue();
+        nodes.put(key + suffix, new Node(standard, ReprHash.of(repr.repr(sha))));
+      }
+    }
+  }
+
+  private void addRepositories(Map<?, ?> repositories) {
+    if (repositories == null) {
+      return;
+    }
+
+    // Repositories are visited in order, so the last one holding an artifact is recorded
+    for (Map.Entry<?, ?> repository : new TreeMap<>(repositories).entrySet()) {
+      ReprHash repo = quote(String.valueOf(repository.getKey()));
+      for (Object artifact : (Collection<?>) repository.getValue()) {
+        Node node = nodes.get(String.valueOf(artifact));
+        if (node != null) {
+          node.repository = repo;
+        }
+      }
+    }
+  }
+
+  private void addDependencies(Map<?, ?> dependencies) {
+    if (dependencies == null) {
+      return;
+    }
+
+    for (Map.Entry<?, ?> entry : dependencies.entrySet()) {
+      Node node = nodes.get(String.valueOf(entry.getKey()));
+      if (node == null) {
+        continue;
+      }
+      List<String> deps = sorted((Collection<?>) entry.getValue());
+      node.dependencyKeys = new ReprHash[deps.size()];
+      node.dependencies = new Node[deps.size()];
+      int i = 0;
+      for (String dep : deps) {
+        node.dependencyKeys[i] = quote(dep);
+        node.dependencies[i] = nodes.get(dep);
+        i++;
+      }
+    }
+  }
+
+  /**
+   * Visits each artifact in a depth-first walk, so that dependencies are hashed before the
+   * artifacts which depend on them. If an artifact is reached again while its own dependencies are
+   * being hashed, which happens when there is a cycle, its hash without any dependency hashes is
+   * used instead.
+   */
+  private Map<String, Integer> calculateFinalHashes() {
+    Deque<Visit> stack = new ArrayDeque<>();
+
+    for (Node root : nodes.values()) {
+      if (root.state != State.UNVISITED) {
+        continue;
+      }
+      stack.push(start(root));
+
+      while (!stack.isEmpty()) {
+        Visit visit = stack.peek();
+        Node[] deps = visit.node.dependencies;
+
+        if (visit.next < deps.length) {
+          Node dep = deps[visit.next];
+          if (dep == null) {
+            visit.dependencyHashes[visit.next++] = 0;
+          } else if (dep.state == State.UNVISITED) {
+            stack.push(start(dep));
+          } else {
+            // Either finished, or part of a cycle and still being worked out
+            visit.dependencyHashes[visit.next++] = dep.hash;
+          }
+          continue;
+        }
+
+        stack.pop();
+        visit.node.hash = finish(visit);
+        visit.node.state = State.DONE;
+        if (!stack.isEmpty()) {
+          Visit parent = stack.peek();
+          parent.dependencyHashes[parent.next++] = visit.node.hash;
+        }
+      }
+    }
+
+    Map<String, Integer> finalHashes = new TreeMap<>();
+    nodes.forEach((key, node) -> finalHashes.put(key, node.hash));
+    return finalHashes;
+  }
+
+  private Visit start(Node node) {
+    node.state = State.IN_PROGRESS;
+    ReprHash prefix = new ReprHash().append(STANDARD).append(node.standard);
+    prefix.append(SHA).append(node.sha);
+    if (node.repository != null) {
+      prefix.append(REPOSITORY).append(node.repository);
+    }
+    if (node.dependencyKeys != null) {
+      prefix.append(DEPENDENCIES).append('[');
+      for (int i = 0; i < node.dependencyKeys.length; i++) {
+        if (i > 0) {
+          prefix.append(SEPARATOR);
+        }
+        prefix.append(node.dependencyKeys[i]);
+      }
+      prefix.append(']');
+    }
+    node.prefix = prefix;
+
+    // Used by anything which depends on this artifact before its own hash is known
+    node.hash = new ReprHash().append(prefix).append('}').hash();
+    return new Visit(node);
+  }
+
+  private int finish(Visit visit) {
+    ReprHash hash = new ReprHash().append(visit.node.prefix).append(DEPENDENCY_HASHES);
+    ReprHash[] keys = visit.node.dependencyKeys;
+    for (int i = 0; i < visit.dependencyHashes.length; i++) {
+      if (i > 0) {
+        hash.append(SEPARATOR);
+      }
+      hash.append(keys[i]).append(KEY_SEPARATOR).append(visit.dependencyHashes[i]);
+    }
+    return hash.append('}').append('}').hash();
+  }
+
+  private static List<String> sorted(Collection<?> values) {
+    List<String> sorted = new ArrayList<>(values.size());
+    for (Object value : values) {
+      sorted.add(String.valueOf(value));
+    }
+    // Rendered lock files already hold sorted sets, so there's usually nothing to do
+    if (!(values instanceof SortedSet) || ((SortedSet<?>) values).comparator() != null) {
+      Collections.sort(sorted);
+    }
+    return sorted;
+  }
+
+  private ReprHash quote(String value) {
+    return quoted.computeIfAbsent(value, v -> ReprHash.of(repr.repr(v)));
+  }
+
+  private static Map<String, Object> sortRecursively(Map<?, ?> map) {
+    Map<String, Object> sorted = new TreeMap<>();
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      Object value = entry.getValue();
+      if (value instanceof Map) {
+        value = sortRecursively((Map<?, ?>) value);
+      }
+      sorted.put(String.valueOf(entry.getKey()), value);
+    }
+    return sorted;
+  }
+
+  private enum State {
+    UNVISITED,
+    IN_PROGRESS,
+    DONE
+  }
+
+  private static class Node {
+    private final ReprHash standard;
+    private final ReprHash sha;
+    private ReprHash repository;
+    // Null if the lock file lists no dependencies. Unknown dependencies are null.
+    private ReprHash[] dependencyKeys;
+    private Node[] dependencies = new Node[0];
+    private ReprHash prefix;
+    private State state = State.UNVISITED;
+    private int hash;
+
+    Node(ReprHash standard, ReprHash sha) {
+      this.standard = standard;
+      this.sha = sha;
+    }
+  }
+
+  private static class Visit {
+    private final Node node;
+    private final int[] dependencyHashes;
+    private int next;
+
+    Visit(Node node) {
+      this.node = node;
+      this.dependencyHashes = new int[node.dependencies.length];
+    }
+  }
+
+  /**
+   * The {@link String#hashCode()} of a string, along with what is needed to work out the hash of
+   * that string with another appended to it: {@code 31} raised to the length of the string.
+   */
+  private static class ReprHash {
+    private int hash;
+    private int multiplier = 1;
+
+    static ReprHash of(String value) {
+      ReprHash result = new ReprHash();
+      result.append(value);
+      return result;
+    }
+
+    ReprHash append(char c) {
+      hash = 31 * hash + c;
+      multiplier *= 31;
+      return this;
+    }
+
+    ReprHash append(String value) {
+      for (int i = 0; i < value.length(); i++) {
+        append(value.charAt(i));
+      }
+      return this;
+    }
+
+    ReprHash append(int value) {
+      if (value == Integer.MIN_VALUE) {
+        return append(Integer.toString(value));
+      }
+      if (value < 0) {
+        append('-');
+        value = -value;
+      }
+      int divisor = 1;
+      while (value / divisor >= 10) {
+        divisor *= 10;
+      }
+      for (; divisor > 0; divisor /= 10) {
+        append((char) ('0' + (value / divisor) % 10));
+      }
+      return this;
+    }
+
+    ReprHash append(ReprHash other) {
+      hash = hash * other.multiplier + other.hash;
+      multiplier *= other.multiplier;
+      return this;
+    }
+
+    int hash() {
+      return hash;
+    }
+  }
+}
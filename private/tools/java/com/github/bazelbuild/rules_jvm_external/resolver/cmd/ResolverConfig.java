@@ -43,8 +43,18 @@ public class ResolverConfig {
   private final Path dependencyIndexOutput;
   private final Map<String, Integer> inputHash;
   private final int maxThreads;
+  private final boolean incremental;
 
   public ResolverConfig(EventListener listener, String... args) throws IOException {
+    this(listener, Paths.get(""), args);
+  }
+
+  /**
+   * Relative paths in {@code args} are resolved against {@code workingDirectory}, which allows the
+   * config to be created by a process running somewhere other than where the arguments came from.
+   */
+  public ResolverConfig(EventListener listener, Path workingDirectory, String... args)
+      throws IOException {
     Path configPath = null;
     this.netrc = Netrc.fromUserHome();
 
@@ -55,6 +65,7 @@ public class ResolverConfig {
     Path output = null;
     Path dependencyIndexOutput = null;
     Path inputHashPath = null;
+    boolean incremental = false;
 
     if (System.getenv("RJE_MAX_THREADS") != null) {
       maxThreads = Integer.parseInt(System.getenv("RJE_MAX_THREADS"));
@@ -67,12 +78,17 @@ public class ResolverConfig {
       }
     }
 
+    String envIncremental = System.getenv("RJE_INCREMENTAL");
+    if (envIncremental != null) {
+      incremental = "1".equals(envIncremental) || Boolean.parseBoolean(envIncremental);
+    }
+
     for (int i = 0; i < args.length; i++) {
       String bazelWorkspaceDir = System.getenv("BUILD_WORKSPACE_DIRECTORY");
       switch (args[i]) {
         case "--argsfile":
           i++;
-          configPath = Paths.get(args[i]);
+          configPath = workingDirectory.resolve(args[i]);
           break;
 
         case "--bom":
@@ -80,9 +96,13 @@ public class ResolverConfig {
           request.addBom(args[i]);
           break;
 
+        case "--incremental":
+          incremental = true;
+          break;
+
         case "--input-hash-path":
           i++;
-          inputHashPath = Paths.get(args[i]);
+          inputHashPath = workingDirectory.resolve(args[i]);
           break;
 
         case "--javadocs":
@@ -92,7 +112,7 @@ public class ResolverConfig {
         case "--output":
           i++;
           if (bazelWorkspaceDir == null) {
-            output = Paths.get(args[i]);
+            output = workingDirectory.resolve(args[i]);
           } else {
             output = Paths.get(bazelWorkspaceDir).resolve(args[i]);
           }
@@ -102,7 +122,7 @@ public class ResolverConfig {
           i++;
           String workspaceDir = System.getenv("BUILD_WORKSPACE_DIRECTORY");
           if (workspaceDir == null) {
-            dependencyIndexOutput = Paths.get(args[i]);
+            dependencyIndexOutput = workingDirectory.resolve(args[i]);
           } else {
             dependencyIndexOutput = Paths.get(workspaceDir).resolve(args[i]);
           }
@@ -203,6 +223,7 @@ public class ResolverConfig {
     this.fetchSources = fetchSources;
     this.fetchJavadoc = fetchJavadoc;
     this.maxThreads = maxThreads;
+    this.incremental = incremental;
     this.output = output;
     this.dependencyIndexOutput = dependencyIndexOutput;
   }
@@ -227,6 +248,11 @@ public class ResolverConfig {
     return maxThreads;
   }
 
+  /** Whether to reuse what we can from the lock file we are about to replace. */
+  public boolean isIncremental() {
+    return incremental;
+  }
+
   public Map<String, Integer> getInputHash() {
     return inputHash;
   }
@@ -0,0 +1,476 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.cmd;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A long-lived process which performs resolutions on behalf of short-lived ones, so that the
+ * repository system, HTTP connection pools and a warmed-up JIT can be reused when many lock files
+ * are pinned one after another.
+ *
+ * <p>Clients talk to the daemon over a loopback socket. The port, along with a secret which the
+ * client must present, is written to a file only readable by the current user. A daemon is only
+ * shared by clients with the same classpath, jars and environment, and it exits once it has been
+ * idle for a while. Each `bazel run` target has its own runfiles tree, so clients send the
+ * variables locating theirs with every request rather than starting a daemon each. Requests are
+ * handled one at a time, since the output of each is sent back to the client by temporarily
+ * replacing {@link System#out} and {@link System#err}.
+ */
+class ResolverDaemon {
+
+  static final String SERVE_FLAG = "--resolver-daemon";
+
+  private static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(15);
+  private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(30);
+
+  // Sent with each request, since they differ for every `bazel run` target
+  private static final Set<String> RUNFILES_ENVIRONMENT_VARIABLES =
+      Set.of("JAVA_RUNFILES", "RUNFILES_DIR", "RUNFILES_MANIFEST_FILE", "RUNFILES_MANIFEST_ONLY");
+
+  // Variables which differ between `bazel run` invocations without changing how we resolve.
+  private static final Set<String> IGNORED_ENVIRONMENT_VARIABLES =
+      Set.of("BUILD_WORKING_DIRECTORY", "OLDPWD", "PWD", "SHLVL", "_");
+
+  private static final String PRIVATE = "rwx------";
+
+  private static final int STDOUT = 1;
+  private static final int STDERR = 2;
+  private static final int EXIT = 3;
+
+  private ResolverDaemon() {
+    // Utility class
+  }
+
+  static boolean isEnabled() {
+    String enabled = System.getenv("RJE_RESOLVER_DAEMON");
+    return enabled != null && ("1".equals(enabled) || Boolean.parseBoolean(enabled));
+  }
+
+  /**
+   * Asks a daemon to run a resolution with {@code args}, starting one if necessary, and copies its
+   * output to our own. Returns the exit code of the resolution, or nothing if no daemon could be
+   * reached and the resolution should be run in this process instead.
+   */
+  static OptionalInt delegate(AbstractMain main, String[] args) {
+    try {
+      Path portFile = getStateDirectory().resolve(getKey(main) + ".port");
+
+      Socket socket = connect(portFile);
+      if (socket == null) {
+        start(main, portFile);
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        while (socket == null && System.nanoTime() < deadline) {
+          Thread.sleep(100);
+          socket = connect(portFile);
+        }
+      }
+      if (socket == null) {
+        System.err.println("Unable to start resolver daemon. Resolving without it.");
+        return OptionalInt.empty();
+      }
+
+      try (Socket toClose = socket) {
+        return OptionalInt.of(send(socket, readSecret(portFile), args));
+      }
+    } catch (IOException e) {
+      System.err.println("Unable to use resolver daemon. Resolving without it: " + e);
+      return OptionalInt.empty();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return OptionalInt.empty();
+    }
+  }
+
+  /** Serves requests until the daemon has been idle for too long. */
+  static void serve(AbstractMain main, String[] args) {
+    Path portFile = Paths.get(args[1]);
+    Duration idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    if (args.length > 2) {
+      idleTimeout = Duration.ofSeconds(Long.parseLong(args[2]));
+    }
+
+    PrintStream originalOut = System.out;
+    PrintStream originalErr = System.err;
+
+    try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+      server.setSoTimeout((int) idleTimeout.toMillis());
+
+      String secret = generateSecret();
+      writePortFile(portFile, server.getLocalPort(), secret);
+
+      while (true) {
+        Socket socket;
+        try {
+          socket = server.accept();
+        } catch (SocketTimeoutException e) {
+          break;
+        }
+
+        try (Socket toClose = socket) {
+          handle(main, socket, secret);
+        } catch (IOException e) {
+          originalErr.println("Unable to handle resolver request: " + e);
+        } finally {
+          System.setOut(originalOut);
+          System.setErr(originalErr);
+        }
+      }
+
+      // Only remove the port file if another daemon hasn't replaced us.
+      if (Integer.toString(server.getLocalPort()).equals(readPort(portFile))) {
+        Files.deleteIfExists(portFile);
+      }
+    } catch (IOException e) {
+      originalErr.println("Resolver daemon failed: " + e);
+    }
+  }
+
+  private static void handle(AbstractMain main, Socket socket, String secret) throws IOException {
+    DataInputStream in = new DataInputStream(socket.getInputStream());
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+    if (!secret.equals(in.readUTF())) {
+      return;
+    }
+    Path workingDirectory = Paths.get(in.readUTF());
+    boolean consoleAvailable = in.readBoolean();
+    String[] args = new String[in.readInt()];
+    for (int i = 0; i < args.length; i++) {
+      args[i] = in.readUTF();
+    }
+    Map<String, String> runfilesEnvironment = new TreeMap<>();
+    int envCount = in.readInt();
+    for (int i = 0; i < envCount; i++) {
+      runfilesEnvironment.put(in.readUTF(), in.readUTF());
+    }
+
+    PrintStream stdout = new PrintStream(new FrameOutputStream(out, STDOUT), true, UTF_8);
+    PrintStream stderr = new PrintStream(new FrameOutputStream(out, STDERR), true, UTF_8);
+    System.setOut(stdout);
+    System.setErr(stderr);
+
+    int exitCode = main.run(args, workingDirectory, consoleAvailable, runfilesEnvironment);
+    stdout.flush();
+    stderr.flush();
+
+    synchronized (out) {
+      out.writeByte(EXIT);
+      out.writeInt(exitCode);
+      out.flush();
+    }
+  }
+
+  private static int send(Socket socket, String secret, String[] args) throws IOException {
+    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+    out.writeUTF(secret);
+    out.writeUTF(Paths.get("").toAbsolutePath().toString());
+    out.writeBoolean(System.console() != null);
+    out.writeInt(args.length);
+    for (String arg : args) {
+      out.writeUTF(arg);
+    }
+    Map<String, String> runfilesEnvironment = new TreeMap<>(System.getenv());
+    runfilesEnvironment.keySet().retainAll(RUNFILES_ENVIRONMENT_VARIABLES);
+    out.writeInt(runfilesEnvironment.size());
+    for (Map.Entry<String, String> entry : runfilesEnvironment.entrySet()) {
+      out.writeUTF(entry.getKey());
+      out.writeUTF(entry.getValue());
+    }
+    out.flush();
+
+    DataInputStream in = new DataInputStream(socket.getInputStream());
+    while (true) {
+      int type = in.read();
+      if (type == -1) {
+        System.err.println("Resolver daemon exited unexpectedly");
+        return 1;
+      }
+      if (type == EXIT) {
+        System.out.flush();
+        System.err.flush();
+        return in.readInt();
+      }
+
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      PrintStream target = type == STDOUT ? System.out : System.err;
+      target.write(bytes);
+      target.flush();
+    }
+  }
+
+  private static Socket connect(Path portFile) {
+    String port = readPort(portFile);
+    if (port == null) {
+      return null;
+    }
+
+    Socket socket = new Socket();
+    try {
+      socket.connect(
+          new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(port)), 1000);
+      return socket;
+    } catch (IOException | NumberFormatException e) {
+      try {
+        socket.close();
+      } catch (IOException ignored) {
+        // Nothing to do
+      }
+      return null;
+    }
+  }
+
+  private static void start(AbstractMain main, Path portFile) throws IOException {
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+    command.add("-cp");
+    command.add(getClasspath());
+    command.add(main.getClass().getName());
+    command.add(SERVE_FLAG);
+    command.add(portFile.toString());
+    String idleTimeout = System.getenv("RJE_RESOLVER_DAEMON_IDLE_SECONDS");
+    if (idleTimeout != null) {
+      command.add(idleTimeout);
+    }
+
+    Path log = portFile.resolveSibling(portFile.getFileName().toString().replace(".port", ".log"));
+    new ProcessBuilder(command)
+        .directory(portFile.getParent().toFile())
+        .redirectErrorStream(true)
+        .redirectOutput(ProcessBuilder.Redirect.appendTo(log.toFile()))
+        .start();
+  }
+
+  /**
+   * Returns the directory holding the port files, which must only be usable by the current user:
+   * anyone able to write a port file there would be sent our arguments, and could reply with a lock
+   * file of their choosing.
+   */
+  private static Path getStateDirectory() throws IOException {
+    Path dir;
+    String override = System.getenv("RJE_RESOLVER_DAEMON_DIR");
+    String runtimeDir = System.getenv("XDG_RUNTIME_DIR");
+    String cacheHome = System.getenv("XDG_CACHE_HOME");
+    if (override != null && !override.isEmpty()) {
+      dir = Paths.get(override);
+    } else if (runtimeDir != null && !runtimeDir.isEmpty()) {
+      dir = Paths.get(runtimeDir, "rules_jvm_external", "resolver-daemon");
+    } else if (cacheHome != null && !cacheHome.isEmpty()) {
+      dir = Paths.get(cacheHome, "rules_jvm_external", "resolver-daemon");
+    } else {
+      dir =
+          Paths.get(
+              System.getProperty("user.home"), ".cache", "rules_jvm_external", "resolver-daemon");
+    }
+
+    boolean isPosix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+    if (!Files.exists(dir)) {
+      Files.createDirectories(dir.getParent());
+      try {
+        if (isPosix) {
+          Files.createDirectory(
+              dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(PRIVATE)));
+        } else {
+          Files.createDirectory(dir);
+        }
+      } catch (FileAlreadyExistsException e) {
+        // Created by another client, and checked below
+      }
+    }
+
+    if (isPosix) {
+      UserPrincipal user =
+          dir.getFileSystem()
+              .getUserPrincipalLookupService()
+              .lookupPrincipalByName(System.getProperty("user.name"));
+      PosixFileAttributes attrs =
+          Files.readAttributes(dir, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+      if (!attrs.isDirectory()
+          || !user.equals(attrs.owner())
+          || !PRIVATE.equals(PosixFilePermissions.toString(attrs.permissions()))) {
+        throw new IOException(
+            dir
+                + " must be a directory owned by "
+                + user.getName()
+                + " with permissions "
+                + PRIVATE);
+      }
+    }
+    return dir;
+  }
+
+  /**
+   * Identifies the daemons this process may use. Paths are resolved to their real locations, as
+   * each `bazel run` target has its own runfiles tree pointing at the same jars. Those paths stay
+   * the same when rules_jvm_external is upgraded or the resolver is rebuilt, so the size and
+   * modification time of each jar are included too.
+   */
+  private static String getKey(AbstractMain main) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putString(main.getClass().getName(), UTF_8).putByte((byte) 0);
+    hasher.putString(System.getProperty("java.home"), UTF_8).putByte((byte) 0);
+    String classpath = getClasspath();
+    hasher.putString(classpath, UTF_8).putByte((byte) 0);
+    for (String entry : classpath.split(File.pathSeparator)) {
+      try {
+        BasicFileAttributes attrs =
+            Files.readAttributes(Paths.get(entry), BasicFileAttributes.class);
+        hasher.putLong(attrs.size()).putLong(attrs.lastModifiedTime().toMillis());
+      } catch (IOException e) {
+        // Missing entries are already covered by the classpath itself
+        hasher.putLong(-1);
+      }
+    }
+
+    Map<String, String> env = new TreeMap<>(System.getenv());
+    env.keySet().removeAll(IGNORED_ENVIRONMENT_VARIABLES);
+    env.keySet().removeAll(RUNFILES_ENVIRONMENT_VARIABLES);
+    for (Map.Entry<String, String> entry : env.entrySet()) {
+      hasher.putString(entry.getKey(), UTF_8).putByte((byte) 0);
+      hasher.putString(entry.getValue(), UTF_8).putByte((byte) 0);
+    }
+
+    return hasher.hash().toString().substring(0, 16);
+  }
+
+  private static String getClasspath() {
+    List<String> entries = new ArrayList<>();
+    for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+      try {
+        entries.add(Paths.get(entry).toRealPath().toString());
+      } catch (IOException e) {
+        entries.add(entry);
+      }
+    }
+    return String.join(File.pathSeparator, entries);
+  }
+
+  private static String generateSecret() {
+    byte[] bytes = new byte[32];
+    new SecureRandom().nextBytes(bytes);
+    return BaseEncoding.base16().lowerCase().encode(bytes);
+  }
+
+  private static void writePortFile(Path portFile, int port, String secret) throws IOException {
+    Path temp = Files.createTempFile(portFile.getParent(), "daemon", ".tmp");
+    if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+      Files.setPosixFilePermissions(temp, PosixFilePermissions.fromString("rw-------"));
+    }
+    Files.writeString(temp, port + "\n" + secret + "\n");
+    Files.move(temp, portFile, ATOMIC_MOVE, REPLACE_EXISTING);
+  }
+
+  private static String readPort(Path portFile) {
+    return readLine(portFile, 0);
+  }
+
+  private static String readSecret(Path portFile) throws IOException {
+    String secret = readLine(portFile, 1);
+    if (secret == null) {
+      throw new IOException("Unable to read secret from " + portFile);
+    }
+    return secret;
+  }
+
+  private static String readLine(Path portFile, int index) {
+    try {
+      List<String> lines = Files.readAllLines(portFile);
+      return lines.size() > index ? lines.get(index) : null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /** Sends everything written to it to the client, tagged with the stream it was written to. */
+  private static class FrameOutputStream extends OutputStream {
+    private final DataOutputStream out;
+    private final int type;
+
+    FrameOutputStream(DataOutputStream out, int type) {
+      this.out = out;
+      this.type = type;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return;
+      }
+      synchronized (out) {
+        out.writeByte(type);
+        out.writeInt(len);
+        out.write(b, off, len);
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      synchronized (out) {
+        out.flush();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      // The lock file may be written to stdout, which is then closed. Keep the socket open so
+      // that the exit code can still be sent.
+      flush();
+    }
+  }
+}
@@ -0,0 +1,45 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.events;
+
+public class CacheEvent implements Event {
+
+  private final String name;
+  private final long hits;
+  private final long misses;
+
+  public CacheEvent(String name, long hits, long misses) {
+    this.name = name;
+    this.hits = hits;
+    this.misses = misses;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  public long getMisses() {
+    return misses;
+  }
+
+  @Override
+  public String toString() {
+    return name + " cache: " + hits + " hits, " + misses + " misses";
+  }
+}
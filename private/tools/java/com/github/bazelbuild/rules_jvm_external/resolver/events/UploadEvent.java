@@ -0,0 +1,64 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.events;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/** Emitted once an upload has finished, however many attempts it took. */
+public class UploadEvent implements Event {
+
+  private final String target;
+  private final long size;
+  private final int statusCode;
+  private final int attempts;
+  private final Duration elapsed;
+
+  public UploadEvent(String target, long size, int statusCode, int attempts, Duration elapsed) {
+    this.target = Objects.requireNonNull(target);
+    this.size = size;
+    this.statusCode = statusCode;
+    this.attempts = attempts;
+    this.elapsed = Objects.requireNonNull(elapsed);
+  }
+
+  public String getTarget() {
+    return target;
+  }
+
+  /** The number of bytes uploaded, or -1 if that is not known. */
+  public long getSize() {
+    return size;
+  }
+
+  public int getStatusCode() {
+    return statusCode;
+  }
+
+  public int getAttempts() {
+    return attempts;
+  }
+
+  public Duration getElapsed() {
+    return elapsed;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "PUT %s: %d (%d bytes in %dms, %d attempt%s)",
+        target, statusCode, size, elapsed.toMillis(), attempts, attempts == 1 ? "" : "s");
+  }
+}
@@ -68,7 +68,7 @@ public class GradleBuildScriptGenerator {
 
     contextMap.put("pluginJarPath", pluginJarPath.toUri().toString());
     String output = template.apply(Context.newContext(contextMap)).trim();
-    Files.writeString(initScriptOutputPath, output);
+    writeIfChanged(initScriptOutputPath, output);
   }
 
   /**
@@ -230,6 +230,18 @@ public class GradleBuildScriptGenerator {
 
     // Render the template and write the actual build file
     String output = template.apply(Context.newContext(contextMap)).trim();
-    Files.writeString(outputGradleBuildScript, output);
+    writeIfChanged(outputGradleBuildScript, output);
+  }
+
+  /**
+   * Writes {@code contents} to {@code path}, unless the file already holds exactly that. Leaving an
+   * unchanged file untouched lets Gradle reuse what it worked out from it the last time it ran in
+   * the same project directory.
+   */
+  static void writeIfChanged(Path path, String contents) throws IOException {
+    if (Files.isRegularFile(path) && contents.equals(Files.readString(path))) {
+      return;
+    }
+    Files.writeString(path, contents);
   }
 }
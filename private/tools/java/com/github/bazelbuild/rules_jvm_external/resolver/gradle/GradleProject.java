@@ -19,10 +19,10 @@ import com.github.bazelbuild.rules_jvm_external.resolver.gradle.models.GradleDep
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import org.gradle.tooling.GradleConnector;
 import org.gradle.tooling.ProjectConnection;
@@ -33,11 +33,17 @@ import org.gradle.tooling.ProjectConnection;
  */
 public class GradleProject implements AutoCloseable {
 
+  // Connections to persistent projects, kept open for as long as this process runs so that a
+  // long-lived process (such as the resolver daemon) keeps talking to the same Gradle daemon.
+  private static final Map<List<Path>, ProjectConnection> PERSISTENT_CONNECTIONS =
+      new ConcurrentHashMap<>();
+
   private final Path projectDir;
   private final Path gradleCacheDir;
   private final Path gradleJavaHome;
   private final EventListener eventListener;
   private final Path initScript;
+  private final boolean persistent;
 
   private ProjectConnection connection;
 
@@ -47,33 +53,61 @@ public class GradleProject implements AutoCloseable {
       Path gradleJavaHome,
       Path initScript,
       EventListener eventListener) {
+    this(projectDir, gradleCacheDir, gradleJavaHome, initScript, eventListener, false);
+  }
+
+  /**
+   * @param persistent whether {@code projectDir} is kept between resolutions. If so, the connection
+   *     to it is kept open after this project is closed, and reused by the next persistent project
+   *     in the same directory.
+   */
+  public GradleProject(
+      Path projectDir,
+      Path gradleCacheDir,
+      Path gradleJavaHome,
+      Path initScript,
+      EventListener eventListener,
+      boolean persistent) {
     this.projectDir = Objects.requireNonNull(projectDir);
     this.gradleCacheDir = Objects.requireNonNull(gradleCacheDir);
     this.gradleJavaHome = gradleJavaHome;
     this.eventListener = Objects.requireNonNull(eventListener);
     this.initScript = Objects.requireNonNull(initScript);
+    this.persistent = persistent;
   }
 
   public void setupProject() throws IOException {
     Files.createDirectories(projectDir);
 
-    Files.writeString(
-        projectDir.resolve("settings.gradle"),
-        "rootProject.name = 'rules_jvm_external'\n",
-        StandardOpenOption.CREATE,
-        StandardOpenOption.TRUNCATE_EXISTING);
+    GradleBuildScriptGenerator.writeIfChanged(
+        projectDir.resolve("settings.gradle"), "rootProject.name = 'rules_jvm_external'\n");
   }
 
   public void connect(Path gradlePath) {
     // Use gradleCacheDir as gradle.user.home for complete isolation.
     // When RJE_UNSAFE_CACHE is set, the user's caches are symlinked into this directory.
     System.setProperty("org.gradle.parallel", "true");
+    if (!persistent) {
+      connection = openConnection(gradlePath);
+      return;
+    }
+
     connection =
-        GradleConnector.newConnector()
-            .forProjectDirectory(projectDir.toFile())
-            .useInstallation(gradlePath.toFile())
-            .useGradleUserHomeDir(gradleCacheDir.toFile())
-            .connect();
+        PERSISTENT_CONNECTIONS.computeIfAbsent(
+            List.of(projectDir, gradlePath, gradleCacheDir),
+            key -> {
+              ProjectConnection opened = openConnection(gradlePath);
+              Runtime.getRuntime().addShutdownHook(new Thread(opened::close));
+              return opened;
+            });
+  }
+
+  private ProjectConnection openConnection(Path gradlePath) {
+    return GradleConnector.newConnector()
+        .forProjectDirectory(projectDir.toFile())
+        .useInstallation(gradlePath.toFile())
+        .useGradleUserHomeDir(gradleCacheDir.toFile())
+        .connect();
   }
 
   /** Triggers dependency resolution by running the custom task to resolve gradle dependencies */
@@ -103,7 +137,9 @@ public class GradleProject implements AutoCloseable {
   @Override
   public void close() throws Exception {
     if (connection != null) {
-      connection.close();
+      if (!persistent) {
+        connection.close();
+      }
       connection = null;
     }
   }
@@ -45,10 +45,13 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -86,6 +89,11 @@ public class GradleResolver implements Resolver {
     return System.getenv("RJE_VERBOSE") != null;
   }
 
+  private boolean isPersistentProject() {
+    String persistent = System.getenv("RJE_GRADLE_PERSISTENT_PROJECT");
+    return "1".equals(persistent) || Boolean.parseBoolean(persistent);
+  }
+
   @Override
   public ResolutionResult resolve(ResolutionRequest request) {
     List<Repository> repositories =
@@ -95,15 +103,36 @@ public class GradleResolver implements Resolver {
     List<GradleDependency> boms =
         request.getBoms().stream().map(this::createDependency).collect(Collectors.toList());
 
-    Path gradlePath = getGradleInstallationPath();
-    try (GradleProject project =
-        setupFakeGradleProject(
-            repositories,
-            dependencies,
-            boms,
-            request.getGlobalExclusions(),
-            request.isUseUnsafeSharedCache(),
-            request.isUsingM2Local())) {
+    Runfiles.Preloaded runfiles;
+    try {
+      // Not our own environment when running in a resolver daemon
+      runfiles = Runfiles.preload(request.getRunfilesEnvironment());
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    Path gradlePath = getGradleInstallationPath(runfiles);
+    // Get a persistent directory under temp dir specific to the repo directory under which
+    // we're running so that we use a gradle home that's persistent between invocations
+    // to help improve performance
+    Path persistentGradleHome = getPersistentGradleHomeForRepo();
+    boolean persistentProject = persistentGradleHome != null && isPersistentProject();
+    // The persistent project is shared by every pin in this repo, so only one may use it at a time
+    try (FileChannel lockFile = persistentProject ? openProjectLock(persistentGradleHome) : null;
+        FileLock ignored = lockFile == null ? null : lockFile.lock();
+        GradleProject project =
+            setupFakeGradleProject(
+                runfiles,
+                persistentProject
+                    ? persistentGradleHome.resolve("project")
+                    : Files.createTempDirectory("rules_jvm_external"),
+                persistentGradleHome,
+                persistentProject,
+                repositories,
+                dependencies,
+                boms,
+                request.getGlobalExclusions(),
+                request.isUseUnsafeSharedCache(),
+                request.isUsingM2Local())) {
       project.setupProject();
       eventListener.onEvent(new PhaseEvent("Gathering dependencies"));
       project.connect(gradlePath);
@@ -671,9 +700,8 @@ public class GradleResolver implements Resolver {
         coordinates.getExtension());
   }
 
-  private Path getGradleBuildScriptTemplate() throws IOException {
+  private Path getGradleBuildScriptTemplate(Runfiles.Preloaded runfiles) throws IOException {
     try {
-      Runfiles.Preloaded runfiles = Runfiles.preload();
       String gradleBuildPath =
           runfiles
               .withSourceRepository(AutoBazelRepository_GradleResolver.NAME)
@@ -688,9 +716,8 @@ public class GradleResolver implements Resolver {
     }
   }
 
-  private Path getGradleInitScriptTemplate() throws IOException {
+  private Path getGradleInitScriptTemplate(Runfiles.Preloaded runfiles) throws IOException {
     try {
-      Runfiles.Preloaded runfiles = Runfiles.preload();
       String gradleBuildPath =
           runfiles
               .withSourceRepository(AutoBazelRepository_GradleResolver.NAME)
@@ -705,9 +732,8 @@ public class GradleResolver implements Resolver {
     }
   }
 
-  private Path getPluginJarPath() {
+  private Path getPluginJarPath(Runfiles.Preloaded runfiles) {
     try {
-      Runfiles.Preloaded runfiles = Runfiles.preload();
       String pluginJarPath =
           runfiles
               .withSourceRepository(AutoBazelRepository_GradleResolver.NAME)
@@ -722,22 +748,17 @@ public class GradleResolver implements Resolver {
     }
   }
 
-  private Path getGradleInstallationPath() {
-    try {
-      Runfiles.Preloaded runfiles = Runfiles.preload();
-      String gradleReadmePath =
-          runfiles
-              .withSourceRepository(AutoBazelRepository_GradleResolver.NAME)
-              .rlocation("gradle/gradle-bin/README");
-      Path gradlePath = Paths.get(gradleReadmePath).getParent();
-      if (!gradlePath.toFile().exists()) {
-        throw new IllegalStateException(
-            "Gradle installation path does not exist: " + gradleReadmePath);
-      }
-      return gradlePath;
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+  private Path getGradleInstallationPath(Runfiles.Preloaded runfiles) {
+    String gradleReadmePath =
+        runfiles
+            .withSourceRepository(AutoBazelRepository_GradleResolver.NAME)
+            .rlocation("gradle/gradle-bin/README");
+    Path gradlePath = Paths.get(gradleReadmePath).getParent();
+    if (!gradlePath.toFile().exists()) {
+      throw new IllegalStateException(
+          "Gradle installation path does not exist: " + gradleReadmePath);
     }
+    return gradlePath;
   }
 
   private Path getPersistentGradleHomeForRepo() {
@@ -761,7 +782,19 @@ public class GradleResolver implements Resolver {
     return Paths.get(System.getProperty("java.io.tmpdir"), "rje-gradle-" + md5);
   }
 
+  private static FileChannel openProjectLock(Path persistentGradleHome) throws IOException {
+    Files.createDirectories(persistentGradleHome);
+    return FileChannel.open(
+        persistentGradleHome.resolve("project.lock"),
+        StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE);
+  }
+
   private GradleProject setupFakeGradleProject(
+      Runfiles.Preloaded runfiles,
+      Path fakeProjectDirectory,
+      Path persistentGradleHome,
+      boolean persistentProject,
       List<Repository> repositories,
       List<GradleDependency> dependencies,
       List<GradleDependency> boms,
@@ -769,8 +802,15 @@ public class GradleResolver implements Resolver {
       boolean useUnsafeCache,
       boolean isUsingM2Local) {
     try {
-      Path fakeProjectDirectory = Files.createTempDirectory("rules_jvm_external");
-      Path gradleBuildScriptTemplate = getGradleBuildScriptTemplate();
+      Files.createDirectories(fakeProjectDirectory);
+      if (persistentProject && isVerbose()) {
+        eventListener.onEvent(
+            new LogEvent(
+                "gradle",
+                "Reusing persistent Gradle project",
+                "Gradle Project Directory: " + fakeProjectDirectory));
+      }
+      Path gradleBuildScriptTemplate = getGradleBuildScriptTemplate(runfiles);
       List<ExclusionImpl> exclusions =
           globalExclusions.stream()
               .map(
@@ -786,10 +826,10 @@ public class GradleResolver implements Resolver {
           exclusions,
           isUsingM2Local);
 
-      Path initScriptTemplate = getGradleInitScriptTemplate();
+      Path initScriptTemplate = getGradleInitScriptTemplate(runfiles);
       Path outputInitScript = fakeProjectDirectory.resolve("init.gradle");
       GradleBuildScriptGenerator.generateInitScript(
-          initScriptTemplate, outputInitScript, getPluginJarPath());
+          initScriptTemplate, outputInitScript, getPluginJarPath(runfiles));
 
       if (isVerbose()) {
         eventListener.onEvent(
@@ -800,10 +840,6 @@ public class GradleResolver implements Resolver {
       }
 
       Path gradleCacheDir = fakeProjectDirectory.resolve(".gradle");
-      // Get a persistent directory under temp dir specific to the repo directory under which
-      // we're running so that we use a gradle home that's persistent between invocations
-      // to help improve performance
-      Path persistentGradleHome = getPersistentGradleHomeForRepo();
       if (persistentGradleHome != null) {
         gradleCacheDir = persistentGradleHome.resolve(".gradle");
         if (isVerbose()) {
@@ -851,7 +887,12 @@ public class GradleResolver implements Resolver {
       }
 
       return new GradleProject(
-          fakeProjectDirectory, gradleCacheDir, null, outputInitScript, eventListener);
+          fakeProjectDirectory,
+          gradleCacheDir,
+          null,
+          outputInitScript,
+          eventListener,
+          persistentProject);
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
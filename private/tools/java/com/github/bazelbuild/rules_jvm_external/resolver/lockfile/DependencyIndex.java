@@ -16,10 +16,16 @@ package com.github.bazelbuild.rules_jvm_external.resolver.lockfile;
 
 import com.github.bazelbuild.rules_jvm_external.Coordinates;
 import com.github.bazelbuild.rules_jvm_external.resolver.DependencyInfo;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.function.Function;
 
 /**
  * Renders a dependency index containing class-level information for each artifact. This is stored
@@ -65,68 +71,20 @@ public class DependencyIndex {
   }
 
   public Map<String, Object> render() {
-    // Step 1: Collect all data and track which packages appear in multiple artifacts
-    // Map: package -> set of artifact keys that contain this package
-    Map<String, Set<String>> packageToArtifacts = new TreeMap<>();
-    // Map: artifact key -> (package -> set of simple class names)
-    Map<String, Map<String, Set<String>>> artifactToPackageToClasses = new TreeMap<>();
+    Map<String, DependencyInfo> artifacts = indexedArtifacts();
+    Set<String> collidingPackages = collidingPackages(artifacts);
 
-    for (DependencyInfo info : infos) {
-      // Skip sources and javadoc artifacts - they don't have classes
-      String classifier = info.getCoordinates().getClassifier();
-      if ("sources".equals(classifier) || "javadoc".equals(classifier)) {
-        continue;
-      }
-
-      Set<String> infoClasses = info.getClasses();
-      if (infoClasses == null || infoClasses.isEmpty()) {
-        continue;
-      }
-
-      String artifactKey = asKey(info.getCoordinates());
-      Map<String, Set<String>> packageToClasses = new TreeMap<>();
-
-      for (String fqcn : infoClasses) {
-        String packageName = extractPackage(fqcn);
-        String simpleClassName = extractSimpleClassName(fqcn);
-
-        packageToClasses.computeIfAbsent(packageName, k -> new TreeSet<>()).add(simpleClassName);
-        packageToArtifacts.computeIfAbsent(packageName, k -> new TreeSet<>()).add(artifactKey);
-      }
-
-      artifactToPackageToClasses.put(artifactKey, packageToClasses);
-    }
-
-    // Step 2: Identify colliding packages (appear in more than one artifact)
-    Set<String> collidingPackages = new TreeSet<>();
-    for (Map.Entry<String, Set<String>> entry : packageToArtifacts.entrySet()) {
-      if (entry.getValue().size() > 1) {
-        collidingPackages.add(entry.getKey());
-      }
-    }
-
-    // Step 3: Build the packages and classes sections
     // packages: artifact -> [package names] (for unique packages)
     Map<String, Set<String>> packages = new TreeMap<>();
     // classes: artifact -> {package -> [class names]} (for colliding packages)
     Map<String, Map<String, Set<String>>> classes = new TreeMap<>();
 
-    for (Map.Entry<String, Map<String, Set<String>>> entry :
-        artifactToPackageToClasses.entrySet()) {
+    for (Map.Entry<String, DependencyInfo> entry : artifacts.entrySet()) {
       String artifactKey = entry.getKey();
-      Map<String, Set<String>> pkgToClasses = entry.getValue();
+      Map<String, Set<String>> pkgToClasses = groupByPackage(entry.getValue());
 
-      Set<String> uniquePackages = new TreeSet<>();
-      Map<String, Set<String>> collidingClasses = new TreeMap<>();
-
-      for (Map.Entry<String, Set<String>> pkgEntry : pkgToClasses.entrySet()) {
-        String pkg = pkgEntry.getKey();
-        if (collidingPackages.contains(pkg)) {
-          collidingClasses.put(pkg, pkgEntry.getValue());
-        } else {
-          uniquePackages.add(pkg);
-        }
-      }
+      Set<String> uniquePackages = uniquePackages(pkgToClasses, collidingPackages);
+      Map<String, Set<String>> collidingClasses = collidingClasses(pkgToClasses, collidingPackages);
 
       if (!uniquePackages.isEmpty()) {
         packages.put(artifactKey, uniquePackages);
@@ -146,6 +104,122 @@ public class DependencyIndex {
     return index;
   }
 
+  /**
+   * Writes the index to {@code out} as JSON. The output is the same as writing the {@link #render()
+   * rendered} index with {@link JsonOutput}, but each artifact's packages and classes are worked
+   * out as they are written rather than the whole index being built in memory first. {@code out} is
+   * flushed, but not closed.
+   */
+  public void write(OutputStream out) throws IOException {
+    Map<String, DependencyInfo> artifacts = indexedArtifacts();
+    Set<String> collidingPackages = collidingPackages(artifacts);
+
+    // The same order as the keys of the map `render` returns
+    Map<String, JsonOutput.Body> sections = new LinkedHashMap<>();
+    sections.put(
+        "__AUTOGENERATED_FILE_DO_NOT_MODIFY_THIS_FILE_MANUALLY",
+        json -> json.value("THERE_IS_NO_DATA_ONLY_ZUUL"));
+    sections.put(
+        "packages",
+        json ->
+            writeArtifacts(
+                json, artifacts, pkgToClasses -> uniquePackages(pkgToClasses, collidingPackages)));
+    sections.put(
+        "split_package_classes",
+        json ->
+            writeArtifacts(
+                json,
+                artifacts,
+                pkgToClasses -> collidingClasses(pkgToClasses, collidingPackages)));
+    sections.put("version", json -> json.value(VERSION));
+
+    JsonOutput.write(out, json -> JsonOutput.writeObject(json, sections));
+  }
+
+  /**
+   * Writes an object holding, for each artifact, whatever {@code section} picks out of its classes
+   * grouped by package. Artifacts for which nothing is picked are left out.
+   */
+  private static void writeArtifacts(
+      JsonWriter json,
+      Map<String, DependencyInfo> artifacts,
+      Function<Map<String, Set<String>>, Object> section)
+      throws IOException {
+    json.beginObject();
+    for (Map.Entry<String, DependencyInfo> entry : artifacts.entrySet()) {
+      Object value = section.apply(groupByPackage(entry.getValue()));
+      boolean isEmpty =
+          value instanceof Map ? ((Map<?, ?>) value).isEmpty() : ((Set<?>) value).isEmpty();
+      if (!isEmpty) {
+        json.name(entry.getKey());
+        JsonOutput.writeValue(json, value);
+      }
+    }
+    json.endObject();
+  }
+
+  /** Returns the artifacts which may hold classes, keyed and sorted by their artifact key. */
+  private Map<String, DependencyInfo> indexedArtifacts() {
+    Map<String, DependencyInfo> artifacts = new TreeMap<>();
+    for (DependencyInfo info : infos) {
+      // Skip sources and javadoc artifacts - they don't have classes
+      String classifier = info.getCoordinates().getClassifier();
+      if ("sources".equals(classifier) || "javadoc".equals(classifier)) {
+        continue;
+      }
+
+      Set<String> infoClasses = info.getClasses();
+      if (infoClasses == null || infoClasses.isEmpty()) {
+        continue;
+      }
+
+      artifacts.put(asKey(info.getCoordinates()), info);
+    }
+    return artifacts;
+  }
+
+  /** Returns the packages which appear in more than one artifact. */
+  private static Set<String> collidingPackages(Map<String, DependencyInfo> artifacts) {
+    // Map: package -> the first artifact key seen containing this package
+    Map<String, String> packageToArtifact = new HashMap<>();
+    Set<String> collidingPackages = new TreeSet<>();
+    for (Map.Entry<String, DependencyInfo> entry : artifacts.entrySet()) {
+      for (String fqcn : entry.getValue().getClasses()) {
+        String packageName = extractPackage(fqcn);
+        String previous = packageToArtifact.putIfAbsent(packageName, entry.getKey());
+        if (previous != null && !previous.equals(entry.getKey())) {
+          collidingPackages.add(packageName);
+        }
+      }
+    }
+    return collidingPackages;
+  }
+
+  /** Returns the simple names of the classes in {@code info}, grouped by package. */
+  private static Map<String, Set<String>> groupByPackage(DependencyInfo info) {
+    Map<String, Set<String>> packageToClasses = new TreeMap<>();
+    for (String fqcn : info.getClasses()) {
+      packageToClasses
+          .computeIfAbsent(extractPackage(fqcn), k -> new TreeSet<>())
+          .add(extractSimpleClassName(fqcn));
+    }
+    return packageToClasses;
+  }
+
+  private static Set<String> uniquePackages(
+      Map<String, Set<String>> pkgToClasses, Set<String> collidingPackages) {
+    Set<String> uniquePackages = new TreeSet<>(pkgToClasses.keySet());
+    uniquePackages.removeAll(collidingPackages);
+    return uniquePackages;
+  }
+
+  private static Map<String, Set<String>> collidingClasses(
+      Map<String, Set<String>> pkgToClasses, Set<String> collidingPackages) {
+    Map<String, Set<String>> collidingClasses = new TreeMap<>(pkgToClasses);
+    collidingClasses.keySet().retainAll(collidingPackages);
+    return collidingClasses;
+  }
+
   private static String asKey(Coordinates coords) {
     return coords.asKey().toString();
   }
@@ -0,0 +1,118 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.lockfile;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Writes rendered lock files and dependency indexes as pretty-printed JSON. The output is exactly
+ * what {@code new GsonBuilder().setPrettyPrinting().serializeNulls().create().toJson(...)} would
+ * produce, but is streamed as it is generated rather than being built up as one large string first,
+ * which matters once class-level indexing makes these files very large.
+ */
+public class JsonOutput {
+
+  private static final Gson GSON = new GsonBuilder().setPrettyPrinting().serializeNulls().create();
+
+  private JsonOutput() {
+    // Utility class
+  }
+
+  /**
+   * Writes {@code value} to {@code out}, followed by a newline. {@code out} is flushed, but not
+   * closed.
+   */
+  public static void write(Object value, OutputStream out) throws IOException {
+    write(out, json -> writeValue(json, value));
+  }
+
+  /** Writes {@code value} to {@code out}. {@code out} is flushed, but not closed. */
+  public static void write(Object value, Writer out) throws IOException {
+    write(out, json -> writeValue(json, value));
+  }
+
+  /**
+   * Lets {@code body} write a document to {@code out}, followed by a newline. {@code out} is
+   * flushed, but not closed.
+   */
+  static void write(OutputStream out, Body body) throws IOException {
+    Writer writer = new BufferedWriter(new OutputStreamWriter(out, UTF_8), 64 * 1024);
+    write(writer, body);
+    writer.write("\n");
+    writer.flush();
+  }
+
+  private static void write(Writer out, Body body) throws IOException {
+    // Let Gson configure the writer, so the formatting is exactly the same as its own.
+    JsonWriter json = GSON.newJsonWriter(out);
+    body.writeTo(json);
+    json.flush();
+  }
+
+  /**
+   * Writes an object whose members are the entries of {@code members}, in the order of its keys.
+   */
+  static void writeObject(JsonWriter json, Map<String, Body> members) throws IOException {
+    json.beginObject();
+    for (Map.Entry<String, Body> member : members.entrySet()) {
+      json.name(member.getKey());
+      member.getValue().writeTo(json);
+    }
+    json.endObject();
+  }
+
+  static void writeValue(JsonWriter json, Object value) throws IOException {
+    if (value == null) {
+      json.nullValue();
+    } else if (value instanceof Map) {
+      json.beginObject();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        json.name(String.valueOf(entry.getKey()));
+        writeValue(json, entry.getValue());
+      }
+      json.endObject();
+    } else if (value instanceof Collection) {
+      json.beginArray();
+      for (Object item : (Collection<?>) value) {
+        writeValue(json, item);
+      }
+      json.endArray();
+    } else if (value instanceof String) {
+      json.value((String) value);
+    } else if (value instanceof Boolean) {
+      json.value((Boolean) value);
+    } else if (value instanceof Number) {
+      json.value((Number) value);
+    } else {
+      GSON.toJson(value, value.getClass(), json);
+    }
+  }
+
+  /** Writes a single value, which may be a whole document or one member of an object. */
+  interface Body {
+    void writeTo(JsonWriter json) throws IOException;
+  }
+}
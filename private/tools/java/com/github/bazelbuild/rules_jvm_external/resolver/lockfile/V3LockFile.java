@@ -15,20 +15,28 @@
 package com.github.bazelbuild.rules_jvm_external.resolver.lockfile;
 
 import static com.google.common.base.StandardSystemProperty.USER_HOME;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.github.bazelbuild.rules_jvm_external.Coordinates;
 import com.github.bazelbuild.rules_jvm_external.resolver.Conflict;
 import com.github.bazelbuild.rules_jvm_external.resolver.DependencyInfo;
-import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeMap;
@@ -44,16 +52,27 @@ public class V3LockFile {
   private final Set<DependencyInfo> infos;
   private final Set<Conflict> conflicts;
   private final boolean renderPackages;
+  private final Map<String, Integer> inputHash;
 
   public V3LockFile(
       Collection<URI> repositories,
       Set<DependencyInfo> infos,
       Set<Conflict> conflicts,
       boolean renderPackages) {
+    this(repositories, infos, conflicts, renderPackages, null);
+  }
+
+  V3LockFile(
+      Collection<URI> repositories,
+      Set<DependencyInfo> infos,
+      Set<Conflict> conflicts,
+      boolean renderPackages,
+      Map<String, Integer> inputHash) {
     this.allRepos = repositories;
     this.infos = infos;
     this.conflicts = conflicts;
     this.renderPackages = renderPackages;
+    this.inputHash = inputHash;
   }
 
   public Collection<URI> getRepositories() {
@@ -68,185 +87,46 @@ public class V3LockFile {
     return conflicts;
   }
 
-  @SuppressWarnings("unchecked")
-  public static V3LockFile create(String from) {
-    Map<?, ?> raw = new Gson().fromJson(from, Map.class);
-
-    Set<URI> repos = new LinkedHashSet<>();
-    Map<String, Collection<String>> allRepos =
-        (Map<String, Collection<String>>) raw.get("repositories");
-    if (allRepos == null) {
-      allRepos = Map.of();
-    }
-    allRepos.keySet().stream().map(URI::create).forEach(repos::add);
-    if (Boolean.TRUE.equals(raw.get("m2local"))) {
-      repos.add(M2_LOCAL_URI);
-    }
-
-    // Get all the coordinates out of the lock file
-    Map<Coordinates, String> coords2Shasum = new LinkedHashMap<>();
-    Map<String, Coordinates> key2Coords = new LinkedHashMap<>();
-    Map<?, ?> artifactsMap = (Map<?, ?>) raw.get("artifacts");
-    if (artifactsMap == null) {
-      artifactsMap = Map.of();
-    }
-    for (Map.Entry<?, ?> entry : artifactsMap.entrySet()) {
-      String key = entry.getKey().toString();
-
-      Map<?, ?> entryData = (Map<?, ?>) entry.getValue();
-      String version = (String) entryData.get("version");
-
-      String[] parts = key.split(":", 3);
-      Coordinates baseCoords =
-          parts.length == 2
-              ? new Coordinates(parts[0], parts[1], null, null, version)
-              : new Coordinates(parts[0], parts[1], parts[3], null, version);
-
-      Map<?, ?> shasums = (Map<?, ?>) entryData.get("shasums");
-      if (shasums == null) {
-        shasums = Map.of();
-      }
-      for (Map.Entry<?, ?> shasum : shasums.entrySet()) {
-        if (shasum.getValue() != null) {
-          Coordinates newCoords = baseCoords.setClassifier((String) shasum.getKey());
-          coords2Shasum.put(newCoords, (String) shasum.getValue());
-          key2Coords.put(newCoords.asKey(), newCoords);
-        }
-      }
-    }
+  /** Whether the packages of each artifact are included in the lock file. */
+  public boolean isRenderingPackages() {
+    return renderPackages;
+  }
 
-    // Map dependencies back
-    Map<String, Collection<String>> rawDependencies =
-        (Map<String, Collection<String>>) raw.get("dependencies");
-    if (rawDependencies == null) {
-      rawDependencies = Map.of();
-    }
-    Map<Coordinates, Set<Coordinates>> dependencies = new LinkedHashMap<>();
-    for (Map.Entry<String, Collection<String>> entry : rawDependencies.entrySet()) {
-      Coordinates coords = key2Coords.get(entry.getKey());
-      if (coords == null) {
-        System.err.println("Unable to find mapping for " + entry.getKey());
-        continue;
-      }
-      for (String depKey : entry.getValue()) {
-        Coordinates depCoords = key2Coords.get(depKey);
-        if (depCoords == null) {
-          System.err.println("Unable to find mapping for " + depKey);
-          continue;
-        }
-        dependencies.computeIfAbsent(coords, k -> new HashSet<>()).add(depCoords);
-      }
-    }
+  /**
+   * The hash of the inputs that were resolved to create this lock file, or {@code null} if it was
+   * not recorded.
+   */
+  public Map<String, Integer> getInputHash() {
+    return inputHash;
+  }
 
-    // Now find out which repositories contain which artifacts
-    Map<Coordinates, Set<URI>> coords2Repos = new LinkedHashMap<>();
-    for (Map.Entry<String, Collection<String>> entry : allRepos.entrySet()) {
-      URI repo = URI.create(entry.getKey());
-      for (Coordinates coords : coords2Shasum.keySet()) {
-        if (entry.getValue().contains(coords.asKey())) {
-          coords2Repos.computeIfAbsent(coords, k -> new HashSet<>()).add(repo);
-        }
-      }
+  public static V3LockFile create(String from) {
+    try {
+      return create(new StringReader(from));
+    } catch (IOException e) {
+      // Reading from a string never fails
+      throw new UncheckedIOException(e);
     }
+  }
 
-    // And now we can recreate the `DependencyInfo`s
-    Set<DependencyInfo> infos = new HashSet<>();
-    for (Map.Entry<Coordinates, String> entry : coords2Shasum.entrySet()) {
-      Coordinates coords = entry.getKey();
-      infos.add(
-          new DependencyInfo(
-              coords,
-              coords2Repos.get(coords),
-              Optional.empty(),
-              Optional.of(entry.getValue()),
-              dependencies.getOrDefault(coords, Set.of()),
-              Set.of(),
-              Set.of(),
-              new TreeMap<>()));
-    }
+  public static V3LockFile create(Reader from) throws IOException {
+    return V3LockFileReader.read(from);
+  }
 
-    // Finally, gather the conflicts
-    Set<Conflict> conflicts = new HashSet<>();
-    Map<String, String> rawConflicts = (Map<String, String>) raw.get("conflict_resolution");
-    if (rawConflicts == null) {
-      rawConflicts = Map.of();
+  public static V3LockFile read(Path from) throws IOException {
+    try (Reader reader = Files.newBufferedReader(from, UTF_8)) {
+      return create(reader);
     }
-    for (Map.Entry<String, String> entry : rawConflicts.entrySet()) {
-      Coordinates requested = new Coordinates(entry.getKey());
-      Coordinates resolved = new Coordinates(entry.getValue());
-      conflicts.add(new Conflict(resolved, requested));
-    }
-
-    return new V3LockFile(repos, infos, conflicts, true);
   }
 
   public Map<String, Object> render() {
-    Set<URI> repositories = new LinkedHashSet<>(allRepos);
-
-    boolean isUsingM2Local = repositories.stream().anyMatch(M2_LOCAL_URI::equals);
-
-    Map<String, Map<String, Object>> artifacts = new TreeMap<>();
-    Map<String, Set<String>> deps = new TreeMap<>();
     Map<String, Set<String>> packages = new TreeMap<>();
     Map<String, Map<String, SortedSet<String>>> services = new TreeMap<>();
-    Map<String, Set<String>> repos = new LinkedHashMap<>();
-    repositories.stream()
-        .filter(r -> !M2_LOCAL_URI.equals(r))
-        .forEach(r -> repos.put(stripAuthenticationInformation(r), new TreeSet<>()));
-
-    Set<String> skipped = new TreeSet<>();
     Map<String, String> files = new TreeMap<>();
 
     infos.forEach(
         info -> {
-          Coordinates coords = info.getCoordinates();
-          String key = coords.asKey();
-
-          // The short key is the group:artifact[:extension] tuple. The classifier
-          // is used as a key in the shasum dict, and the version is also stored
-          // in the same dict as the shasums. In the common case where we have
-          // multiple `jar` artifacts, this means that we group all the classifiers
-          // together.
-          String shortKey = coords.getGroupId() + ":" + coords.getArtifactId();
-          if (coords.getExtension() != null
-              && !coords.getExtension().isEmpty()
-              && !"jar".equals(coords.getExtension())) {
-            shortKey += ":" + coords.getExtension();
-          }
-
-          if (info.getPath().isEmpty() || info.getSha256().isEmpty()) {
-            skipped.add(key);
-          }
-
-          Map<String, Object> artifactValue =
-              artifacts.computeIfAbsent(shortKey, k -> new TreeMap<>());
-          artifactValue.put("version", coords.getVersion());
-
-          String classifier;
-          if (coords.getClassifier() == null || coords.getClassifier().isEmpty()) {
-            classifier = "jar";
-          } else {
-            classifier = coords.getClassifier();
-          }
-          @SuppressWarnings("unchecked")
-          Map<String, String> shasums =
-              (Map<String, String>) artifactValue.computeIfAbsent("shasums", k -> new TreeMap<>());
-          info.getSha256().ifPresent(sha -> shasums.put(classifier, sha));
-
-          info.getRepositories()
-              .forEach(
-                  repo -> {
-                    repos
-                        .getOrDefault(stripAuthenticationInformation(repo), new TreeSet<>())
-                        .add(key);
-                  });
-
-          deps.put(
-              key,
-              info.getDependencies().stream()
-                  .map(Coordinates::asKey)
-                  .map(Object::toString)
-                  .collect(Collectors.toCollection(TreeSet::new)));
+          String key = info.getCoordinates().asKey();
           if (renderPackages) {
             packages.put(key, info.getPackages());
           }
@@ -259,28 +139,20 @@ public class V3LockFile {
         });
 
     Map<String, Object> lock = new LinkedHashMap<>();
-    lock.put("artifacts", ensureArtifactsAllHaveAtLeastOneShaSum(artifacts));
-    lock.put("dependencies", removeEmptyItems(deps));
+    lock.put("artifacts", renderArtifacts());
+    lock.put("dependencies", renderDependencies());
     if (renderPackages) {
       lock.put("packages", removeEmptyItems(packages));
     }
     lock.put("services", removeEmptyItemsMap(services));
-    if (isUsingM2Local) {
+    if (isUsingM2Local()) {
       lock.put("m2local", true);
     }
-    // repos is a LinkedHashSet which is iterated in insertion order.
-    // Meaning the order from the Starlark repositories array will be preserved.
-    lock.put("repositories", repos);
+    lock.put("repositories", renderRepositories());
 
-    lock.put("skipped", skipped);
+    lock.put("skipped", renderSkipped());
     if (conflicts != null && !conflicts.isEmpty()) {
-      Map<String, String> renderedConflicts = new TreeMap<String, String>();
-      for (Conflict conflict : conflicts) {
-        renderedConflicts.put(
-            conflict.getRequested().toString(), conflict.getResolved().toString());
-      }
-
-      lock.put("conflict_resolution", renderedConflicts);
+      lock.put("conflict_resolution", renderConflicts());
     }
     lock.put("files", files);
 
@@ -289,6 +161,217 @@ public class V3LockFile {
     return lock;
   }
 
+  /**
+   * Renders only the sections of the lock file which the {@code __RESOLVED_ARTIFACTS_HASH} is
+   * calculated from: the artifacts, their dependencies, and the repositories they came from.
+   */
+  public Map<String, Object> renderHashedSections() {
+    Map<String, Object> lock = new LinkedHashMap<>();
+    lock.put("artifacts", renderArtifacts());
+    lock.put("dependencies", renderDependencies());
+    lock.put("repositories", renderRepositories());
+    return lock;
+  }
+
+  /**
+   * Writes the lock file to {@code out} as JSON, along with the top-level entries in {@code
+   * header}. The output is the same as writing the {@link #render() rendered} lock file, minus its
+   * "files", with {@link JsonOutput}, but each section is written as it is generated rather than
+   * the whole lock file being built in memory first. {@code out} is flushed, but not closed.
+   */
+  public void write(Map<String, Object> header, OutputStream out) throws IOException {
+    // Each entry of an artifact's dict is keyed by its short key, and one artifact holds every
+    // classifier, so group those together. Everything else is keyed by the full key.
+    Map<String, List<DependencyInfo>> byShortKey = new TreeMap<>();
+    Map<String, DependencyInfo> byKey = new TreeMap<>();
+    for (DependencyInfo info : infos) {
+      byShortKey.computeIfAbsent(shortKey(info.getCoordinates()), k -> new ArrayList<>()).add(info);
+      byKey.put(info.getCoordinates().asKey(), info);
+    }
+
+    // Lock files are written with their top-level keys sorted, so diffs between them stay small
+    Map<String, JsonOutput.Body> sections = new TreeMap<>();
+    for (Map.Entry<String, Object> entry : header.entrySet()) {
+      sections.put(entry.getKey(), json -> JsonOutput.writeValue(json, entry.getValue()));
+    }
+    sections.put("artifacts", json -> writeArtifacts(json, byShortKey));
+    sections.put("dependencies", json -> writeDependencies(json, byKey));
+    if (renderPackages) {
+      sections.put("packages", json -> writePackages(json, byKey));
+    }
+    sections.put("services", json -> writeServices(json, byKey));
+    if (isUsingM2Local()) {
+      sections.put("m2local", json -> json.value(true));
+    }
+    sections.put("repositories", json -> JsonOutput.writeValue(json, renderRepositories()));
+    sections.put("skipped", json -> JsonOutput.writeValue(json, renderSkipped()));
+    if (conflicts != null && !conflicts.isEmpty()) {
+      sections.put("conflict_resolution", json -> JsonOutput.writeValue(json, renderConflicts()));
+    }
+    sections.put("version", json -> json.value("3"));
+
+    JsonOutput.write(out, json -> JsonOutput.writeObject(json, sections));
+  }
+
+  private void writeArtifacts(JsonWriter json, Map<String, List<DependencyInfo>> byShortKey)
+      throws IOException {
+    json.beginObject();
+    for (Map.Entry<String, List<DependencyInfo>> artifact : byShortKey.entrySet()) {
+      Map<String, String> shasums = new TreeMap<>();
+      String version = null;
+      for (DependencyInfo info : artifact.getValue()) {
+        version = info.getCoordinates().getVersion();
+        String classifier = classifier(info.getCoordinates());
+        info.getSha256().ifPresent(sha -> shasums.put(classifier, sha));
+      }
+
+      json.name(artifact.getKey()).beginObject();
+      json.name("shasums").beginObject();
+      if (shasums.isEmpty()) {
+        json.name("jar").nullValue();
+      }
+      for (Map.Entry<String, String> shasum : shasums.entrySet()) {
+        json.name(shasum.getKey()).value(shasum.getValue());
+      }
+      json.endObject();
+      json.name("version").value(version);
+      json.endObject();
+    }
+    json.endObject();
+  }
+
+  private void writeDependencies(JsonWriter json, Map<String, DependencyInfo> byKey)
+      throws IOException {
+    json.beginObject();
+    for (Map.Entry<String, DependencyInfo> entry : byKey.entrySet()) {
+      Set<String> deps = dependencyKeys(entry.getValue());
+      if (!deps.isEmpty()) {
+        json.name(entry.getKey());
+        JsonOutput.writeValue(json, deps);
+      }
+    }
+    json.endObject();
+  }
+
+  private void writePackages(JsonWriter json, Map<String, DependencyInfo> byKey)
+      throws IOException {
+    json.beginObject();
+    for (Map.Entry<String, DependencyInfo> entry : byKey.entrySet()) {
+      Set<String> packages = entry.getValue().getPackages();
+      if (!packages.isEmpty()) {
+        json.name(entry.getKey());
+        JsonOutput.writeValue(json, packages);
+      }
+    }
+    json.endObject();
+  }
+
+  private void writeServices(JsonWriter json, Map<String, DependencyInfo> byKey)
+      throws IOException {
+    json.beginObject();
+    for (Map.Entry<String, DependencyInfo> entry : byKey.entrySet()) {
+      Map<String, SortedSet<String>> services = entry.getValue().getServices();
+      if (!services.isEmpty()) {
+        json.name(entry.getKey());
+        JsonOutput.writeValue(json, services);
+      }
+    }
+    json.endObject();
+  }
+
+  private boolean isUsingM2Local() {
+    return allRepos.stream().anyMatch(M2_LOCAL_URI::equals);
+  }
+
+  private Map<String, Map<String, Object>> renderArtifacts() {
+    Map<String, Map<String, Object>> artifacts = new TreeMap<>();
+    for (DependencyInfo info : infos) {
+      Coordinates coords = info.getCoordinates();
+      Map<String, Object> artifactValue =
+          artifacts.computeIfAbsent(shortKey(coords), k -> new TreeMap<>());
+      artifactValue.put("version", coords.getVersion());
+
+      String classifier = classifier(coords);
+      @SuppressWarnings("unchecked")
+      Map<String, String> shasums =
+          (Map<String, String>) artifactValue.computeIfAbsent("shasums", k -> new TreeMap<>());
+      info.getSha256().ifPresent(sha -> shasums.put(classifier, sha));
+    }
+    return ensureArtifactsAllHaveAtLeastOneShaSum(artifacts);
+  }
+
+  private Map<String, Set<String>> renderDependencies() {
+    Map<String, Set<String>> deps = new TreeMap<>();
+    for (DependencyInfo info : infos) {
+      deps.put(info.getCoordinates().asKey(), dependencyKeys(info));
+    }
+    return removeEmptyItems(deps);
+  }
+
+  private Map<String, Set<String>> renderRepositories() {
+    // A LinkedHashMap, so the order from the Starlark repositories array is preserved.
+    Map<String, Set<String>> repos = new LinkedHashMap<>();
+    Set<URI> repositories = new LinkedHashSet<>(allRepos);
+    repositories.stream()
+        .filter(r -> !M2_LOCAL_URI.equals(r))
+        .forEach(r -> repos.put(stripAuthenticationInformation(r), new TreeSet<>()));
+
+    for (DependencyInfo info : infos) {
+      String key = info.getCoordinates().asKey();
+      info.getRepositories()
+          .forEach(
+              repo -> {
+                repos.getOrDefault(stripAuthenticationInformation(repo), new TreeSet<>()).add(key);
+              });
+    }
+    return repos;
+  }
+
+  private Set<String> renderSkipped() {
+    // Artifacts read back from a lock file have no path, but are not skipped
+    return infos.stream()
+        .filter(info -> info.getSha256().isEmpty())
+        .map(info -> info.getCoordinates().asKey())
+        .collect(Collectors.toCollection(TreeSet::new));
+  }
+
+  private Map<String, String> renderConflicts() {
+    Map<String, String> renderedConflicts = new TreeMap<String, String>();
+    for (Conflict conflict : conflicts) {
+      renderedConflicts.put(conflict.getRequested().toString(), conflict.getResolved().toString());
+    }
+    return renderedConflicts;
+  }
+
+  /**
+   * The short key is the group:artifact[:extension] tuple. The classifier is used as a key in the
+   * shasum dict, and the version is also stored in the same dict as the shasums. In the common case
+   * where we have multiple `jar` artifacts, this means that we group all the classifiers together.
+   */
+  private static String shortKey(Coordinates coords) {
+    String shortKey = coords.getGroupId() + ":" + coords.getArtifactId();
+    if (coords.getExtension() != null
+        && !coords.getExtension().isEmpty()
+        && !"jar".equals(coords.getExtension())) {
+      shortKey += ":" + coords.getExtension();
+    }
+    return shortKey;
+  }
+
+  private static String classifier(Coordinates coords) {
+    if (coords.getClassifier() == null || coords.getClassifier().isEmpty()) {
+      return "jar";
+    }
+    return coords.getClassifier();
+  }
+
+  private static Set<String> dependencyKeys(DependencyInfo info) {
+    return info.getDependencies().stream()
+        .map(Coordinates::asKey)
+        .map(Object::toString)
+        .collect(Collectors.toCollection(TreeSet::new));
+  }
+
   private Map<String, Map<String, Object>> ensureArtifactsAllHaveAtLeastOneShaSum(
       Map<String, Map<String, Object>> artifacts) {
     for (Map<String, Object> item : artifacts.values()) {
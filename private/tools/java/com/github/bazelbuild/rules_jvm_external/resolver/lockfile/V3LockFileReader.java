@@ -0,0 +1,296 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.lockfile;
+
+import com.github.bazelbuild.rules_jvm_external.Coordinates;
+import com.github.bazelbuild.rules_jvm_external.resolver.Conflict;
+import com.github.bazelbuild.rules_jvm_external.resolver.DependencyInfo;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Reads a v3 lock file a token at a time. Each section is read straight into the types we need, and
+ * artifacts are looked up by key, so reading a lock file takes time proportional to its size.
+ */
+class V3LockFileReader {
+
+  private final Set<URI> repos = new LinkedHashSet<>();
+  private final Map<String, List<String>> repoContents = new LinkedHashMap<>();
+  private boolean m2Local;
+  // Artifact coordinates in the order they appear, each with its shasum (which may be null)
+  private final Map<Coordinates, String> coords2Shasum = new LinkedHashMap<>();
+  private final Map<String, List<String>> rawDependencies = new LinkedHashMap<>();
+  private Map<String, Set<String>> packages;
+  private final Map<String, SortedMap<String, SortedSet<String>>> services = new HashMap<>();
+  private final Map<String, String> rawConflicts = new LinkedHashMap<>();
+  private Map<String, Integer> inputHash;
+
+  static V3LockFile read(Reader from) throws IOException {
+    V3LockFileReader reader = new V3LockFileReader();
+    try (JsonReader json = new JsonReader(from)) {
+      reader.readLockFile(json);
+    }
+    return reader.toLockFile();
+  }
+
+  private void readLockFile(JsonReader json) throws IOException {
+    json.beginObject();
+    while (json.hasNext()) {
+      String name = json.nextName();
+      if (json.peek() == JsonToken.NULL) {
+        json.nextNull();
+        continue;
+      }
+
+      switch (name) {
+        case "__INPUT_ARTIFACTS_HASH":
+          inputHash = new TreeMap<>();
+          json.beginObject();
+          while (json.hasNext()) {
+            inputHash.put(json.nextName(), json.nextInt());
+          }
+          json.endObject();
+          break;
+
+        case "artifacts":
+          readArtifacts(json);
+          break;
+
+        case "conflict_resolution":
+          json.beginObject();
+          while (json.hasNext()) {
+            rawConflicts.put(json.nextName(), json.nextString());
+          }
+          json.endObject();
+          break;
+
+        case "dependencies":
+          readStringLists(json, rawDependencies);
+          break;
+
+        case "m2local":
+          m2Local = json.nextBoolean();
+          break;
+
+        case "packages":
+          packages = new HashMap<>();
+          json.beginObject();
+          while (json.hasNext()) {
+            packages.put(json.nextName(), new TreeSet<>(readStringList(json)));
+          }
+          json.endObject();
+          break;
+
+        case "repositories":
+          json.beginObject();
+          while (json.hasNext()) {
+            String repo = json.nextName();
+            repos.add(URI.create(repo));
+            repoContents.put(repo, readStringList(json));
+          }
+          json.endObject();
+          break;
+
+        case "services":
+          json.beginObject();
+          while (json.hasNext()) {
+            String key = json.nextName();
+            SortedMap<String, SortedSet<String>> impls = new TreeMap<>();
+            json.beginObject();
+            while (json.hasNext()) {
+              impls.put(json.nextName(), new TreeSet<>(readStringList(json)));
+            }
+            json.endObject();
+            services.put(key, impls);
+          }
+          json.endObject();
+          break;
+
+        case "version":
+          String version = json.nextString();
+          if (!"3".equals(version)) {
+            throw new IllegalArgumentException("Unsupported lock file version: " + version);
+          }
+          break;
+
+        default:
+          json.skipValue();
+          break;
+      }
+    }
+    json.endObject();
+  }
+
+  private void readArtifacts(JsonReader json) throws IOException {
+    json.beginObject();
+    while (json.hasNext()) {
+      String key = json.nextName();
+
+      String version = null;
+      Map<String, String> shasums = new LinkedHashMap<>();
+      json.beginObject();
+      while (json.hasNext()) {
+        String field = json.nextName();
+        if ("version".equals(field)) {
+          version = nextNullableString(json);
+        } else if ("shasums".equals(field) && json.peek() != JsonToken.NULL) {
+          json.beginObject();
+          while (json.hasNext()) {
+            shasums.put(json.nextName(), nextNullableString(json));
+          }
+          json.endObject();
+        } else {
+          json.skipValue();
+        }
+      }
+      json.endObject();
+
+      String[] parts = key.split(":", 3);
+      Coordinates baseCoords =
+          parts.length == 2
+              ? new Coordinates(parts[0], parts[1], null, null, version)
+              : new Coordinates(parts[0], parts[1], parts[2], null, version);
+
+      for (Map.Entry<String, String> shasum : shasums.entrySet()) {
+        // Aggregating artifacts have no shasum, but are still part of the graph
+        if (shasum.getValue() != null || "jar".equals(shasum.getKey())) {
+          coords2Shasum.put(baseCoords.setClassifier(shasum.getKey()), shasum.getValue());
+        }
+      }
+    }
+    json.endObject();
+  }
+
+  private V3LockFile toLockFile() {
+    if (m2Local) {
+      repos.add(V3LockFile.M2_LOCAL_URI);
+    }
+
+    Map<String, Coordinates> key2Coords = new HashMap<>();
+    for (Coordinates coords : coords2Shasum.keySet()) {
+      key2Coords.put(coords.asKey(), coords);
+    }
+
+    // Map dependencies back
+    Map<Coordinates, Set<Coordinates>> dependencies = new HashMap<>();
+    for (Map.Entry<String, List<String>> entry : rawDependencies.entrySet()) {
+      Coordinates coords = key2Coords.get(entry.getKey());
+      if (coords == null) {
+        System.err.println("Unable to find mapping for " + entry.getKey());
+        continue;
+      }
+      for (String depKey : entry.getValue()) {
+        Coordinates depCoords = key2Coords.get(depKey);
+        if (depCoords == null) {
+          System.err.println("Unable to find mapping for " + depKey);
+          continue;
+        }
+        dependencies.computeIfAbsent(coords, k -> new HashSet<>()).add(depCoords);
+      }
+    }
+
+    // Now find out which repositories contain which artifacts
+    Map<String, List<Coordinates>> keyToAllCoords = new HashMap<>();
+    for (Coordinates coords : coords2Shasum.keySet()) {
+      keyToAllCoords.computeIfAbsent(coords.asKey(), k -> new ArrayList<>(1)).add(coords);
+    }
+    Map<Coordinates, Set<URI>> coords2Repos = new HashMap<>();
+    for (Map.Entry<String, List<String>> entry : repoContents.entrySet()) {
+      URI repo = URI.create(entry.getKey());
+      for (String key : entry.getValue()) {
+        for (Coordinates coords : keyToAllCoords.getOrDefault(key, List.of())) {
+          coords2Repos.computeIfAbsent(coords, k -> new HashSet<>()).add(repo);
+        }
+      }
+    }
+
+    // And now we can recreate the `DependencyInfo`s
+    Set<DependencyInfo> infos = new HashSet<>();
+    for (Map.Entry<Coordinates, String> entry : coords2Shasum.entrySet()) {
+      Coordinates coords = entry.getKey();
+      String key = coords.asKey();
+      infos.add(
+          new DependencyInfo(
+              coords,
+              coords2Repos.getOrDefault(coords, Set.of()),
+              Optional.empty(),
+              Optional.ofNullable(entry.getValue()),
+              dependencies.getOrDefault(coords, Set.of()),
+              packages == null ? Set.of() : packages.getOrDefault(key, Set.of()),
+              Set.of(),
+              services.getOrDefault(key, new TreeMap<>())));
+    }
+
+    // Finally, gather the conflicts
+    Set<Conflict> conflicts = new HashSet<>();
+    for (Map.Entry<String, String> entry : rawConflicts.entrySet()) {
+      Coordinates requested = new Coordinates(entry.getKey());
+      Coordinates resolved = new Coordinates(entry.getValue());
+      conflicts.add(new Conflict(resolved, requested));
+    }
+
+    return new V3LockFile(repos, infos, conflicts, packages != null, inputHash);
+  }
+
+  private static void readStringLists(JsonReader json, Map<String, List<String>> into)
+      throws IOException {
+    json.beginObject();
+    while (json.hasNext()) {
+      into.put(json.nextName(), readStringList(json));
+    }
+    json.endObject();
+  }
+
+  private static List<String> readStringList(JsonReader json) throws IOException {
+    List<String> values = new ArrayList<>();
+    if (json.peek() == JsonToken.NULL) {
+      json.nextNull();
+      return values;
+    }
+    json.beginArray();
+    while (json.hasNext()) {
+      String value = nextNullableString(json);
+      if (value != null) {
+        values.add(value);
+      }
+    }
+    json.endArray();
+    return values;
+  }
+
+  private static String nextNullableString(JsonReader json) throws IOException {
+    if (json.peek() == JsonToken.NULL) {
+      json.nextNull();
+      return null;
+    }
+    return json.nextString();
+  }
+}
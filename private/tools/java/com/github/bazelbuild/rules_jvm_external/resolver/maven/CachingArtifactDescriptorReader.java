@@ -0,0 +1,96 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.maven;
+
+import java.util.List;
+import java.util.Objects;
+import org.apache.maven.repository.internal.DefaultArtifactDescriptorReader;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.impl.ArtifactDescriptorReader;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactDescriptorException;
+import org.eclipse.aether.resolution.ArtifactDescriptorRequest;
+import org.eclipse.aether.resolution.ArtifactDescriptorResult;
+import org.eclipse.aether.spi.locator.Service;
+import org.eclipse.aether.spi.locator.ServiceLocator;
+
+/**
+ * Reads each artifact descriptor once, no matter how many sessions ask for it, provided the
+ * sessions share a {@link DescriptorCache}.
+ */
+// The service locator is deprecated, but it is still how MavenResolver builds its repository
+// system.
+@SuppressWarnings("deprecation")
+public class CachingArtifactDescriptorReader implements ArtifactDescriptorReader, Service {
+
+  private final DefaultArtifactDescriptorReader delegate = new DefaultArtifactDescriptorReader();
+
+  @Override
+  public void initService(ServiceLocator locator) {
+    delegate.initService(locator);
+  }
+
+  @Override
+  public ArtifactDescriptorResult readArtifactDescriptor(
+      RepositorySystemSession session, ArtifactDescriptorRequest request)
+      throws ArtifactDescriptorException {
+    DescriptorCache cache = DescriptorCache.from(session);
+    if (cache == null) {
+      return delegate.readArtifactDescriptor(session, request);
+    }
+
+    Key key = new Key(request);
+    Object cached = cache.get(session, key);
+    if (cached instanceof ArtifactDescriptorResult) {
+      return (ArtifactDescriptorResult) cached;
+    }
+
+    ArtifactDescriptorResult result = delegate.readArtifactDescriptor(session, request);
+    cache.put(session, key, result);
+    return result;
+  }
+
+  /**
+   * The request context is left out, as it only labels the request: the BOM and collection phases
+   * use different contexts, but read the same descriptor for the same artifact and repositories.
+   */
+  private static class Key {
+    private final Artifact artifact;
+    private final List<RemoteRepository> repositories;
+
+    Key(ArtifactDescriptorRequest request) {
+      this.artifact = request.getArtifact();
+      this.repositories = request.getRepositories();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key that = (Key) o;
+      return artifact.equals(that.artifact) && repositories.equals(that.repositories);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(artifact, repositories);
+    }
+  }
+}
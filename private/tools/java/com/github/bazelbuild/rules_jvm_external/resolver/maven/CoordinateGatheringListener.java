@@ -23,6 +23,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import org.apache.maven.model.Model;
@@ -35,7 +36,7 @@ import org.eclipse.aether.artifact.Artifact;
 
 public class CoordinateGatheringListener extends AbstractRepositoryListener {
 
-  private final Map<Coordinates, Coordinates> knownRewrittenCoordinates = new ConcurrentHashMap<>();
+  private final Map<Coordinates, ResolvedPom> resolvedPoms = new ConcurrentHashMap<>();
 
   @Override
   public void artifactResolved(RepositoryEvent event) {
@@ -50,29 +51,39 @@ public class CoordinateGatheringListener extends AbstractRepositoryListener {
       return;
     }
 
-    try (InputStream is = new FileInputStream(file);
-        BufferedInputStream bis = new BufferedInputStream(is);
-        Reader reader = ReaderFactory.newXmlReader(bis)) {
-      MavenXpp3Reader mavenXpp3Reader = new MavenXpp3Reader();
-      Model model = mavenXpp3Reader.read(reader);
-      String packaging = model.getPackaging();
+    // The POM is about to be read by Maven, so wait until we're asked for the remappings to find
+    // its packaging. By then it's normally in the cache, and we don't need to parse it again.
+    Coordinates coords =
+        new Coordinates(
+            artifact.getGroupId(), artifact.getArtifactId(), null, null, artifact.getVersion());
+    resolvedPoms.putIfAbsent(
+        coords, new ResolvedPom(artifact, file, DescriptorCache.from(event.getSession())));
+  }
 
-      if (packaging == null) {
-        return;
+  public Map<Coordinates, Coordinates> getRemappings() {
+    Map<Coordinates, Coordinates> knownRewrittenCoordinates = new HashMap<>();
+
+    for (Map.Entry<Coordinates, ResolvedPom> entry : resolvedPoms.entrySet()) {
+      Artifact artifact = entry.getValue().artifact;
+
+      String packaging;
+      try {
+        packaging = entry.getValue().getPackaging();
+      } catch (RuntimeException e) {
+        // Maven will have reported the broken POM already
+        continue;
       }
 
-      packaging = packaging.trim();
+      if (packaging == null) {
+        continue;
+      }
 
       String extension = mapPackagingToExtension(packaging);
       // The default packaging is "jar" anyway
       if (extension.isEmpty() || "jar".equals(extension)) {
-        return;
+        continue;
       }
 
-      Coordinates coords =
-          new Coordinates(
-              artifact.getGroupId(), artifact.getArtifactId(), null, null, artifact.getVersion());
-
       Coordinates actualCoords =
           new Coordinates(
               artifact.getGroupId(),
@@ -81,13 +92,50 @@ public class CoordinateGatheringListener extends AbstractRepositoryListener {
               artifact.getClassifier(),
               artifact.getVersion());
 
-      knownRewrittenCoordinates.put(coords, actualCoords);
-    } catch (IOException | XmlPullParserException e) {
-      throw new RuntimeException("Unable to determine packaging", e);
+      knownRewrittenCoordinates.put(entry.getKey(), actualCoords);
     }
-  }
 
-  public Map<Coordinates, Coordinates> getRemappings() {
     return Map.copyOf(knownRewrittenCoordinates);
   }
+
+  private static class ResolvedPom {
+    private final Artifact artifact;
+    private final File file;
+    private final DescriptorCache cache;
+
+    ResolvedPom(Artifact artifact, File file, DescriptorCache cache) {
+      this.artifact = artifact;
+      this.file = file;
+      this.cache = cache;
+    }
+
+    String getPackaging() {
+      if (cache != null) {
+        String packaging =
+            cache.getPackaging(
+                artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion());
+        if (packaging != null) {
+          return packaging;
+        }
+      }
+
+      // Not every POM is read as an artifact descriptor (parents, for example) so fall back to
+      // reading it ourselves.
+      try (InputStream is = new FileInputStream(file);
+          BufferedInputStream bis = new BufferedInputStream(is);
+          Reader reader = ReaderFactory.newXmlReader(bis)) {
+        MavenXpp3Reader mavenXpp3Reader = new MavenXpp3Reader();
+        Model model = mavenXpp3Reader.read(reader);
+        String packaging = model.getPackaging() == null ? null : model.getPackaging().trim();
+
+        if (cache != null && packaging != null) {
+          cache.putPackaging(
+              artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion(), packaging);
+        }
+        return packaging;
+      } catch (IOException | XmlPullParserException e) {
+        throw new RuntimeException("Unable to determine packaging", e);
+      }
+    }
+  }
 }
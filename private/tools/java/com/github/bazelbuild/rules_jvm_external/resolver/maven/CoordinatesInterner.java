@@ -0,0 +1,61 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.maven;
+
+import com.github.bazelbuild.rules_jvm_external.Coordinates;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import org.apache.maven.artifact.versioning.ComparableVersion;
+import org.eclipse.aether.graph.DependencyNode;
+
+/**
+ * Hands out a single instance of each {@link Coordinates} and parsed version seen while building
+ * the dependency graph. Aether's graph refers to the same node from every place it was depended
+ * upon, so the coordinates of each node are only worked out once, and each version string is only
+ * parsed once no matter how many times it is compared.
+ *
+ * <p>Only used from a single thread.
+ */
+class CoordinatesInterner {
+
+  private final Map<DependencyNode, Coordinates> nodes = new IdentityHashMap<>();
+  private final Map<Coordinates, Coordinates> coordinates = new HashMap<>();
+  private final Map<String, ComparableVersion> versions = new HashMap<>();
+
+  /**
+   * Returns the coordinates of {@code node}, using {@code toCoordinates} to work them out the first
+   * time the node is seen.
+   */
+  Coordinates of(DependencyNode node, Function<DependencyNode, Coordinates> toCoordinates) {
+    Coordinates existing = nodes.get(node);
+    if (existing != null) {
+      return existing;
+    }
+    Coordinates coords = intern(toCoordinates.apply(node));
+    nodes.put(node, coords);
+    return coords;
+  }
+
+  Coordinates intern(Coordinates coords) {
+    Coordinates existing = coordinates.putIfAbsent(coords, coords);
+    return existing == null ? coords : existing;
+  }
+
+  ComparableVersion version(String version) {
+    return versions.computeIfAbsent(version, ComparableVersion::new);
+  }
+}
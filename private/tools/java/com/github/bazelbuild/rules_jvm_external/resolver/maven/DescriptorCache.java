@@ -0,0 +1,140 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.maven;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.maven.model.Model;
+import org.apache.maven.repository.internal.ArtifactDescriptorReaderDelegate;
+import org.eclipse.aether.RepositoryCache;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.resolution.ArtifactDescriptorResult;
+
+/**
+ * A {@link RepositoryCache} shared by every session used during a single resolution. Maven keeps
+ * the models it has built (parents and imported BOMs) in the session's cache, and the {@link
+ * CachingArtifactDescriptorReader} keeps artifact descriptors here too, so a POM read while
+ * importing BOMs is not read again while collecting dependencies.
+ *
+ * <p>The packaging of each POM is also recorded as it is read, so that the {@link
+ * CoordinateGatheringListener} does not need to parse the POM again to find it.
+ */
+class DescriptorCache implements RepositoryCache {
+
+  // Far more than even large resolutions need, but stops a runaway one from using all our memory.
+  private static final int MAX_ENTRIES = 100_000;
+
+  private final Map<Object, Object> entries =
+      new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+          return size() > MAX_ENTRIES;
+        }
+      };
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /** Returns the cache used by {@code session}, or {@code null} if it isn't one of ours. */
+  static DescriptorCache from(RepositorySystemSession session) {
+    RepositoryCache cache = session == null ? null : session.getCache();
+    return cache instanceof DescriptorCache ? (DescriptorCache) cache : null;
+  }
+
+  @Override
+  public void put(RepositorySystemSession session, Object key, Object data) {
+    synchronized (entries) {
+      entries.put(key, data);
+    }
+  }
+
+  @Override
+  public Object get(RepositorySystemSession session, Object key) {
+    Object value;
+    synchronized (entries) {
+      value = entries.get(key);
+    }
+    (value == null ? misses : hits).incrementAndGet();
+    return value;
+  }
+
+  /**
+   * Returns the packaging of the POM for {@code groupId:artifactId:version}, or {@code null} if it
+   * has not been read.
+   */
+  String getPackaging(String groupId, String artifactId, String version) {
+    return (String) get(null, new PackagingKey(groupId, artifactId, version));
+  }
+
+  void putPackaging(String groupId, String artifactId, String version, String packaging) {
+    put(null, new PackagingKey(groupId, artifactId, version), packaging);
+  }
+
+  long getHits() {
+    return hits.get();
+  }
+
+  long getMisses() {
+    return misses.get();
+  }
+
+  private static class PackagingKey {
+    private final String groupId;
+    private final String artifactId;
+    private final String version;
+
+    PackagingKey(String groupId, String artifactId, String version) {
+      this.groupId = groupId;
+      this.artifactId = artifactId;
+      this.version = version;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof PackagingKey)) {
+        return false;
+      }
+      PackagingKey that = (PackagingKey) o;
+      return Objects.equals(groupId, that.groupId)
+          && Objects.equals(artifactId, that.artifactId)
+          && Objects.equals(version, that.version);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(groupId, artifactId, version);
+    }
+  }
+
+  /** Records the packaging of every model Maven builds while reading an artifact descriptor. */
+  static class PackagingRecorder extends ArtifactDescriptorReaderDelegate {
+    @Override
+    public void populateResult(
+        RepositorySystemSession session, ArtifactDescriptorResult result, Model model) {
+      super.populateResult(session, result, model);
+
+      DescriptorCache cache = from(session);
+      String packaging = model.getPackaging();
+      if (cache != null && packaging != null) {
+        cache.putPackaging(
+            model.getGroupId(), model.getArtifactId(), model.getVersion(), packaging.trim());
+      }
+    }
+  }
+}
@@ -19,6 +19,7 @@ import com.github.bazelbuild.rules_jvm_external.resolver.Conflict;
 import com.github.bazelbuild.rules_jvm_external.resolver.ResolutionRequest;
 import com.github.bazelbuild.rules_jvm_external.resolver.ResolutionResult;
 import com.github.bazelbuild.rules_jvm_external.resolver.Resolver;
+import com.github.bazelbuild.rules_jvm_external.resolver.events.CacheEvent;
 import com.github.bazelbuild.rules_jvm_external.resolver.events.EventListener;
 import com.github.bazelbuild.rules_jvm_external.resolver.events.LogEvent;
 import com.github.bazelbuild.rules_jvm_external.resolver.netrc.Netrc;
@@ -31,18 +32,27 @@ import com.google.common.graph.MutableGraph;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import org.apache.maven.artifact.versioning.ComparableVersion;
 import org.apache.maven.model.building.ModelBuildingException;
+import org.apache.maven.repository.internal.ArtifactDescriptorReaderDelegate;
 import org.apache.maven.repository.internal.MavenRepositorySystemUtils;
 import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositoryCache;
 import org.eclipse.aether.RepositoryListener;
 import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.RepositorySystemSession;
@@ -59,11 +69,11 @@ import org.eclipse.aether.graph.DependencyCycle;
 import org.eclipse.aether.graph.DependencyNode;
 import org.eclipse.aether.graph.DependencyVisitor;
 import org.eclipse.aether.graph.Exclusion;
+import org.eclipse.aether.impl.ArtifactDescriptorReader;
 import org.eclipse.aether.impl.DefaultServiceLocator;
 import org.eclipse.aether.internal.impl.collect.DefaultDependencyCollectionContext;
 import org.eclipse.aether.repository.LocalRepository;
 import org.eclipse.aether.repository.RemoteRepository;
-import org.eclipse.aether.resolution.ArtifactDescriptorException;
 import org.eclipse.aether.resolution.ArtifactDescriptorRequest;
 import org.eclipse.aether.resolution.ArtifactDescriptorResult;
 import org.eclipse.aether.spi.connector.RepositoryConnectorFactory;
@@ -81,6 +91,9 @@ import org.eclipse.aether.util.graph.visitor.TreeDependencyVisitor;
 
 public class MavenResolver implements Resolver {
 
+  // The repository system is thread safe and expensive to build, so share it between resolutions.
+  private static final RepositorySystem REPOSITORY_SYSTEM = createRepositorySystem();
+
   private final RemoteRepositoryFactory remoteRepositoryFactory;
   private final int maxThreads;
   private final EventListener listener;
@@ -159,15 +172,18 @@ public class MavenResolver implements Resolver {
             .map(this::createExclusion)
             .collect(Collectors.toSet());
 
-    RepositorySystem system = createRepositorySystem();
+    RepositorySystem system = REPOSITORY_SYSTEM;
     ConsoleRepositoryListener consoleLogListener = new ConsoleRepositoryListener(listener);
     ErrorReportingListener errorListener = new ErrorReportingListener();
     CoordinateGatheringListener coordinatesListener = new CoordinateGatheringListener();
+    // Shared by both sessions, so POMs read while importing BOMs aren't read again later.
+    DescriptorCache descriptorCache = new DescriptorCache();
     RepositorySystemSession session =
         prepareSession(
             system,
             new ClassicDependencyManager(),
             new CompoundListener(consoleLogListener, errorListener, coordinatesListener),
+            descriptorCache,
             request.getLocalCache("maven"));
 
     List<RemoteRepository> repositories = new ArrayList<>(repos.size());
@@ -197,6 +213,7 @@ public class MavenResolver implements Resolver {
             system,
             derived,
             new CompoundListener(consoleLogListener, errorListener, coordinatesListener),
+            descriptorCache,
             request.getLocalCache("maven"));
 
     List<Dependency> depsWithGlobalExclusions = addGlobalExclusions(globalExclusions, dependencies);
@@ -265,9 +282,13 @@ public class MavenResolver implements Resolver {
       }
     }
 
-    Graph<Coordinates> dependencyGraph =
-        buildDependencyGraph(coordinatesListener.getRemappings(), resolvedDependencies);
-    GraphNormalizationResult graphNormalizationResult = makeVersionsConsistent(dependencyGraph);
+    CoordinatesInterner interner = new CoordinatesInterner();
+    Map<Coordinates, Set<Coordinates>> dependencyGraph =
+        gatherDependencies(interner, coordinatesListener.getRemappings(), resolvedDependencies);
+    listener.onEvent(
+        new CacheEvent("descriptor", descriptorCache.getHits(), descriptorCache.getMisses()));
+    GraphNormalizationResult graphNormalizationResult =
+        makeVersionsConsistent(interner, dependencyGraph);
 
     Set<Conflict> conflicts =
         Sets.union(
@@ -277,22 +298,21 @@ public class MavenResolver implements Resolver {
     return new ResolutionResult(graphNormalizationResult.getNormalizedGraph(), conflicts, Map.of());
   }
 
-  private GraphNormalizationResult makeVersionsConsistent(Graph<Coordinates> dependencyGraph) {
-    Set<Coordinates> nodes = dependencyGraph.nodes();
+  private GraphNormalizationResult makeVersionsConsistent(
+      CoordinatesInterner interner, Map<Coordinates, Set<Coordinates>> dependencyGraph) {
+    Set<Coordinates> nodes = dependencyGraph.keySet();
 
-    Map<Coordinates, Coordinates> mappedVersions = gatherExpectedVersions(nodes);
+    Map<Coordinates, Coordinates> mappedVersions = gatherExpectedVersions(interner, nodes);
 
-    // Reconstruct the dependency graph
-    MutableGraph<Coordinates> toReturn = GraphBuilder.directed().allowsSelfLoops(true).build();
+    // Build the dependency graph using the expected versions
+    MutableGraph<Coordinates> toReturn =
+        GraphBuilder.directed().allowsSelfLoops(true).expectedNodeCount(nodes.size()).build();
 
-    for (Coordinates node : nodes) {
-      Coordinates replacement = mappedVersions.get(node);
+    for (Map.Entry<Coordinates, Set<Coordinates>> entry : dependencyGraph.entrySet()) {
+      Coordinates replacement = mappedVersions.get(entry.getKey());
       toReturn.addNode(replacement);
-      Set<Coordinates> successors = dependencyGraph.successors(node);
-      for (Coordinates successor : successors) {
-        Coordinates successorReplacement = mappedVersions.get(successor);
-        toReturn.addNode(successorReplacement);
-        toReturn.putEdge(replacement, successorReplacement);
+      for (Coordinates successor : entry.getValue()) {
+        toReturn.putEdge(replacement, mappedVersions.get(successor));
       }
     }
 
@@ -305,7 +325,8 @@ public class MavenResolver implements Resolver {
     return new GraphNormalizationResult(ImmutableGraph.copyOf(toReturn), conflicts);
   }
 
-  private Map<Coordinates, Coordinates> gatherExpectedVersions(Set<Coordinates> allCoords) {
+  private Map<Coordinates, Coordinates> gatherExpectedVersions(
+      CoordinatesInterner interner, Set<Coordinates> allCoords) {
     Function<Coordinates, String> keyify = c -> c.getGroupId() + ":" + c.getArtifactId();
 
     // Populate our map of expected versions
@@ -319,8 +340,8 @@ public class MavenResolver implements Resolver {
         continue;
       }
 
-      ComparableVersion coordVersion = new ComparableVersion(coord.getVersion());
-      ComparableVersion existingVersion = new ComparableVersion(existing);
+      ComparableVersion coordVersion = interner.version(coord.getVersion());
+      ComparableVersion existingVersion = interner.version(existing);
 
       if (coordVersion.compareTo(existingVersion) > 0) {
         keyToVersion.put(key, coord.getVersion());
@@ -330,11 +351,13 @@ public class MavenResolver implements Resolver {
     // Now prepare the map to return
     Map<Coordinates, Coordinates> toReturn = new HashMap<>();
     for (Coordinates coord : allCoords) {
-      String key = keyify.apply(coord);
-      toReturn.put(coord, coord.setVersion(keyToVersion.get(key)));
+      String version = keyToVersion.get(keyify.apply(coord));
+      toReturn.put(
+          coord,
+          version.equals(coord.getVersion()) ? coord : interner.intern(coord.setVersion(version)));
     }
 
-    return Map.copyOf(toReturn);
+    return toReturn;
   }
 
   private Set<Conflict> getConflicts(
@@ -483,23 +506,54 @@ public class MavenResolver implements Resolver {
       RepositorySystemSession session,
       List<RemoteRepository> repositories,
       List<Dependency> boms) {
-    // Use LinkedHashSet to maintain order of how BOMS were declared
-    Set<Dependency> managedDependencies = new LinkedHashSet<>();
-
-    for (Dependency bom : boms) {
-      ArtifactDescriptorRequest request =
-          new ArtifactDescriptorRequest(bom.getArtifact(), repositories, JavaScopes.COMPILE);
-      try {
-        ArtifactDescriptorResult result = system.readArtifactDescriptor(session, request);
+    if (boms.isEmpty()) {
+      return ImmutableList.of();
+    }
+
+    // Each BOM may need its parents and imported BOMs fetched, so read them all at once rather
+    // than waiting for each in turn.
+    ExecutorService executor =
+        Executors.newFixedThreadPool(
+            Math.min(maxThreads, boms.size()),
+            r -> {
+              Thread thread = new Thread(r);
+              thread.setDaemon(true);
+              thread.setName("bom-resolver");
+              return thread;
+            });
+    List<Future<ArtifactDescriptorResult>> results = new ArrayList<>(boms.size());
+    try {
+      for (Dependency bom : boms) {
+        ArtifactDescriptorRequest request =
+            new ArtifactDescriptorRequest(bom.getArtifact(), repositories, JavaScopes.COMPILE);
+        results.add(executor.submit(() -> system.readArtifactDescriptor(session, request)));
+      }
+
+      // Use LinkedHashSet to maintain order of how BOMS were declared
+      Set<Dependency> managedDependencies = new LinkedHashSet<>();
+      for (Future<ArtifactDescriptorResult> result : results) {
         // NOTE: BOM dependencies are added in order so dependencies from eariler BOMs will
         // take precedence over dependencies from later BOMs
-        managedDependencies.addAll(result.getManagedDependencies());
-      } catch (ArtifactDescriptorException e) {
-        throw new RuntimeException(e);
+        managedDependencies.addAll(getBomResult(result).getManagedDependencies());
       }
+      return ImmutableList.copyOf(managedDependencies);
+    } finally {
+      executor.shutdownNow();
     }
+  }
 
-    return ImmutableList.copyOf(managedDependencies);
+  private static ArtifactDescriptorResult getBomResult(Future<ArtifactDescriptorResult> result) {
+    try {
+      return result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
   }
 
   private List<Dependency> addGlobalExclusions(
@@ -516,36 +570,45 @@ public class MavenResolver implements Resolver {
         .collect(ImmutableList.toImmutableList());
   }
 
-  private Graph<Coordinates> buildDependencyGraph(
-      Map<Coordinates, Coordinates> remappings, Collection<DependencyNode> resolvedDependencies) {
-    MutableGraph<Coordinates> dependencyGraph =
-        GraphBuilder.directed().allowsSelfLoops(true).build();
+  /**
+   * Walks the resolved dependencies, returning the dependencies of every artifact we find. Aether
+   * refers to the same node from everywhere it is depended upon, so each node's dependencies are
+   * only gathered the first time we see it.
+   */
+  private Map<Coordinates, Set<Coordinates>> gatherDependencies(
+      CoordinatesInterner interner,
+      Map<Coordinates, Coordinates> remappings,
+      Collection<DependencyNode> resolvedDependencies) {
+    Function<DependencyNode, Coordinates> toCoordinates =
+        node -> {
+          Coordinates coords = MavenCoordinates.asCoordinates(amendArtifact(node.getArtifact()));
+          return remappings.getOrDefault(coords, coords);
+        };
+
+    Map<Coordinates, Set<Coordinates>> dependencyGraph = new LinkedHashMap<>();
+    Set<DependencyNode> seen = Collections.newSetFromMap(new IdentityHashMap<>());
     DependencyVisitor collector =
         new TreeDependencyVisitor(
             new DependencyNodeVisitor(
                 node -> {
                   final DependencyNode actualNode = getDependencyNode(node);
+                  if (!seen.add(actualNode)) {
+                    return;
+                  }
+
+                  Coordinates from = interner.of(actualNode, toCoordinates);
+                  Set<Coordinates> successors =
+                      dependencyGraph.computeIfAbsent(from, k -> new LinkedHashSet<>());
 
-                  Artifact artifact = amendArtifact(actualNode.getArtifact());
-                  Coordinates from = MavenCoordinates.asCoordinates(artifact);
-                  Coordinates remapped = remappings.getOrDefault(from, from);
-                  dependencyGraph.addNode(remapped);
-
-                  actualNode.getChildren().stream()
-                      .map(this::getDependencyNode)
-                      .map(DependencyNode::getArtifact)
-                      .map(this::amendArtifact)
-                      .map(MavenCoordinates::asCoordinates)
-                      .map(c -> remappings.getOrDefault(c, c))
-                      .forEach(
-                          to -> {
-                            dependencyGraph.addNode(to);
-                            dependencyGraph.putEdge(remapped, to);
-                          });
+                  for (DependencyNode child : actualNode.getChildren()) {
+                    Coordinates to = interner.of(getDependencyNode(child), toCoordinates);
+                    dependencyGraph.computeIfAbsent(to, k -> new LinkedHashSet<>());
+                    successors.add(to);
+                  }
                 }));
     resolvedDependencies.forEach(node -> node.accept(collector));
 
-    return ImmutableGraph.copyOf(dependencyGraph);
+    return dependencyGraph;
   }
 
   private DependencyNode getDependencyNode(DependencyNode node) {
@@ -588,6 +651,7 @@ public class MavenResolver implements Resolver {
       RepositorySystem system,
       DependencyManager dependencyManager,
       RepositoryListener listener,
+      RepositoryCache cache,
       Path localCache) {
     DefaultRepositorySystemSession session = MavenRepositorySystemUtils.newSession();
 
@@ -600,6 +664,8 @@ public class MavenResolver implements Resolver {
 
     session.setRepositoryListener(listener);
 
+    session.setCache(cache);
+
     // Only resolve from repos that we have been asked to use.
     session.setIgnoreArtifactDescriptorRepositories(true);
 
@@ -632,6 +698,9 @@ public class MavenResolver implements Resolver {
     // If enabled, the original attributes of a dependency before its update due to dependency
     // managemnent will be recorded in the node's custom data when building a dependency graph.
     configProperties.put(DependencyManagerUtils.CONFIG_PROP_VERBOSE, true);
+    // Record the packaging of each POM as Maven reads it, so we don't need to parse it again.
+    configProperties.put(
+        ArtifactDescriptorReaderDelegate.class.getName(), new DescriptorCache.PackagingRecorder());
 
     session.setConfigProperties(Map.copyOf(configProperties));
 
@@ -645,6 +714,7 @@ public class MavenResolver implements Resolver {
     locator.addService(RepositoryConnectorFactory.class, BasicRepositoryConnectorFactory.class);
     locator.addService(TransporterFactory.class, FileTransporterFactory.class);
     locator.addService(TransporterFactory.class, HttpTransporterFactory.class);
+    locator.setService(ArtifactDescriptorReader.class, CachingArtifactDescriptorReader.class);
 
     return locator.getService(RepositorySystem.class);
   }
@@ -24,6 +24,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Map;
+import java.util.Objects;
 
 /** Container for the content of a .netrc file. */
 public class Netrc {
@@ -72,6 +73,24 @@ public class Netrc {
     return credentials;
   }
 
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Netrc)) {
+      return false;
+    }
+    Netrc that = (Netrc) o;
+    return Objects.equals(defaultCredential, that.defaultCredential)
+        && credentials.equals(that.credentials);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(defaultCredential, credentials);
+  }
+
   /** Container for login, password and account of a machine in .netrc */
   public static class Credential {
 
@@ -103,6 +122,26 @@ public class Netrc {
       return account;
     }
 
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Credential)) {
+        return false;
+      }
+      Credential that = (Credential) o;
+      return Objects.equals(machine, that.machine)
+          && Objects.equals(login, that.login)
+          && Objects.equals(password, that.password)
+          && Objects.equals(account, that.account);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(machine, login, password, account);
+    }
+
     /**
      * The generated toString method will leak the password. Override and replace the value of
      * password with constant string {@code <password>}.
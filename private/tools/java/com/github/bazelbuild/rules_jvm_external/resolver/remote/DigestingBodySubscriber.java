@@ -0,0 +1,125 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.remote;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import com.github.bazelbuild.rules_jvm_external.Digests;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * Writes a response body to a file, updating digests of the content as it arrives so that the file
+ * doesn't need to be read again once the download is complete.
+ */
+class DigestingBodySubscriber implements HttpResponse.BodySubscriber<DownloadedFile> {
+
+  private final Path path;
+  private final Map<String, MessageDigest> digests = new LinkedHashMap<>();
+  private final CompletableFuture<DownloadedFile> result = new CompletableFuture<>();
+  private FileChannel channel;
+  private Flow.Subscription subscription;
+
+  private DigestingBodySubscriber(Path path, Collection<String> algorithms) {
+    this.path = path;
+    algorithms.forEach(algorithm -> digests.put(algorithm, Digests.newDigest(algorithm)));
+  }
+
+  static HttpResponse.BodyHandler<DownloadedFile> handler(
+      Path path, Collection<String> algorithms) {
+    // A fresh subscriber for each response, since requests may be retried
+    return responseInfo -> new DigestingBodySubscriber(path, algorithms);
+  }
+
+  @Override
+  public CompletionStage<DownloadedFile> getBody() {
+    return result;
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    try {
+      channel = FileChannel.open(path, CREATE, WRITE, TRUNCATE_EXISTING);
+    } catch (IOException e) {
+      result.completeExceptionally(e);
+      subscription.cancel();
+      return;
+    }
+    this.subscription = subscription;
+    subscription.request(1);
+  }
+
+  @Override
+  public void onNext(List<ByteBuffer> items) {
+    try {
+      for (ByteBuffer item : items) {
+        for (MessageDigest digest : digests.values()) {
+          digest.update(item.duplicate());
+        }
+        while (item.hasRemaining()) {
+          channel.write(item);
+        }
+      }
+    } catch (IOException e) {
+      close();
+      subscription.cancel();
+      result.completeExceptionally(e);
+      return;
+    }
+    subscription.request(1);
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    close();
+    result.completeExceptionally(throwable);
+  }
+
+  @Override
+  public void onComplete() {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      result.completeExceptionally(e);
+      return;
+    }
+
+    Map<String, String> hexDigests = new LinkedHashMap<>();
+    digests.forEach(
+        (algorithm, digest) -> hexDigests.put(algorithm, Digests.toHex(digest.digest())));
+    result.complete(new DownloadedFile(path, true, hexDigests));
+  }
+
+  private void close() {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // We're already reporting a failure. Nothing more to do.
+    }
+  }
+}
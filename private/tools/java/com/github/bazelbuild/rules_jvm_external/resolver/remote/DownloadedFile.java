@@ -0,0 +1,54 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.remote;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/** A file fetched by the {@link HttpDownloader}, along with any digests calculated on the way. */
+public class DownloadedFile {
+
+  private final Path path;
+  private final boolean temporary;
+  private final Map<String, String> digests;
+
+  public DownloadedFile(Path path, boolean temporary, Map<String, String> digests) {
+    this.path = Objects.requireNonNull(path);
+    this.temporary = temporary;
+    this.digests = Map.copyOf(digests);
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  /**
+   * Whether the file was written by the downloader, and so may be moved elsewhere. Files served
+   * from a {@code file:} URI are returned in place, and must be left alone.
+   */
+  public boolean isTemporary() {
+    return temporary;
+  }
+
+  /**
+   * @param algorithm The {@link java.security.MessageDigest} algorithm name, such as "SHA-256".
+   * @return The lower-case hex digest, if it was requested when the file was downloaded.
+   */
+  public Optional<String> getDigest(String algorithm) {
+    return Optional.ofNullable(digests.get(algorithm));
+  }
+}
@@ -14,12 +14,13 @@
 
 package com.github.bazelbuild.rules_jvm_external.resolver.remote;
 
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
 import com.github.bazelbuild.rules_jvm_external.Coordinates;
+import com.github.bazelbuild.rules_jvm_external.Digests;
 import com.github.bazelbuild.rules_jvm_external.resolver.events.EventListener;
 import com.github.bazelbuild.rules_jvm_external.resolver.netrc.Netrc;
-import com.google.common.hash.Hashing;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -27,13 +28,20 @@ import java.io.Reader;
 import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 import org.apache.maven.model.Model;
 import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
@@ -55,6 +63,8 @@ public class Downloader {
   private final boolean cacheDownloads;
   private final HttpDownloader httpDownloader;
   private final Map<Coordinates, Path> knownPaths;
+  // Paths which no repository has. There's no point asking for them again during this run.
+  private final Set<String> notFound = ConcurrentHashMap.newKeySet();
 
   public Downloader(
       Netrc netrc,
@@ -63,10 +73,31 @@ public class Downloader {
       EventListener listener,
       boolean cacheDownloads,
       Map<Coordinates, Path> knownPaths) {
+    this(
+        netrc,
+        localRepository,
+        repositories,
+        listener,
+        cacheDownloads,
+        knownPaths,
+        HttpDownloader.DEFAULT_MAX_REQUESTS_PER_HOST);
+  }
+
+  /**
+   * @param maxRequestsPerHost how many requests, of any kind, may be made to one repository at once
+   */
+  public Downloader(
+      Netrc netrc,
+      Path localRepository,
+      Collection<URI> repositories,
+      EventListener listener,
+      boolean cacheDownloads,
+      Map<Coordinates, Path> knownPaths,
+      int maxRequestsPerHost) {
     this.localRepository = localRepository;
     this.repos = Set.copyOf(repositories);
     this.cacheDownloads = cacheDownloads;
-    this.httpDownloader = new HttpDownloader(netrc, listener);
+    this.httpDownloader = new HttpDownloader(netrc, listener, maxRequestsPerHost);
     this.knownPaths = knownPaths != null ? Map.copyOf(knownPaths) : Map.of();
   }
 
@@ -120,6 +151,11 @@ public class Downloader {
   }
 
   private DownloadResult performDownload(Coordinates coordsToUse, String path) {
+    if (notFound.contains(path)) {
+      LOG.fine(String.format("Already know %s is missing from every repo%n", path));
+      return null;
+    }
+
     Set<URI> repos = new LinkedHashSet<>();
 
     Path pathInRepo = null;
@@ -141,44 +177,119 @@ public class Downloader {
       assumedDownloaded = "1".equals(rjeAssumePresent) || Boolean.parseBoolean(rjeAssumePresent);
     }
 
+    // Ask every other repository whether it has the artifact at the same time, so that resolving
+    // an artifact costs the round trip to the slowest mirror rather than the sum of all of them.
+    List<URI> candidates = new ArrayList<>(this.repos);
+    Map<URI, CompletableFuture<Boolean>> probes = new HashMap<>();
+    if (!assumedDownloaded) {
+      // If we need to download the artifact, we'll try the first repo without waiting to probe it.
+      for (int i = pathInRepo == null ? 1 : 0; i < candidates.size(); i++) {
+        URI repo = candidates.get(i);
+        LOG.fine(String.format("Checking head of %s in %s%n", coordsToUse, repo));
+        probes.put(repo, httpDownloader.headAsync(buildUri(repo, path)));
+      }
+    }
+
     boolean downloaded = false;
-    for (URI repo : this.repos) {
-      if (pathInRepo == null) {
+    String sha256 = null;
+    URI downloadedFrom = null;
+    if (pathInRepo == null) {
+      for (URI repo : candidates) {
+        CompletableFuture<Boolean> probe = probes.get(repo);
+        if (probe != null && !isPresent(probe)) {
+          continue;
+        }
+
         LOG.fine(String.format("Downloading %s%n", coordsToUse));
-        pathInRepo = httpDownloader.get(buildUri(repo, path));
-        if (pathInRepo != null) {
-          repos.add(repo);
-          downloaded = true;
+        DownloadedFile fetched = httpDownloader.get(buildUri(repo, path), Set.of("SHA-256"));
+        if (fetched == null) {
+          continue;
+        }
+
+        pathInRepo = fetched.getPath();
+        sha256 = fetched.getDigest("SHA-256").orElse(null);
+        repos.add(repo);
+        downloadedFrom = repo;
+        downloaded = true;
 
-          Path cachedResult = localRepository.resolve(path);
-          if (cacheDownloads && !cachedResult.equals(pathInRepo)) {
-            try {
-              Files.createDirectories(cachedResult.getParent());
+        Path cachedResult = localRepository.resolve(path);
+        if (cacheDownloads && !cachedResult.equals(pathInRepo)) {
+          try {
+            Files.createDirectories(cachedResult.getParent());
+            if (fetched.isTemporary()) {
+              moveIntoPlace(pathInRepo, cachedResult);
+              pathInRepo = cachedResult;
+            } else {
               Files.copy(pathInRepo, cachedResult, REPLACE_EXISTING);
-            } catch (IOException e) {
-              throw new UncheckedIOException(e);
             }
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
           }
         }
-      } else if (assumedDownloaded) {
+        break;
+      }
+    }
+
+    if (pathInRepo != null) {
+      if (assumedDownloaded && !candidates.isEmpty()) {
         LOG.fine(String.format("Assuming %s is cached%n", coordsToUse));
         downloaded = true;
-      } else if (httpDownloader.head(buildUri(repo, path))) {
-        LOG.fine(String.format("Checking head of %s%n", coordsToUse));
-        repos.add(repo);
-        downloaded = true;
+      }
+
+      // Repos we tried to download from before succeeding don't have the artifact, even if a
+      // probe said otherwise.
+      int firstToCheck = downloadedFrom == null ? 0 : candidates.indexOf(downloadedFrom) + 1;
+      for (URI repo : candidates.subList(firstToCheck, candidates.size())) {
+        CompletableFuture<Boolean> probe = probes.get(repo);
+        if (probe != null && isPresent(probe)) {
+          repos.add(repo);
+          downloaded = true;
+        }
       }
     }
 
     if (!downloaded) {
+      notFound.add(path);
       return null;
     }
 
-    String sha256 = calculateSha256(pathInRepo);
+    if (sha256 == null) {
+      sha256 = calculateSha256(pathInRepo);
+    }
 
     return new DownloadResult(coordsToUse, Set.copyOf(repos), pathInRepo, sha256);
   }
 
+  private static boolean isPresent(CompletableFuture<Boolean> probe) {
+    try {
+      return probe.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private void moveIntoPlace(Path source, Path target) throws IOException {
+    try {
+      Files.move(source, target, REPLACE_EXISTING, ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      // The temp dir is on a different file system. Copy next to the target first so that other
+      // processes sharing the cache never see a partially written file.
+      Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+      try {
+        Files.copy(source, temp, REPLACE_EXISTING);
+        Files.move(temp, target, REPLACE_EXISTING, ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e2) {
+        Files.move(temp, target, REPLACE_EXISTING);
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+      Files.delete(source);
+    }
+  }
+
   private URI buildUri(URI baseUri, String pathInRepo) {
     String path = baseUri.getPath();
     if (!path.endsWith("/")) {
@@ -223,8 +334,7 @@ public class Downloader {
 
   private String calculateSha256(Path path) {
     try {
-      byte[] bytes = Files.readAllBytes(path);
-      return Hashing.sha256().hashBytes(bytes).toString();
+      return Digests.sha256(path);
     } catch (IOException e) {
       throw new UncheckedIOException(e);
     }
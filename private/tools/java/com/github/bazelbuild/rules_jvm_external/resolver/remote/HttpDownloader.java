@@ -42,8 +42,15 @@ import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 public class HttpDownloader implements AutoCloseable {
@@ -51,14 +58,33 @@ public class HttpDownloader implements AutoCloseable {
   private static final int MAX_RETRY_COUNT = 3;
   private static final Set<Integer> RETRY_RESPONSE_CODES = Set.of(500, 502, 503, 504);
   private static final Set<Integer> UNAUTHENTICATED_RESPONSE_CODES = Set.of(401, 403, 407);
+  // Used when no limit is given. Enough to overlap round trips to a repository without looking
+  // like abuse.
+  public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 6;
   private static final Logger LOG = Logger.getLogger(HttpDownloader.class.getName());
+  // Clients hold on to connection pools, so share them between downloaders using the same
+  // credentials. This matters when one process handles many resolutions.
+  private static final Map<Netrc, HttpClient> CLIENTS = new ConcurrentHashMap<>();
   private final HttpClient client;
   private final EventListener listener;
   private final Set<String> authenticationFailed = Collections.synchronizedSet(new HashSet<>());
+  private final PerHostLimiter perHostLimiter;
 
-  public HttpDownloader(Netrc netrc, EventListener listener) {
+  public HttpDownloader(Netrc netrc, EventListener listener, int maxRequestsPerHost) {
     this.listener = listener;
+    this.client = CLIENTS.computeIfAbsent(netrc, HttpDownloader::createClient);
+    this.perHostLimiter = new PerHostLimiter(maxRequestsPerHost);
+  }
+
+  public HttpDownloader(Netrc netrc, EventListener listener) {
+    this(netrc, listener, DEFAULT_MAX_REQUESTS_PER_HOST);
+  }
 
+  public HttpDownloader(Netrc netrc) {
+    this(netrc, defaultEventListener());
+  }
+
+  private static HttpClient createClient(Netrc netrc) {
     HttpClient.Builder builder =
         HttpClient.newBuilder()
             .connectTimeout(Duration.ofSeconds(300))
@@ -87,16 +113,15 @@ public class HttpDownloader implements AutoCloseable {
           }
         };
     builder = builder.authenticator(authenticator);
-    this.client = builder.build();
+    return builder.build();
   }
 
-  public HttpDownloader(Netrc netrc) {
-    this(netrc, defaultEventListener());
+  public static EventListener defaultEventListener() {
+    return defaultEventListener(System.console() != null);
   }
 
-  public static EventListener defaultEventListener() {
+  public static EventListener defaultEventListener(boolean consoleAvailable) {
     boolean termAvailable = !Objects.equals(System.getenv().get("TERM"), "dumb");
-    boolean consoleAvailable = System.console() != null;
     if (System.getenv("RJE_VERBOSE") != null) {
       return new PlainConsoleListener();
     } else if (termAvailable && consoleAvailable || System.getenv("FORCE_ANSI") != null) {
@@ -106,10 +131,20 @@ public class HttpDownloader implements AutoCloseable {
   }
 
   public Path get(URI uriToGet) {
+    DownloadedFile downloaded = get(uriToGet, Set.of());
+    return downloaded == null ? null : downloaded.getPath();
+  }
+
+  /**
+   * Downloads {@code uriToGet}, calculating the digests named by {@code digestAlgorithms} while the
+   * content is being written to disk. Digests are not calculated for {@code file:} URIs, which are
+   * returned in place.
+   */
+  public DownloadedFile get(URI uriToGet, Set<String> digestAlgorithms) {
     if ("file".equals(uriToGet.getScheme())) {
       Path path = Paths.get(uriToGet);
       if (Files.exists(path)) {
-        return path;
+        return new DownloadedFile(path, false, Map.of());
       }
       return null;
     }
@@ -119,7 +154,8 @@ public class HttpDownloader implements AutoCloseable {
     try {
       Path path = Files.createTempFile("resolver", "download");
 
-      HttpResponse<Path> response = makeRequest(request, HttpResponse.BodyHandlers.ofFile(path));
+      HttpResponse<DownloadedFile> response =
+          makeRequest(request, DigestingBodySubscriber.handler(path, digestAlgorithms));
 
       if (!isSuccessful(response)) {
         return null;
@@ -137,14 +173,31 @@ public class HttpDownloader implements AutoCloseable {
       return Files.exists(path);
     }
 
-    HttpRequest request =
-        startPreparingRequest(uri).method("HEAD", HttpRequest.BodyPublishers.noBody()).build();
-
-    HttpResponse<Void> response = makeRequest(request, HttpResponse.BodyHandlers.discarding());
+    HttpResponse<Void> response =
+        makeRequest(prepareHeadRequest(uri), HttpResponse.BodyHandlers.discarding());
 
     return isSuccessful(response);
   }
 
+  /**
+   * Like {@link #head(URI)}, but without blocking the caller. Only a handful of requests are made
+   * to any one host at a time, so many probes may be started at once without overwhelming a
+   * repository.
+   */
+  public CompletableFuture<Boolean> headAsync(URI uri) {
+    if ("file".equals(uri.getScheme())) {
+      Path path = Paths.get(uri);
+      return CompletableFuture.completedFuture(Files.exists(path));
+    }
+
+    return makeRequestAsync(prepareHeadRequest(uri), HttpResponse.BodyHandlers.discarding())
+        .thenApply(this::isSuccessful);
+  }
+
+  private HttpRequest prepareHeadRequest(URI uri) {
+    return startPreparingRequest(uri).method("HEAD", HttpRequest.BodyPublishers.noBody()).build();
+  }
+
   private HttpRequest.Builder startPreparingRequest(URI uri) {
     return HttpRequest.newBuilder()
         .uri(uri)
@@ -154,75 +207,127 @@ public class HttpDownloader implements AutoCloseable {
 
   private <X> HttpResponse<X> makeRequest(
       HttpRequest request, HttpResponse.BodyHandler<X> handler) {
+    try {
+      return makeRequestAsync(request, handler).get();
+    } catch (InterruptedException e) {
+      LOG.fine(String.format("Interrupted while waiting for %s", request.uri()));
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  private <X> CompletableFuture<HttpResponse<X>> makeRequestAsync(
+      HttpRequest request, HttpResponse.BodyHandler<X> handler) {
     return doRequest(0, request, handler);
   }
 
-  private <X> HttpResponse<X> doRequest(
+  private <X> CompletableFuture<HttpResponse<X>> doRequest(
+      int attemptCount, HttpRequest request, HttpResponse.BodyHandler<X> handler) {
+    // Slight pause, in case a previous attempt overwhelmed a server. We may be about to do it
+    // again, but this might just help a little. Nothing in flight holds one of the host's slots
+    // while we wait.
+    Executor executor =
+        attemptCount == 0
+            ? Runnable::run
+            : CompletableFuture.delayedExecutor(attemptCount * 500L, TimeUnit.MILLISECONDS);
+
+    return CompletableFuture.supplyAsync(() -> request.uri().getHost(), executor)
+        .thenCompose(
+            host ->
+                perHostLimiter.submit(
+                    String.valueOf(host), () -> attempt(attemptCount, request, handler)))
+        .thenCompose(
+            attempt ->
+                attempt.retry
+                    ? doRequest(attemptCount + 1, request, handler)
+                    : CompletableFuture.completedFuture(attempt.response));
+  }
+
+  private <X> CompletableFuture<Attempt<X>> attempt(
       int attemptCount, HttpRequest request, HttpResponse.BodyHandler<X> handler) {
     listener.onEvent(new DownloadEvent(STARTING, request.method(), request.uri().toString()));
     LOG.fine(String.format("Downloading (attempt %d): %s", attemptCount, request.uri()));
 
-    // Slight pause, in case a previous attempt overwhelmed a server. We may be about to do it
-    // again,
-    // but this might just help a little.
-    try {
-      Thread.sleep(attemptCount * 500L);
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
-      throw new RuntimeException(e);
-    }
+    return client
+        .sendAsync(request, handler)
+        .handle(
+            (response, throwable) -> {
+              try {
+                if (throwable == null) {
+                  return onResponse(request, response);
+                }
+                return onFailure(attemptCount, request, unwrap(throwable));
+              } finally {
+                LOG.fine(String.format("Downloaded (attempt %d): %s", attemptCount, request.uri()));
+                listener.onEvent(
+                    new DownloadEvent(COMPLETE, request.method(), request.uri().toString()));
+              }
+            });
+  }
 
-    try {
-      HttpResponse<X> response = client.send(request, handler);
-      LOG.fine(String.format("%s -> Got response %d%n", request.uri(), response.statusCode()));
+  private <X> Attempt<X> onResponse(HttpRequest request, HttpResponse<X> response) {
+    LOG.fine(String.format("%s -> Got response %d%n", request.uri(), response.statusCode()));
 
-      // Do we want to retry the request?
-      if (RETRY_RESPONSE_CODES.contains(response.statusCode())) {
-        return doRequest(++attemptCount, request, handler);
-      }
+    // Do we want to retry the request?
+    if (RETRY_RESPONSE_CODES.contains(response.statusCode())) {
+      return Attempt.retry();
+    }
 
-      if (UNAUTHENTICATED_RESPONSE_CODES.contains(response.statusCode())) {
-        logFailedAuthenticationIfRequired(request);
-        return new EmptyResponse<>(request, response.statusCode());
-      }
+    if (UNAUTHENTICATED_RESPONSE_CODES.contains(response.statusCode())) {
+      logFailedAuthenticationIfRequired(request);
+      return Attempt.of(new EmptyResponse<>(request, response.statusCode()));
+    }
+
+    return Attempt.of(response);
+  }
 
-      return response;
-    } catch (ConnectException e) {
+  private <X> Attempt<X> onFailure(int attemptCount, HttpRequest request, Throwable throwable) {
+    if (throwable instanceof ConnectException) {
       // Unable to connect to the remote server. Report the URL as not being found
       LOG.fine(String.format("Unable to connect to remote server: %s", request.uri()));
-      return new EmptyResponse<>(request, HTTP_NOT_FOUND);
-    } catch (IOException e) {
-      LOG.fine(String.format("Attempt %d failed for %s", attemptCount, request.uri()));
-
-      // We may have failed because of an authentication error. The `AuthenticationFilter`
-      // doesn't make it easy to detect this case (because it will only return a response
-      // with the unauthenticated error code if we'd not used _any_ authenticator in our
-      // HttpClient, so we have to examine the exception's error message and hope for the
-      // best. This is very, very nasty
-      if ("No credentials provided".equals(e.getMessage())) {
-        logFailedAuthenticationIfRequired(request);
-        return new EmptyResponse<>(request, 401);
+      return Attempt.of(new EmptyResponse<>(request, HTTP_NOT_FOUND));
+    }
+
+    if (!(throwable instanceof IOException)) {
+      if (throwable instanceof RuntimeException) {
+        throw (RuntimeException) throwable;
       }
+      throw new RuntimeException(throwable);
+    }
 
-      // There are many reasons we may have seen an IOException. One is when an HTTP/2 server sends
-      // a `GOAWAY` frame.
-      // Don't panic. Just have another go.
+    LOG.fine(String.format("Attempt %d failed for %s", attemptCount, request.uri()));
 
-      if (attemptCount < MAX_RETRY_COUNT) {
-        listener.onEvent(new DownloadEvent(COMPLETE, request.method(), request.uri().toString()));
-        return doRequest(++attemptCount, request, handler);
-      }
+    // We may have failed because of an authentication error. The `AuthenticationFilter`
+    // doesn't make it easy to detect this case (because it will only return a response
+    // with the unauthenticated error code if we'd not used _any_ authenticator in our
+    // HttpClient, so we have to examine the exception's error message and hope for the
+    // best. This is very, very nasty
+    if ("No credentials provided".equals(throwable.getMessage())) {
+      logFailedAuthenticationIfRequired(request);
+      return Attempt.of(new EmptyResponse<>(request, 401));
+    }
 
-      // But in all other cases, get very upset.
-      throw new UncheckedIOException(e);
-    } catch (InterruptedException e) {
-      LOG.fine(String.format("Attempt %d interrupted for %s", attemptCount, request.uri()));
-      Thread.currentThread().interrupt();
-      throw new RuntimeException(e);
-    } finally {
-      LOG.fine(String.format("Downloaded (attempt %d): %s", attemptCount, request.uri()));
-      listener.onEvent(new DownloadEvent(COMPLETE, request.method(), request.uri().toString()));
+    // There are many reasons we may have seen an IOException. One is when an HTTP/2 server sends
+    // a `GOAWAY` frame.
+    // Don't panic. Just have another go.
+    if (attemptCount < MAX_RETRY_COUNT) {
+      return Attempt.retry();
+    }
+
+    // But in all other cases, get very upset.
+    throw new UncheckedIOException((IOException) throwable);
+  }
+
+  private static Throwable unwrap(Throwable throwable) {
+    while (throwable instanceof CompletionException && throwable.getCause() != null) {
+      throwable = throwable.getCause();
     }
+    return throwable;
   }
 
   private void logFailedAuthenticationIfRequired(HttpRequest request) {
@@ -246,4 +351,22 @@ public class HttpDownloader implements AutoCloseable {
   public void close() throws Exception {
     listener.close();
   }
+
+  private static class Attempt<X> {
+    private final HttpResponse<X> response;
+    private final boolean retry;
+
+    private Attempt(HttpResponse<X> response, boolean retry) {
+      this.response = response;
+      this.retry = retry;
+    }
+
+    static <X> Attempt<X> of(HttpResponse<X> response) {
+      return new Attempt<>(response, false);
+    }
+
+    static <X> Attempt<X> retry() {
+      return new Attempt<>(null, true);
+    }
+  }
 }
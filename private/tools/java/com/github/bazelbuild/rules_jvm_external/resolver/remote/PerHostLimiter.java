@@ -0,0 +1,100 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.remote;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of asynchronous tasks that may be in flight against any one host. Tasks over
+ * the limit are queued, and started as earlier tasks for the same host complete. No threads are
+ * blocked while waiting.
+ */
+public class PerHostLimiter {
+
+  private final int maxPerHost;
+  private final Map<String, Slots> hosts = new HashMap<>();
+
+  public PerHostLimiter(int maxPerHost) {
+    if (maxPerHost < 1) {
+      throw new IllegalArgumentException("Maximum tasks per host must be positive: " + maxPerHost);
+    }
+    this.maxPerHost = maxPerHost;
+  }
+
+  public <T> CompletableFuture<T> submit(String host, Supplier<CompletableFuture<T>> task) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+
+    Runnable start =
+        () -> {
+          CompletableFuture<T> running;
+          try {
+            running = task.get();
+          } catch (RuntimeException | Error e) {
+            running = CompletableFuture.failedFuture(e);
+          }
+          running.whenComplete(
+              (value, throwable) -> {
+                release(host);
+                if (throwable != null) {
+                  result.completeExceptionally(throwable);
+                } else {
+                  result.complete(value);
+                }
+              });
+        };
+
+    boolean startNow;
+    synchronized (hosts) {
+      Slots slots = hosts.computeIfAbsent(host, h -> new Slots());
+      startNow = slots.running < maxPerHost;
+      if (startNow) {
+        slots.running++;
+      } else {
+        slots.waiting.add(start);
+      }
+    }
+
+    if (startNow) {
+      start.run();
+    }
+    return result;
+  }
+
+  private void release(String host) {
+    Runnable next;
+    synchronized (hosts) {
+      Slots slots = hosts.get(host);
+      next = slots.waiting.poll();
+      // If there's a waiting task, it inherits the slot we're giving up.
+      if (next == null && --slots.running == 0) {
+        hosts.remove(host);
+      }
+    }
+
+    if (next != null) {
+      next.run();
+    }
+  }
+
+  private static class Slots {
+    private final Queue<Runnable> waiting = new ArrayDeque<>();
+    private int running;
+  }
+}
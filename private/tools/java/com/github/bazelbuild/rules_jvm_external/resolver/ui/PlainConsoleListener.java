@@ -16,6 +16,7 @@ package com.github.bazelbuild.rules_jvm_external.resolver.ui;
 
 import static com.github.bazelbuild.rules_jvm_external.resolver.events.DownloadEvent.Stage.STARTING;
 
+import com.github.bazelbuild.rules_jvm_external.resolver.events.CacheEvent;
 import com.github.bazelbuild.rules_jvm_external.resolver.events.DownloadEvent;
 import com.github.bazelbuild.rules_jvm_external.resolver.events.Event;
 import com.github.bazelbuild.rules_jvm_external.resolver.events.EventListener;
@@ -39,6 +40,10 @@ public class PlainConsoleListener implements EventListener {
       System.err.println("[WARNING]: " + event);
     }
 
+    if (event instanceof CacheEvent && System.getenv("RJE_VERBOSE") != null) {
+      System.err.println("Stats: " + event);
+    }
+
     if (event instanceof PhaseEvent) {
       System.err.println(
           "Currently: " + ((PhaseEvent) event).getPhaseName().toLowerCase(Locale.ENGLISH));
@@ -0,0 +1,109 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.worker;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.Strictness;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bazel's JSON worker protocol: a stream of {@code WorkRequest}s in, and one {@code WorkResponse}
+ * per line out, using the proto3 JSON field names.
+ */
+class JsonWorkerProtocol implements WorkerProtocol {
+
+  private final JsonReader reader;
+  private final Writer writer;
+
+  JsonWorkerProtocol(InputStream in, OutputStream out) {
+    this.reader = new JsonReader(new BufferedReader(new InputStreamReader(in, UTF_8)));
+    // Requests are separate documents, one after another.
+    this.reader.setStrictness(Strictness.LENIENT);
+    this.writer = new BufferedWriter(new OutputStreamWriter(out, UTF_8));
+  }
+
+  @Override
+  public WorkRequest readRequest() throws IOException {
+    if (reader.peek() == JsonToken.END_DOCUMENT) {
+      return null;
+    }
+
+    List<String> arguments = new ArrayList<>();
+    int requestId = 0;
+    boolean cancel = false;
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (reader.peek() == JsonToken.NULL) {
+        reader.nextNull();
+        continue;
+      }
+
+      switch (name) {
+        case "arguments":
+          reader.beginArray();
+          while (reader.hasNext()) {
+            arguments.add(reader.nextString());
+          }
+          reader.endArray();
+          break;
+
+        case "requestId":
+        case "request_id":
+          requestId = reader.nextInt();
+          break;
+
+        case "cancel":
+          cancel = reader.nextBoolean();
+          break;
+
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.endObject();
+
+    return new WorkRequest(arguments, requestId, cancel);
+  }
+
+  @Override
+  public void writeResponse(WorkResponse response) throws IOException {
+    // Not closed, since that would close stdout
+    JsonWriter json = new JsonWriter(writer);
+    json.beginObject();
+    json.name("exitCode").value(response.getExitCode());
+    json.name("output").value(response.getOutput());
+    json.name("requestId").value(response.getRequestId());
+    json.endObject();
+    json.flush();
+    writer.write("\n");
+    writer.flush();
+  }
+}
@@ -0,0 +1,206 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.worker;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a tool either once, with the arguments it was started with, or as a Bazel persistent worker
+ * if it was started with {@code --persistent_worker}. As a worker, requests are read from stdin and
+ * the tool is run for each of them in the same JVM, so the JIT, thread pools and buffers stay warm
+ * between actions.
+ *
+ * <p>Requests use Bazel's protobuf worker protocol by default, or the JSON one if {@code
+ * --worker_protocol=json} is also passed. Requests with a non-zero request id are multiplexed, and
+ * run at the same time as each other, so tools must not keep state between calls.
+ *
+ * <p>Anything the tool prints while handling a request is returned to Bazel as that request's
+ * output, since stdout belongs to the protocol.
+ */
+public class PersistentWorker {
+
+  /** The work done for a single action. */
+  public interface Action {
+    void run(String[] args) throws IOException;
+  }
+
+  private static final String PERSISTENT_WORKER_FLAG = "--persistent_worker";
+  private static final String JSON_PROTOCOL_FLAG = "--worker_protocol=json";
+
+  private final Action action;
+  private final WorkerProtocol protocol;
+  // Threads are reused between multiplexed requests
+  private final ExecutorService executor =
+      Executors.newCachedThreadPool(
+          runnable -> {
+            Thread thread = new Thread(runnable, "persistent-worker");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  PersistentWorker(Action action, WorkerProtocol protocol) {
+    this.action = action;
+    this.protocol = protocol;
+  }
+
+  /**
+   * Runs {@code action} with {@code args}, or serves work requests if {@code args} asks for a
+   * persistent worker. A single {@code @params} argument is replaced by the contents of that file,
+   * one argument per line.
+   */
+  public static void run(String[] args, Action action) throws IOException {
+    List<String> flags = Arrays.asList(args);
+    if (!flags.contains(PERSISTENT_WORKER_FLAG)) {
+      action.run(expandParamsFile(args));
+      return;
+    }
+
+    InputStream in = System.in;
+    PrintStream out = System.out;
+    PrintStream requestOutput = new PrintStream(new RequestOutputStream(System.err), true, UTF_8);
+    System.setOut(requestOutput);
+    System.setErr(requestOutput);
+
+    WorkerProtocol protocol =
+        flags.contains(JSON_PROTOCOL_FLAG)
+            ? new JsonWorkerProtocol(in, out)
+            : new ProtoWorkerProtocol(in, out);
+    new PersistentWorker(action, protocol).serve();
+  }
+
+  /** Handles requests until stdin is closed. */
+  void serve() throws IOException {
+    try {
+      for (WorkRequest request = protocol.readRequest();
+          request != null;
+          request = protocol.readRequest()) {
+        if (request.isCancel()) {
+          // We don't claim to support cancellation, so the request will finish as normal.
+          continue;
+        }
+
+        if (request.getRequestId() == 0) {
+          respond(handle(request));
+        } else {
+          WorkRequest multiplexed = request;
+          executor.execute(
+              () -> {
+                try {
+                  respond(handle(multiplexed));
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                }
+              });
+        }
+      }
+    } finally {
+      executor.shutdown();
+      try {
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private WorkResponse handle(WorkRequest request) {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    int exitCode = 0;
+
+    RequestOutputStream.capture(output);
+    try {
+      action.run(expandParamsFile(request.getArguments().toArray(new String[0])));
+    } catch (Exception e) {
+      PrintStream printer = new PrintStream(output, true, UTF_8);
+      e.printStackTrace(printer);
+      printer.flush();
+      exitCode = 1;
+    } finally {
+      RequestOutputStream.release();
+    }
+
+    return new WorkResponse(request.getRequestId(), exitCode, output.toString(UTF_8));
+  }
+
+  private void respond(WorkResponse response) throws IOException {
+    synchronized (protocol) {
+      protocol.writeResponse(response);
+    }
+  }
+
+  // Visible for testing
+  static String[] expandParamsFile(String[] args) throws IOException {
+    if (args.length != 1 || !args[0].startsWith("@")) {
+      return args;
+    }
+    return Files.readAllLines(Paths.get(args[0].substring(1)), UTF_8).toArray(new String[0]);
+  }
+
+  /**
+   * Sends whatever is written to it by a thread handling a request to that request's output, and
+   * anything else to the worker's log.
+   */
+  private static class RequestOutputStream extends OutputStream {
+    private static final ThreadLocal<OutputStream> CAPTURED = new ThreadLocal<>();
+
+    private final OutputStream log;
+
+    RequestOutputStream(OutputStream log) {
+      this.log = log;
+    }
+
+    static void capture(OutputStream output) {
+      CAPTURED.set(output);
+    }
+
+    static void release() {
+      CAPTURED.remove();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      target().write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      target().write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      target().flush();
+    }
+
+    private OutputStream target() {
+      OutputStream captured = CAPTURED.get();
+      return captured == null ? log : captured;
+    }
+  }
+}
@@ -0,0 +1,220 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.worker;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bazel's default worker protocol: length-delimited {@code WorkRequest} and {@code WorkResponse}
+ * protocol buffers. The messages are small and stable, so they are encoded by hand rather than
+ * pulling the protobuf runtime into every tool that can run as a worker.
+ */
+class ProtoWorkerProtocol implements WorkerProtocol {
+
+  private static final int WIRE_VARINT = 0;
+  private static final int WIRE_FIXED64 = 1;
+  private static final int WIRE_LENGTH_DELIMITED = 2;
+  private static final int WIRE_FIXED32 = 5;
+
+  // WorkRequest
+  private static final int ARGUMENTS = 1;
+  private static final int REQUEST_ID = 3;
+  private static final int CANCEL = 4;
+
+  // WorkResponse
+  private static final int EXIT_CODE = 1;
+  private static final int OUTPUT = 2;
+  private static final int RESPONSE_REQUEST_ID = 3;
+
+  private final InputStream in;
+  private final OutputStream out;
+
+  ProtoWorkerProtocol(InputStream in, OutputStream out) {
+    this.in = new BufferedInputStream(in);
+    this.out = new BufferedOutputStream(out);
+  }
+
+  @Override
+  public WorkRequest readRequest() throws IOException {
+    int first = in.read();
+    if (first == -1) {
+      return null;
+    }
+    int size = (int) readVarint(in, first);
+    byte[] message = in.readNBytes(size);
+    if (message.length != size) {
+      throw new EOFException("Work request was truncated");
+    }
+    return parseRequest(message);
+  }
+
+  private static WorkRequest parseRequest(byte[] message) throws IOException {
+    List<String> arguments = new ArrayList<>();
+    int requestId = 0;
+    boolean cancel = false;
+
+    Cursor cursor = new Cursor(message);
+    while (cursor.hasRemaining()) {
+      long tag = cursor.readVarint();
+      int field = (int) (tag >>> 3);
+      int wireType = (int) (tag & 0x7);
+
+      if (field == ARGUMENTS && wireType == WIRE_LENGTH_DELIMITED) {
+        arguments.add(new String(cursor.readBytes(), UTF_8));
+      } else if (field == REQUEST_ID && wireType == WIRE_VARINT) {
+        requestId = (int) cursor.readVarint();
+      } else if (field == CANCEL && wireType == WIRE_VARINT) {
+        cancel = cursor.readVarint() != 0;
+      } else {
+        cursor.skip(wireType);
+      }
+    }
+
+    return new WorkRequest(arguments, requestId, cancel);
+  }
+
+  @Override
+  public void writeResponse(WorkResponse response) throws IOException {
+    // Fields with default values are left out, as protobuf itself would do.
+    ByteArrayOutputStream message = new ByteArrayOutputStream();
+    if (response.getExitCode() != 0) {
+      writeVarint(message, tag(EXIT_CODE, WIRE_VARINT));
+      // Negative int32s are sign extended
+      writeVarint(message, response.getExitCode());
+    }
+    if (!response.getOutput().isEmpty()) {
+      byte[] output = response.getOutput().getBytes(UTF_8);
+      writeVarint(message, tag(OUTPUT, WIRE_LENGTH_DELIMITED));
+      writeVarint(message, output.length);
+      message.write(output);
+    }
+    if (response.getRequestId() != 0) {
+      writeVarint(message, tag(RESPONSE_REQUEST_ID, WIRE_VARINT));
+      writeVarint(message, response.getRequestId());
+    }
+
+    writeVarint(out, message.size());
+    message.writeTo(out);
+    out.flush();
+  }
+
+  private static long tag(int field, int wireType) {
+    return (field << 3) | wireType;
+  }
+
+  private static long readVarint(InputStream in, int first) throws IOException {
+    long value = first & 0x7f;
+    int shift = 7;
+    for (int b = first; (b & 0x80) != 0; shift += 7) {
+      b = in.read();
+      if (b == -1) {
+        throw new EOFException("Work request was truncated");
+      }
+      value |= (long) (b & 0x7f) << shift;
+    }
+    return value;
+  }
+
+  private static void writeVarint(OutputStream out, long value) throws IOException {
+    while ((value & ~0x7fL) != 0) {
+      out.write((int) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  private static class Cursor {
+    private final byte[] bytes;
+    private int position;
+
+    Cursor(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    boolean hasRemaining() {
+      return position < bytes.length;
+    }
+
+    long readVarint() throws IOException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        byte b = next();
+        value |= (long) (b & 0x7f) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IOException("Malformed varint in work request");
+    }
+
+    byte[] readBytes() throws IOException {
+      int length = (int) readVarint();
+      if (length < 0 || length > bytes.length - position) {
+        throw new EOFException("Work request was truncated");
+      }
+      byte[] value = new byte[length];
+      System.arraycopy(bytes, position, value, 0, length);
+      position += length;
+      return value;
+    }
+
+    void skip(int wireType) throws IOException {
+      switch (wireType) {
+        case WIRE_VARINT:
+          readVarint();
+          break;
+
+        case WIRE_FIXED64:
+          advance(8);
+          break;
+
+        case WIRE_LENGTH_DELIMITED:
+          advance((int) readVarint());
+          break;
+
+        case WIRE_FIXED32:
+          advance(4);
+          break;
+
+        default:
+          throw new IOException("Unsupported wire type in work request: " + wireType);
+      }
+    }
+
+    private void advance(int count) throws EOFException {
+      if (count < 0 || count > bytes.length - position) {
+        throw new EOFException("Work request was truncated");
+      }
+      position += count;
+    }
+
+    private byte next() throws EOFException {
+      if (position >= bytes.length) {
+        throw new EOFException("Work request was truncated");
+      }
+      return bytes[position++];
+    }
+  }
+}
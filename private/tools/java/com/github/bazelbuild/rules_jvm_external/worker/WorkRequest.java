@@ -0,0 +1,42 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.worker;
+
+import java.util.List;
+
+/** The parts of Bazel's {@code WorkRequest} message that we use. */
+class WorkRequest {
+  private final List<String> arguments;
+  private final int requestId;
+  private final boolean cancel;
+
+  WorkRequest(List<String> arguments, int requestId, boolean cancel) {
+    this.arguments = arguments;
+    this.requestId = requestId;
+    this.cancel = cancel;
+  }
+
+  List<String> getArguments() {
+    return arguments;
+  }
+
+  int getRequestId() {
+    return requestId;
+  }
+
+  boolean isCancel() {
+    return cancel;
+  }
+}
@@ -0,0 +1,40 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.worker;
+
+/** Bazel's {@code WorkResponse} message. */
+class WorkResponse {
+  private final int requestId;
+  private final int exitCode;
+  private final String output;
+
+  WorkResponse(int requestId, int exitCode, String output) {
+    this.requestId = requestId;
+    this.exitCode = exitCode;
+    this.output = output;
+  }
+
+  int getRequestId() {
+    return requestId;
+  }
+
+  int getExitCode() {
+    return exitCode;
+  }
+
+  String getOutput() {
+    return output;
+  }
+}
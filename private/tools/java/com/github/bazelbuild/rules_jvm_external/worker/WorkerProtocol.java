@@ -0,0 +1,26 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.worker;
+
+import java.io.IOException;
+
+/** Reads work requests from Bazel, and writes the responses back. */
+interface WorkerProtocol {
+
+  /** Returns the next request, or {@code null} once there are no more. */
+  WorkRequest readRequest() throws IOException;
+
+  void writeResponse(WorkResponse response) throws IOException;
+}
@@ -0,0 +1,155 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.zip;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A {@link RawZipWriter} which compresses entries on a {@link ForkJoinPool}. Entries are written in
+ * the order they are added, and each is compressed independently of the others, so the output is
+ * exactly the same as if everything had been done on one thread.
+ */
+public class ParallelZipWriter implements Closeable {
+
+  // Larger entries are compressed while being written, rather than being held in memory.
+  private static final long MAX_BUFFERED_SIZE = 16 * 1024 * 1024;
+
+  private final RawZipWriter writer;
+  private final int level;
+  private final ForkJoinPool pool;
+  private final int maxPending;
+  private final Deque<CompletableFuture<Write>> pending = new ArrayDeque<>();
+
+  public ParallelZipWriter(Path path, int level) throws IOException {
+    this(path, level, ForkJoinPool.commonPool());
+  }
+
+  public ParallelZipWriter(Path path, int level, ForkJoinPool pool) throws IOException {
+    this.writer = new RawZipWriter(path, level);
+    this.level = level;
+    this.pool = pool;
+    // Enough to keep every thread busy, without holding too much compressed data in memory.
+    this.maxPending = pool.getParallelism() * 4;
+  }
+
+  public void putDirectory(String name) throws IOException {
+    enqueue(CompletableFuture.completedFuture(zip -> zip.putDirectory(name)));
+  }
+
+  public void putEntry(String name, byte[] contents) throws IOException {
+    enqueue(
+        CompletableFuture.supplyAsync(
+            () -> {
+              RawZipWriter.Deflated deflated = deflate(contents);
+              return zip -> zip.putDeflated(name, deflated);
+            },
+            pool));
+  }
+
+  /**
+   * Adds an entry of {@code size} bytes, which are read from the stream returned by {@code
+   * contents}. The stream may be opened on another thread.
+   */
+  public void putEntry(String name, long size, Contents contents) throws IOException {
+    if (size < 0 || size > MAX_BUFFERED_SIZE) {
+      enqueue(
+          CompletableFuture.completedFuture(
+              zip -> {
+                try (InputStream is = contents.open()) {
+                  zip.putEntry(name, is);
+                }
+              }));
+      return;
+    }
+
+    enqueue(
+        CompletableFuture.supplyAsync(
+            () -> {
+              byte[] bytes;
+              try (InputStream is = contents.open()) {
+                bytes = is.readAllBytes();
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+              RawZipWriter.Deflated deflated = deflate(bytes);
+              return zip -> zip.putDeflated(name, deflated);
+            },
+            pool));
+  }
+
+  /** Copies {@code entry} from {@code source} as {@code name}, without decompressing it. */
+  public void copyEntry(String name, RawZipFile source, RawZipFile.Entry entry) throws IOException {
+    enqueue(CompletableFuture.completedFuture(zip -> zip.copyEntry(name, source, entry)));
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      while (!pending.isEmpty()) {
+        writeNext();
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  private RawZipWriter.Deflated deflate(byte[] contents) {
+    try {
+      return RawZipWriter.deflate(contents, level);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void enqueue(CompletableFuture<Write> write) throws IOException {
+    pending.add(write);
+
+    // Write whatever is ready, but only wait if too much work is outstanding.
+    while (!pending.isEmpty() && (pending.peek().isDone() || pending.size() > maxPending)) {
+      writeNext();
+    }
+  }
+
+  private void writeNext() throws IOException {
+    Write write;
+    try {
+      write = pending.remove().join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) e.getCause()).getCause();
+      }
+      throw e;
+    }
+    write.to(writer);
+  }
+
+  /** Supplies the contents of an entry. */
+  public interface Contents {
+    InputStream open() throws IOException;
+  }
+
+  private interface Write {
+    void to(RawZipWriter zip) throws IOException;
+  }
+}
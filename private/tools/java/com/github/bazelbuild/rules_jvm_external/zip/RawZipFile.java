@@ -0,0 +1,364 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.zip;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Gives access to the still-compressed contents of the entries in a zip file, so that they can be
+ * copied to another zip without being inflated and deflated again. Only the central directory is
+ * read when the file is opened, so listing the entries of a large file is cheap.
+ */
+public class RawZipFile implements Closeable {
+
+  static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  static final int END_SIGNATURE = 0x06054b50;
+  static final int ZIP64_END_SIGNATURE = 0x06064b50;
+  static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+  static final int ZIP64_EXTRA_ID = 0x0001;
+  static final int LOCAL_HEADER_LENGTH = 30;
+  static final int CENTRAL_HEADER_LENGTH = 46;
+  static final int END_LENGTH = 22;
+  static final int ZIP64_END_LENGTH = 56;
+  static final int ZIP64_LOCATOR_LENGTH = 20;
+  static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+  static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+  private static final int ENCRYPTED_FLAG = 1;
+  private static final int BUFFER_SIZE = 8192;
+
+  private final Path path;
+  private final FileChannel channel;
+  private final Map<String, Entry> entries;
+
+  public RawZipFile(Path path) throws IOException {
+    this.path = path;
+    this.channel = FileChannel.open(path, READ);
+    try {
+      this.entries = Collections.unmodifiableMap(readCentralDirectory());
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /** All the entries in the file, in the order they appear in the central directory. */
+  public List<Entry> entries() {
+    return new ArrayList<>(entries.values());
+  }
+
+  public Entry getEntry(String name) {
+    return entries.get(name);
+  }
+
+  /** Writes the compressed bytes of {@code entry} to {@code target}. */
+  public void transferRawBytes(Entry entry, WritableByteChannel target) throws IOException {
+    if ((entry.flags & ENCRYPTED_FLAG) != 0) {
+      throw new ZipException("Unable to copy encrypted entry " + entry.name + " from " + path);
+    }
+
+    long position = dataOffset(entry);
+    long remaining = entry.compressedSize;
+    while (remaining > 0) {
+      long transferred = channel.transferTo(position, remaining, target);
+      if (transferred <= 0) {
+        throw new ZipException("Unexpected end of " + path + " while reading " + entry.name);
+      }
+      position += transferred;
+      remaining -= transferred;
+    }
+  }
+
+  /** Returns the uncompressed contents of {@code entry}. */
+  public InputStream getInputStream(Entry entry) throws IOException {
+    if ((entry.flags & ENCRYPTED_FLAG) != 0) {
+      throw new ZipException("Unable to read encrypted entry " + entry.name + " from " + path);
+    }
+
+    switch (entry.method) {
+      case ZipEntry.STORED:
+        return new EntryInputStream(dataOffset(entry), entry.compressedSize, false);
+
+      case ZipEntry.DEFLATED:
+        // Like `ZipFile`, pad the input with a dummy byte, which some versions of zlib require.
+        Inflater inflater = new Inflater(true);
+        return new InflaterInputStream(
+            new EntryInputStream(dataOffset(entry), entry.compressedSize, true),
+            inflater,
+            BUFFER_SIZE) {
+          @Override
+          public void close() throws IOException {
+            super.close();
+            inflater.end();
+          }
+        };
+
+      default:
+        throw new ZipException(
+            "Unsupported compression method " + entry.method + " for " + entry.name);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private long dataOffset(Entry entry) throws IOException {
+    // The name and extra field in the local header may not be the same length as the ones in the
+    // central directory, so we need to read the local header to find where the data starts.
+    ByteBuffer header = read(entry.localHeaderOffset, LOCAL_HEADER_LENGTH);
+    if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+      throw new ZipException("Bad local header for " + entry.name + " in " + path);
+    }
+    int nameLength = Short.toUnsignedInt(header.getShort(26));
+    int extraLength = Short.toUnsignedInt(header.getShort(28));
+    return entry.localHeaderOffset + LOCAL_HEADER_LENGTH + nameLength + extraLength;
+  }
+
+  private Map<String, Entry> readCentralDirectory() throws IOException {
+    long endOffset = findEndOfCentralDirectory();
+    ByteBuffer end = read(endOffset, END_LENGTH);
+
+    long count = Short.toUnsignedInt(end.getShort(10));
+    long size = Integer.toUnsignedLong(end.getInt(12));
+    long offset = Integer.toUnsignedLong(end.getInt(16));
+    // Where the central directory would start if the archive had nothing prepended to it
+    long directoryEnd = endOffset;
+
+    if (count == ZIP64_MAGIC_COUNT || size == ZIP64_MAGIC || offset == ZIP64_MAGIC) {
+      long locatorOffset = endOffset - ZIP64_LOCATOR_LENGTH;
+      if (locatorOffset >= 0 && read(locatorOffset, 4).getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+        long zip64EndOffset = read(locatorOffset + 8, 8).getLong(0);
+        ByteBuffer zip64End = read(zip64EndOffset, ZIP64_END_LENGTH);
+        if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) {
+          throw new ZipException("Bad zip64 end of central directory in " + path);
+        }
+        count = zip64End.getLong(32);
+        size = zip64End.getLong(40);
+        offset = zip64End.getLong(48);
+        directoryEnd = zip64EndOffset;
+      }
+    }
+
+    // Allow for anything that has been prepended to the zip, such as a launcher script.
+    long base = directoryEnd - size - offset;
+    if (base < 0) {
+      throw new ZipException("Bad central directory offset in " + path);
+    }
+
+    ByteBuffer directory = read(base + offset, size);
+    Map<String, Entry> toReturn = new LinkedHashMap<>();
+    for (long i = 0; i < count; i++) {
+      Entry entry = readEntry(directory, base);
+      toReturn.putIfAbsent(entry.name, entry);
+    }
+    return toReturn;
+  }
+
+  private Entry readEntry(ByteBuffer directory, long base) throws ZipException {
+    int start = directory.position();
+    if (directory.remaining() < CENTRAL_HEADER_LENGTH
+        || directory.getInt(start) != CENTRAL_HEADER_SIGNATURE) {
+      throw new ZipException("Bad central directory entry in " + path);
+    }
+
+    int flags = Short.toUnsignedInt(directory.getShort(start + 8));
+    int method = Short.toUnsignedInt(directory.getShort(start + 10));
+    long crc = Integer.toUnsignedLong(directory.getInt(start + 16));
+    long compressedSize = Integer.toUnsignedLong(directory.getInt(start + 20));
+    long size = Integer.toUnsignedLong(directory.getInt(start + 24));
+    int nameLength = Short.toUnsignedInt(directory.getShort(start + 28));
+    int extraLength = Short.toUnsignedInt(directory.getShort(start + 30));
+    int commentLength = Short.toUnsignedInt(directory.getShort(start + 32));
+    long localHeaderOffset = Integer.toUnsignedLong(directory.getInt(start + 42));
+
+    byte[] nameBytes = new byte[nameLength];
+    directory.position(start + CENTRAL_HEADER_LENGTH);
+    directory.get(nameBytes);
+    String name = new String(nameBytes, UTF_8);
+
+    // Values too large for the regular header are stored in the zip64 extra field, in a fixed
+    // order, but only if the regular field holds the magic value.
+    int extraEnd = directory.position() + extraLength;
+    while (directory.position() + 4 <= extraEnd) {
+      int id = Short.toUnsignedInt(directory.getShort());
+      int length = Short.toUnsignedInt(directory.getShort());
+      int next = directory.position() + length;
+      if (id == ZIP64_EXTRA_ID) {
+        if (size == ZIP64_MAGIC && directory.position() + 8 <= next) {
+          size = directory.getLong();
+        }
+        if (compressedSize == ZIP64_MAGIC && directory.position() + 8 <= next) {
+          compressedSize = directory.getLong();
+        }
+        if (localHeaderOffset == ZIP64_MAGIC && directory.position() + 8 <= next) {
+          localHeaderOffset = directory.getLong();
+        }
+      }
+      directory.position(next);
+    }
+
+    directory.position(extraEnd + commentLength);
+
+    return new Entry(name, flags, method, crc, compressedSize, size, base + localHeaderOffset);
+  }
+
+  private long findEndOfCentralDirectory() throws IOException {
+    long fileSize = channel.size();
+    if (fileSize < END_LENGTH) {
+      throw new ZipException("Too short to be a zip file: " + path);
+    }
+
+    // The end record is followed by a comment of up to 64k, so search backwards for it.
+    long searchStart = Math.max(0, fileSize - END_LENGTH - 0xFFFF);
+    ByteBuffer tail = read(searchStart, fileSize - searchStart);
+    for (int i = tail.limit() - END_LENGTH; i >= 0; i--) {
+      if (tail.getInt(i) == END_SIGNATURE) {
+        return searchStart + i;
+      }
+    }
+    throw new ZipException("Unable to find the end of the central directory in " + path);
+  }
+
+  private ByteBuffer read(long position, long length) throws IOException {
+    if (length > Integer.MAX_VALUE) {
+      throw new ZipException("Central directory is too large to read in " + path);
+    }
+    ByteBuffer buffer = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new ZipException("Unexpected end of " + path);
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /** Reads a range of the underlying file without changing the channel's position. */
+  private class EntryInputStream extends InputStream {
+    private long position;
+    private long remaining;
+    private boolean dummyByte;
+
+    private EntryInputStream(long position, long length, boolean dummyByte) {
+      this.position = position;
+      this.remaining = length;
+      this.dummyByte = dummyByte;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      return read(single, 0, 1) == -1 ? -1 : Byte.toUnsignedInt(single[0]);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+
+      if (remaining <= 0) {
+        if (dummyByte) {
+          dummyByte = false;
+          b[off] = 0;
+          return 1;
+        }
+        return -1;
+      }
+
+      ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, remaining));
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new ZipException("Unexpected end of " + path);
+      }
+      position += read;
+      remaining -= read;
+      return read;
+    }
+  }
+
+  public static class Entry {
+    private final String name;
+    private final int flags;
+    private final int method;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final long localHeaderOffset;
+
+    private Entry(
+        String name,
+        int flags,
+        int method,
+        long crc,
+        long compressedSize,
+        long size,
+        long localHeaderOffset) {
+      this.name = name;
+      this.flags = flags;
+      this.method = method;
+      this.crc = crc;
+      this.compressedSize = compressedSize;
+      this.size = size;
+      this.localHeaderOffset = localHeaderOffset;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public boolean isDirectory() {
+      return name.endsWith("/");
+    }
+
+    public int getMethod() {
+      return method;
+    }
+
+    public long getCrc() {
+      return crc;
+    }
+
+    public long getCompressedSize() {
+      return compressedSize;
+    }
+
+    public long getSize() {
+      return size;
+    }
+  }
+}
@@ -0,0 +1,389 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.zip;
+
+import static com.github.bazelbuild.rules_jvm_external.zip.RawZipFile.CENTRAL_HEADER_LENGTH;
+import static com.github.bazelbuild.rules_jvm_external.zip.RawZipFile.CENTRAL_HEADER_SIGNATURE;
+import static com.github.bazelbuild.rules_jvm_external.zip.RawZipFile.END_LENGTH;
+import static com.github.bazelbuild.rules_jvm_external.zip.RawZipFile.END_SIGNATURE;
+import static com.github.bazelbuild.rules_jvm_external.zip.RawZipFile.LOCAL_HEADER_LENGTH;
+import static com.github.bazelbuild.rules_jvm_external.zip.RawZipFile.LOCAL_HEADER_SIGNATURE;
+import static com.github.bazelbuild.rules_jvm_external.zip.RawZipFile.ZIP64_END_LENGTH;
+import static com.github.bazelbuild.rules_jvm_external.zip.RawZipFile.ZIP64_END_SIGNATURE;
+import static com.github.bazelbuild.rules_jvm_external.zip.RawZipFile.ZIP64_EXTRA_ID;
+import static com.github.bazelbuild.rules_jvm_external.zip.RawZipFile.ZIP64_LOCATOR_LENGTH;
+import static com.github.bazelbuild.rules_jvm_external.zip.RawZipFile.ZIP64_LOCATOR_SIGNATURE;
+import static com.github.bazelbuild.rules_jvm_external.zip.RawZipFile.ZIP64_MAGIC;
+import static com.github.bazelbuild.rules_jvm_external.zip.RawZipFile.ZIP64_MAGIC_COUNT;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip file whose entries have the same timestamps as {@link StableZipEntry}. Unlike a
+ * {@link java.util.zip.ZipOutputStream}, entries can be copied from a {@link RawZipFile} without
+ * being inflated and deflated again, which is much cheaper for large archives.
+ */
+public class RawZipWriter implements Closeable {
+
+  private static final int UTF8_FLAG = 0x800;
+  private static final int VERSION_STORED = 10;
+  private static final int VERSION_DEFLATED = 20;
+  private static final int VERSION_ZIP64 = 45;
+  // The magic marker that `JarOutputStream` adds to the first entry of every jar.
+  private static final int JAR_MAGIC = 0xCAFE;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final FileChannel channel;
+  private final OutputStream out;
+  private final int level;
+  private final List<CentralEntry> written = new ArrayList<>();
+  private final Set<String> names = new HashSet<>();
+
+  /**
+   * @param level the compression level used for entries whose contents are provided by the caller,
+   *     as understood by {@link Deflater}.
+   */
+  public RawZipWriter(Path path, int level) throws IOException {
+    this.channel = FileChannel.open(path, CREATE, WRITE, TRUNCATE_EXISTING);
+    this.out = Channels.newOutputStream(channel);
+    this.level = level;
+  }
+
+  public void putDirectory(String name) throws IOException {
+    if (!name.endsWith("/")) {
+      name = name + "/";
+    }
+    CentralEntry entry = startEntry(name, ZipEntry.STORED);
+    entry.crc = 0;
+    entry.compressedSize = 0;
+    entry.size = 0;
+    writeLocalHeader(entry);
+  }
+
+  public void putEntry(String name, byte[] contents) throws IOException {
+    putDeflated(name, deflate(contents, level));
+  }
+
+  /** Adds an entry which has already been compressed by {@link #deflate(byte[], int)}. */
+  void putDeflated(String name, Deflated deflated) throws IOException {
+    CentralEntry entry = startEntry(name, ZipEntry.DEFLATED);
+    entry.crc = deflated.crc;
+    entry.compressedSize = deflated.compressed.size();
+    entry.size = deflated.size;
+    writeLocalHeader(entry);
+    deflated.compressed.writeTo(out);
+  }
+
+  /** Compresses {@code contents}. This is safe to call from any thread. */
+  static Deflated deflate(byte[] contents, int level) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(contents);
+
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    Deflater deflater = new Deflater(level, true);
+    try (DeflaterOutputStream dos = new DeflaterOutputStream(compressed, deflater)) {
+      dos.write(contents);
+    } finally {
+      deflater.end();
+    }
+
+    return new Deflated(crc.getValue(), contents.length, compressed);
+  }
+
+  /**
+   * Adds an entry whose contents are read from {@code contents}. The local header is rewritten once
+   * the contents have been compressed, so no data descriptor is needed.
+   */
+  public void putEntry(String name, InputStream contents) throws IOException {
+    CentralEntry entry = startEntry(name, ZipEntry.DEFLATED);
+    // Assume that the entry may be large until we know otherwise.
+    entry.forceZip64 = true;
+    long headerOffset = entry.localHeaderOffset;
+    writeLocalHeader(entry);
+    long dataOffset = channel.position();
+
+    CRC32 crc = new CRC32();
+    long size = 0;
+    Deflater deflater = new Deflater(level, true);
+    try {
+      // Not closed, since that would close the output too
+      DeflaterOutputStream dos = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int read;
+      while ((read = contents.read(buffer)) != -1) {
+        crc.update(buffer, 0, read);
+        dos.write(buffer, 0, read);
+        size += read;
+      }
+      dos.finish();
+      dos.flush();
+    } finally {
+      deflater.end();
+    }
+
+    entry.crc = crc.getValue();
+    entry.size = size;
+    entry.compressedSize = channel.position() - dataOffset;
+    rewriteLocalHeader(entry, headerOffset);
+  }
+
+  /** Copies {@code entry} from {@code source} as {@code name}, without decompressing it. */
+  public void copyEntry(String name, RawZipFile source, RawZipFile.Entry entry) throws IOException {
+    CentralEntry copied = startEntry(name, entry.getMethod());
+    copied.crc = entry.getCrc();
+    copied.compressedSize = entry.getCompressedSize();
+    copied.size = entry.getSize();
+    writeLocalHeader(copied);
+    source.transferRawBytes(entry, channel);
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      long directoryOffset = channel.position();
+      for (CentralEntry entry : written) {
+        writeCentralHeader(entry);
+      }
+      long directorySize = channel.position() - directoryOffset;
+      writeEnd(directoryOffset, directorySize);
+    } finally {
+      channel.close();
+    }
+  }
+
+  private CentralEntry startEntry(String name, int method) throws IOException {
+    if (!names.add(name)) {
+      throw new ZipException("duplicate entry: " + name);
+    }
+    CentralEntry entry = new CentralEntry(name, method, channel.position());
+    entry.isFirst = written.isEmpty();
+    written.add(entry);
+    return entry;
+  }
+
+  private void writeLocalHeader(CentralEntry entry) throws IOException {
+    out.write(localHeader(entry).array());
+  }
+
+  private void rewriteLocalHeader(CentralEntry entry, long offset) throws IOException {
+    // Positional writes leave the channel's position where it was.
+    ByteBuffer header = localHeader(entry);
+    while (header.hasRemaining()) {
+      channel.write(header, offset + header.position());
+    }
+  }
+
+  private ByteBuffer localHeader(CentralEntry entry) {
+    byte[] name = entry.name.getBytes(UTF_8);
+    boolean zip64 = entry.needsZip64Sizes();
+    int extraLength = (entry.isFirst ? 4 : 0) + (zip64 ? 20 : 0);
+
+    ByteBuffer header =
+        ByteBuffer.allocate(LOCAL_HEADER_LENGTH + name.length + extraLength)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(LOCAL_HEADER_SIGNATURE);
+    header.putShort((short) entry.version());
+    header.putShort((short) UTF8_FLAG);
+    header.putShort((short) entry.method);
+    header.putShort((short) entry.dosTime);
+    header.putShort((short) entry.dosDate);
+    header.putInt((int) entry.crc);
+    header.putInt((int) (zip64 ? ZIP64_MAGIC : entry.compressedSize));
+    header.putInt((int) (zip64 ? ZIP64_MAGIC : entry.size));
+    header.putShort((short) name.length);
+    header.putShort((short) extraLength);
+    header.put(name);
+    if (entry.isFirst) {
+      header.putShort((short) JAR_MAGIC);
+      header.putShort((short) 0);
+    }
+    if (zip64) {
+      header.putShort((short) ZIP64_EXTRA_ID);
+      header.putShort((short) 16);
+      header.putLong(entry.size);
+      header.putLong(entry.compressedSize);
+    }
+    header.flip();
+    return header;
+  }
+
+  private void writeCentralHeader(CentralEntry entry) throws IOException {
+    byte[] name = entry.name.getBytes(UTF_8);
+
+    boolean sizeTooLarge = entry.size >= ZIP64_MAGIC;
+    boolean compressedSizeTooLarge = entry.compressedSize >= ZIP64_MAGIC;
+    boolean offsetTooLarge = entry.localHeaderOffset >= ZIP64_MAGIC;
+    int zip64Length =
+        (sizeTooLarge ? 8 : 0) + (compressedSizeTooLarge ? 8 : 0) + (offsetTooLarge ? 8 : 0);
+    int extraLength = (entry.isFirst ? 4 : 0) + (zip64Length > 0 ? 4 + zip64Length : 0);
+
+    ByteBuffer header =
+        ByteBuffer.allocate(CENTRAL_HEADER_LENGTH + name.length + extraLength)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(CENTRAL_HEADER_SIGNATURE);
+    header.putShort((short) (zip64Length > 0 ? VERSION_ZIP64 : entry.version()));
+    header.putShort((short) (zip64Length > 0 ? VERSION_ZIP64 : entry.version()));
+    header.putShort((short) UTF8_FLAG);
+    header.putShort((short) entry.method);
+    header.putShort((short) entry.dosTime);
+    header.putShort((short) entry.dosDate);
+    header.putInt((int) entry.crc);
+    header.putInt((int) (compressedSizeTooLarge ? ZIP64_MAGIC : entry.compressedSize));
+    header.putInt((int) (sizeTooLarge ? ZIP64_MAGIC : entry.size));
+    header.putShort((short) name.length);
+    header.putShort((short) extraLength);
+    header.putShort((short) 0); // Comment length
+    header.putShort((short) 0); // Disk number
+    header.putShort((short) 0); // Internal attributes
+    header.putInt(0); // External attributes
+    header.putInt((int) (offsetTooLarge ? ZIP64_MAGIC : entry.localHeaderOffset));
+    header.put(name);
+    if (entry.isFirst) {
+      header.putShort((short) JAR_MAGIC);
+      header.putShort((short) 0);
+    }
+    if (zip64Length > 0) {
+      header.putShort((short) ZIP64_EXTRA_ID);
+      header.putShort((short) zip64Length);
+      if (sizeTooLarge) {
+        header.putLong(entry.size);
+      }
+      if (compressedSizeTooLarge) {
+        header.putLong(entry.compressedSize);
+      }
+      if (offsetTooLarge) {
+        header.putLong(entry.localHeaderOffset);
+      }
+    }
+    out.write(header.array());
+  }
+
+  private void writeEnd(long directoryOffset, long directorySize) throws IOException {
+    int count = written.size();
+    boolean zip64 =
+        count >= ZIP64_MAGIC_COUNT
+            || directoryOffset >= ZIP64_MAGIC
+            || directorySize >= ZIP64_MAGIC;
+
+    if (zip64) {
+      long zip64EndOffset = directoryOffset + directorySize;
+      ByteBuffer end =
+          ByteBuffer.allocate(ZIP64_END_LENGTH + ZIP64_LOCATOR_LENGTH)
+              .order(ByteOrder.LITTLE_ENDIAN);
+      end.putInt(ZIP64_END_SIGNATURE);
+      end.putLong(ZIP64_END_LENGTH - 12);
+      end.putShort((short) VERSION_ZIP64);
+      end.putShort((short) VERSION_ZIP64);
+      end.putInt(0); // This disk
+      end.putInt(0); // Disk with the central directory
+      end.putLong(count);
+      end.putLong(count);
+      end.putLong(directorySize);
+      end.putLong(directoryOffset);
+
+      end.putInt(ZIP64_LOCATOR_SIGNATURE);
+      end.putInt(0); // Disk with the zip64 end record
+      end.putLong(zip64EndOffset);
+      end.putInt(1); // Total number of disks
+      out.write(end.array());
+    }
+
+    ByteBuffer end = ByteBuffer.allocate(END_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+    end.putInt(END_SIGNATURE);
+    end.putShort((short) 0); // This disk
+    end.putShort((short) 0); // Disk with the central directory
+    end.putShort((short) Math.min(count, ZIP64_MAGIC_COUNT));
+    end.putShort((short) Math.min(count, ZIP64_MAGIC_COUNT));
+    end.putInt((int) Math.min(directorySize, ZIP64_MAGIC));
+    end.putInt((int) Math.min(directoryOffset, ZIP64_MAGIC));
+    end.putShort((short) 0); // Comment length
+    out.write(end.array());
+  }
+
+  static class Deflated {
+    private final long crc;
+    private final long size;
+    private final ByteArrayOutputStream compressed;
+
+    private Deflated(long crc, long size, ByteArrayOutputStream compressed) {
+      this.crc = crc;
+      this.size = size;
+      this.compressed = compressed;
+    }
+  }
+
+  private static class CentralEntry {
+    private final String name;
+    private final int method;
+    private final long localHeaderOffset;
+    private final int dosTime;
+    private final int dosDate;
+    private long crc;
+    private long compressedSize;
+    private long size;
+    private boolean isFirst;
+    private boolean forceZip64;
+
+    private CentralEntry(String name, int method, long localHeaderOffset) {
+      this.name = name;
+      this.method = method;
+      this.localHeaderOffset = localHeaderOffset;
+
+      // Use exactly the same timestamp as a `ZipOutputStream` would write for a `StableZipEntry`
+      LocalDateTime time =
+          LocalDateTime.ofInstant(
+              Instant.ofEpochMilli(new StableZipEntry(name).getTime()), ZoneId.systemDefault());
+      this.dosTime = time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() >> 1;
+      this.dosDate =
+          (time.getYear() - 1980) << 9 | time.getMonthValue() << 5 | time.getDayOfMonth();
+    }
+
+    private boolean needsZip64Sizes() {
+      return forceZip64 || size >= ZIP64_MAGIC || compressedSize >= ZIP64_MAGIC;
+    }
+
+    private int version() {
+      if (needsZip64Sizes()) {
+        return VERSION_ZIP64;
+      }
+      return method == ZipEntry.STORED ? VERSION_STORED : VERSION_DEFLATED;
+    }
+  }
+}
@@ -13,6 +13,8 @@
 // limitations under the License.
 package com.github.bazelbuild.rules_jvm_external;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.collection.IsArrayWithSize.arrayWithSize;
 import static org.hamcrest.core.StringEndsWith.endsWith;
@@ -25,7 +27,11 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Random;
 import java.util.stream.Stream;
 import org.junit.Rule;
 import org.junit.Test;
@@ -53,6 +59,34 @@ public class HasherTest {
         equalTo("7f83b1657ff1fc53b92dc18148a1d65dfc2d4b1fa3d677284addd200126d9069"));
   }
 
+  @Test
+  public void sha256_largeFileIsMapped() throws IOException, NoSuchAlgorithmException {
+    // Big enough to be mapped rather than read through a buffer
+    byte[] contents = new byte[3 * 1024 * 1024 + 17];
+    new Random(0).nextBytes(contents);
+    File file = tmpDir.newFile("large.file");
+    Files.write(file.toPath(), contents);
+
+    String expected = Digests.toHex(MessageDigest.getInstance("SHA-256").digest(contents));
+    assertThat(Hasher.sha256(file), equalTo(expected));
+  }
+
+  @Test
+  public void digests_largeFileIsHashedInWindows() throws IOException, NoSuchAlgorithmException {
+    // Four windows of 1MB, the last of which is only partly filled
+    byte[] contents = new byte[3 * 1024 * 1024 + 17];
+    new Random(0).nextBytes(contents);
+    File file = tmpDir.newFile("large.file");
+    Files.write(file.toPath(), contents);
+
+    MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+    MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+    Digests.digestAll(file.toPath(), 1024 * 1024, sha256, sha1);
+
+    assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(contents), sha256.digest());
+    assertArrayEquals(MessageDigest.getInstance("SHA-1").digest(contents), sha1.digest());
+  }
+
   @Test
   public void sha256_multipleFiles() throws IOException, FileNotFoundException {
     File file1 = writeFile("test-1.file", "Hello World!");
@@ -79,6 +113,71 @@ public class HasherTest {
         "test-3.file");
   }
 
+  @Test
+  public void hashCache_reusesHashOfUnchangedFile() throws Exception {
+    File file = writeFile("test.file", "Hello World!");
+    File cacheDir = tmpDir.newFolder("cache");
+
+    HashCache cache = HashCache.open(cacheDir.toPath());
+    assertThat(
+        cache.sha256(file.toPath(), false),
+        equalTo("7f83b1657ff1fc53b92dc18148a1d65dfc2d4b1fa3d677284addd200126d9069"));
+    cache.save();
+
+    // Corrupt the cached hash. As long as the file is unchanged, the cached value wins.
+    Path cacheFile = cacheDir.toPath().resolve(HashCache.CACHE_FILE_NAME);
+    String contents = new String(Files.readAllBytes(cacheFile), UTF_8);
+    Files.write(cacheFile, contents.replace("7f83b165", "00000000").getBytes(UTF_8));
+
+    cache = HashCache.open(cacheDir.toPath());
+    assertThat(
+        cache.sha256(file.toPath(), false),
+        equalTo("00000000" + "7ff1fc53b92dc18148a1d65dfc2d4b1fa3d677284addd200126d9069"));
+
+    // But in verification mode, the file is always hashed
+    assertThat(
+        cache.sha256(file.toPath(), true),
+        equalTo("7f83b1657ff1fc53b92dc18148a1d65dfc2d4b1fa3d677284addd200126d9069"));
+  }
+
+  @Test
+  public void hashCache_rehashesModifiedFile() throws Exception {
+    File file = writeFile("test.file", "Hello World!");
+    File cacheDir = tmpDir.newFolder("cache");
+
+    HashCache cache = HashCache.open(cacheDir.toPath());
+    cache.sha256(file.toPath(), false);
+    cache.save();
+
+    try (PrintStream out = new PrintStream(new FileOutputStream(file))) {
+      out.print("Hello!");
+    }
+
+    cache = HashCache.open(cacheDir.toPath());
+    assertThat(
+        cache.sha256(file.toPath(), false),
+        equalTo("334d016f755cd6dc58c53a86e183882f8ec14f52fb05345887c8a5edd42c87b7"));
+  }
+
+  @Test
+  public void hashCache_mergesEntriesFromConcurrentWriters() throws Exception {
+    File file1 = writeFile("test-1.file", "Hello World!");
+    File file2 = writeFile("test-2.file", "Hello!");
+    File cacheDir = tmpDir.newFolder("cache");
+
+    HashCache first = HashCache.open(cacheDir.toPath());
+    HashCache second = HashCache.open(cacheDir.toPath());
+    first.sha256(file1.toPath(), false);
+    second.sha256(file2.toPath(), false);
+    first.save();
+    second.save();
+
+    String contents =
+        new String(Files.readAllBytes(cacheDir.toPath().resolve(HashCache.CACHE_FILE_NAME)), UTF_8);
+    assertThat(contents, containsString(file1.toPath().toRealPath().toString()));
+    assertThat(contents, containsString(file2.toPath().toRealPath().toString()));
+  }
+
   @Test
   public void argsToStream_throws_exception() throws IOException {
     String[] files = new String[] {};
@@ -0,0 +1,147 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.jar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.github.bazelbuild.rules_jvm_external.Digests;
+import com.github.bazelbuild.rules_jvm_external.HashCache;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HashAndIndexJarsTest {
+  @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void shouldHashAndIndexEachJar() throws IOException {
+    List<String> jars = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      jars.add(
+          createJar(
+                  "jar" + i + ".jar",
+                  "com/example/p" + i + "/Foo.class",
+                  "META-INF/services/com.example.Service")
+              .toString());
+    }
+
+    JsonObject output = run(new HashAndIndexJars(null, false, 3), jars.stream());
+
+    assertEquals(jars.size(), output.size());
+    for (String jar : jars) {
+      Path path = Path.of(jar);
+      PerJarIndexResults expected = new IndexJar().index(path);
+      JsonObject actual = output.getAsJsonObject(jar);
+
+      assertEquals(Digests.sha256(path), actual.get("sha256").getAsString());
+      assertEquals(expected.getPackages(), strings(actual.getAsJsonArray("packages")));
+      assertEquals(expected.getClasses(), strings(actual.getAsJsonArray("classes")));
+      JsonObject services = actual.getAsJsonObject("serviceImplementations");
+      assertEquals(expected.getServiceImplementations().keySet(), services.keySet());
+      assertEquals(
+          expected.getServiceImplementations().get("com.example.Service"),
+          strings(services.getAsJsonArray("com.example.Service")));
+    }
+  }
+
+  @Test
+  public void shouldWriteJarsInOrder() throws IOException {
+    Path b = createJar("b.jar", "b/B.class");
+    Path a = createJar("a.jar", "a/A.class");
+
+    JsonObject output =
+        run(new HashAndIndexJars(null, false, 2), Stream.of(b.toString(), a.toString()));
+
+    List<String> keys = new ArrayList<>();
+    for (Map.Entry<String, JsonElement> entry : output.entrySet()) {
+      keys.add(entry.getKey());
+    }
+    assertEquals(List.of(a.toString(), b.toString()), keys);
+  }
+
+  @Test
+  public void shouldUseTheHashCache() throws IOException {
+    Path cacheDir = temp.newFolder("cache").toPath();
+    Path jar = createJar("cached.jar", "com/example/Foo.class");
+
+    HashCache cache = HashCache.open(cacheDir);
+    String sha256 =
+        run(new HashAndIndexJars(cache, false, 1), Stream.of(jar.toString()))
+            .getAsJsonObject(jar.toString())
+            .get("sha256")
+            .getAsString();
+    cache.save();
+
+    assertEquals(Digests.sha256(jar), sha256);
+    assertTrue(Files.exists(cacheDir.resolve(".rje-sha256-cache")));
+  }
+
+  @Test
+  public void shouldRejectMissingFiles() throws IOException {
+    Path missing = temp.getRoot().toPath().resolve("missing.jar");
+
+    try {
+      run(new HashAndIndexJars(null, false, 1), Stream.of(missing.toString()));
+      fail("Expected missing files to be rejected");
+    } catch (IllegalArgumentException expected) {
+      // Expected
+    }
+  }
+
+  private static JsonObject run(HashAndIndexJars tool, Stream<String> jars) throws IOException {
+    StringWriter out = new StringWriter();
+    tool.hashAndIndex(jars, out);
+    return new Gson().fromJson(out.toString(), JsonObject.class);
+  }
+
+  private static SortedSet<String> strings(JsonArray array) {
+    SortedSet<String> strings = new TreeSet<>();
+    array.forEach(element -> strings.add(element.getAsString()));
+    return strings;
+  }
+
+  private Path createJar(String name, String... entries) throws IOException {
+    Path jar = temp.newFile(name).toPath();
+    try (OutputStream os = Files.newOutputStream(jar);
+        ZipOutputStream zos = new ZipOutputStream(os)) {
+      for (String entry : entries) {
+        zos.putNextEntry(new ZipEntry(entry));
+        zos.write(("com.example.Impl\n" + name).getBytes(StandardCharsets.UTF_8));
+        zos.closeEntry();
+      }
+    }
+    return jar;
+  }
+}
@@ -0,0 +1,156 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.jar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IndexCacheTest {
+  private static final String SHA256 =
+      "c2c97a708be197aae5fee64dcc8b5e8a09c76c79a44c0e8e5b48b235084ec395";
+
+  @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void shouldReuseResultsForJarsWithTheSameSha256() throws IOException {
+    Path cacheDir = temp.newFolder("cache").toPath();
+    Path jar = createJar("first.jar", "com/example/Foo.class");
+
+    PerJarIndexResults first = new IndexCache(cacheDir).index(jar, SHA256);
+
+    // A different jar, but claiming the same sha256, so the earlier results should be returned.
+    Path other = createJar("other.jar", "org/example/Bar.class");
+    IndexCache cache = new IndexCache(cacheDir);
+    PerJarIndexResults second = cache.index(other, SHA256);
+
+    assertEquals(first.getPackages(), second.getPackages());
+    assertEquals(first.getClasses(), second.getClasses());
+    assertEquals(first.getServiceImplementations(), second.getServiceImplementations());
+    assertEquals(1, cache.getHits());
+    assertEquals(0, cache.getMisses());
+  }
+
+  @Test
+  public void shouldIndexJarsWithoutAUsableSha256() throws IOException {
+    Path cacheDir = temp.newFolder("cache").toPath();
+    Path jar = createJar("first.jar", "com/example/Foo.class");
+    IndexCache cache = new IndexCache(cacheDir);
+
+    cache.index(jar, null);
+    cache.index(jar, "../../not-a-sha");
+
+    assertEquals(0, cache.getHits());
+    assertEquals(2, cache.getMisses());
+  }
+
+  @Test
+  public void shouldIndexAgainIfTheCachedResultsCannotBeRead() throws IOException {
+    Path cacheDir = temp.newFolder("cache").toPath();
+    Path jar = createJar("first.jar", "com/example/Foo.class");
+    new IndexCache(cacheDir).index(jar, SHA256);
+
+    try (Stream<Path> paths = Files.walk(cacheDir)) {
+      paths
+          .filter(Files::isRegularFile)
+          .forEach(
+              path -> {
+                try {
+                  Files.writeString(path, "{ not json");
+                } catch (IOException e) {
+                  throw new RuntimeException(e);
+                }
+              });
+    }
+
+    IndexCache cache = new IndexCache(cacheDir);
+    PerJarIndexResults results = cache.index(jar, SHA256);
+
+    assertEquals("com.example", results.getPackages().first());
+    assertEquals(0, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void shouldPruneTheLeastRecentlyUsedEntriesOnceTooLarge() throws IOException {
+    Path cacheDir = temp.newFolder("cache").toPath();
+    Path jar = createJar("first.jar", "com/example/Foo.class");
+    String older = SHA256.replace('c', 'a');
+    String newer = SHA256.replace('c', 'b');
+    new IndexCache(cacheDir).index(jar, older);
+    new IndexCache(cacheDir).index(jar, newer);
+    Path olderEntry = findEntry(cacheDir, older);
+    Path newerEntry = findEntry(cacheDir, newer);
+    Files.setLastModifiedTime(olderEntry, FileTime.from(Instant.now().minus(Duration.ofHours(2))));
+    Files.setLastModifiedTime(newerEntry, FileTime.from(Instant.now().minus(Duration.ofHours(1))));
+
+    // Using the older entry makes it the most recently used one.
+    IndexCache cache = new IndexCache(cacheDir, Files.size(olderEntry), Duration.ofDays(1));
+    cache.index(jar, older);
+    cache.prune();
+
+    assertTrue(Files.exists(olderEntry));
+    assertFalse(Files.exists(newerEntry));
+  }
+
+  @Test
+  public void shouldPruneEntriesWhichHaveNotBeenUsedForAWhile() throws IOException {
+    Path cacheDir = temp.newFolder("cache").toPath();
+    Path jar = createJar("first.jar", "com/example/Foo.class");
+    IndexCache cache = new IndexCache(cacheDir, Long.MAX_VALUE, Duration.ofDays(1));
+    cache.index(jar, SHA256);
+    Path entry = findEntry(cacheDir, SHA256);
+    Files.setLastModifiedTime(entry, FileTime.from(Instant.now().minus(Duration.ofDays(2))));
+
+    cache.prune();
+
+    assertFalse(Files.exists(entry));
+  }
+
+  private Path findEntry(Path cacheDir, String sha256) throws IOException {
+    try (Stream<Path> paths = Files.walk(cacheDir)) {
+      return paths
+          .filter(path -> path.getFileName().toString().equals(sha256 + ".json"))
+          .findFirst()
+          .orElseThrow();
+    }
+  }
+
+  private Path createJar(String name, String entry) throws IOException {
+    Path jar = temp.newFile(name).toPath();
+    try (OutputStream os = Files.newOutputStream(jar);
+        ZipOutputStream zos = new ZipOutputStream(os)) {
+      zos.putNextEntry(new ZipEntry(entry));
+      zos.write("not really a class".getBytes(StandardCharsets.UTF_8));
+      zos.closeEntry();
+    }
+    return jar;
+  }
+}
@@ -21,17 +21,25 @@ import com.google.gson.Gson;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class IndexJarTest {
+  @Rule public TemporaryFolder temp = new TemporaryFolder();
+
   @Test
   public void simplePackages() throws Exception {
     doTest(
@@ -133,6 +141,29 @@ public class IndexJarTest {
         new TreeMap<>());
   }
 
+  @Test
+  public void fallsBackToStreamingWhenTheCentralDirectoryCannotBeRead() throws Exception {
+    Path jar = temp.newFile("truncated.jar").toPath();
+    try (OutputStream os = Files.newOutputStream(jar);
+        ZipOutputStream zos = new ZipOutputStream(os)) {
+      zos.putNextEntry(new ZipEntry("com/example/Foo.class"));
+      zos.closeEntry();
+      zos.putNextEntry(new ZipEntry("META-INF/services/com.example.Service"));
+      zos.write("com.example.Foo\n".getBytes(StandardCharsets.UTF_8));
+      zos.closeEntry();
+    }
+    // Chop off the end of central directory record, so only the local headers can be read.
+    byte[] bytes = Files.readAllBytes(jar);
+    Files.write(jar, Arrays.copyOf(bytes, bytes.length - 22));
+
+    PerJarIndexResults results = new IndexJar().index(jar);
+
+    assertEquals(sortedSet("com.example"), results.getPackages());
+    TreeMap<String, TreeSet<String>> expectedServices = new TreeMap<>();
+    expectedServices.put("com.example.Service", sortedSet("com.example.Foo"));
+    assertEquals(expectedServices, results.getServiceImplementations());
+  }
+
   private static class Lockfile {
     public TreeMap<String, TreeMap<String, TreeSet<String>>> services;
   }
@@ -17,10 +17,12 @@ package com.github.bazelbuild.rules_jvm_external.jar;
 import static com.github.bazelbuild.rules_jvm_external.ZipUtils.createJar;
 import static com.github.bazelbuild.rules_jvm_external.ZipUtils.readJar;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import com.github.bazelbuild.rules_jvm_external.zip.ParallelZipWriter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import java.io.ByteArrayOutputStream;
@@ -29,14 +31,20 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 import org.junit.Rule;
@@ -663,6 +671,147 @@ public class MergeJarsTest {
     assertEquals("log4j.rootLogger=ERROR,stdout", contents.get("log4j.properties"));
   }
 
+  @Test
+  public void canCopyCompressedEntriesWithoutRecompressingThem() throws IOException {
+    String compressible = String.join("", Collections.nCopies(1000, "Hello, World! "));
+
+    Path inputOne = temp.newFile("first.jar").toPath();
+    try (OutputStream os = Files.newOutputStream(inputOne);
+        ZipOutputStream zos = new ZipOutputStream(os)) {
+      // Compress poorly, so we can tell whether the entry was recompressed
+      zos.setLevel(Deflater.BEST_SPEED);
+      ZipEntry entry = new ZipEntry("com/example/A.class");
+      entry.setTime(System.currentTimeMillis());
+      zos.putNextEntry(entry);
+      zos.write(compressible.getBytes(UTF_8));
+      zos.closeEntry();
+
+      byte[] stored = "Stored, not deflated".getBytes(UTF_8);
+      CRC32 crc = new CRC32();
+      crc.update(stored);
+      entry = new ZipEntry("com/example/stored.txt");
+      entry.setMethod(ZipEntry.STORED);
+      entry.setSize(stored.length);
+      entry.setCrc(crc.getValue());
+      zos.putNextEntry(entry);
+      zos.write(stored);
+      zos.closeEntry();
+    }
+
+    Path rawJar = temp.newFile("raw.jar").toPath();
+    MergeJars.main(
+        new String[] {
+          "--output", rawJar.toAbsolutePath().toString(),
+          "--sources", inputOne.toAbsolutePath().toString(),
+          "--copy-raw"
+        });
+
+    Path recompressedJar = temp.newFile("recompressed.jar").toPath();
+    MergeJars.main(
+        new String[] {
+          "--output", recompressedJar.toAbsolutePath().toString(),
+          "--sources", inputOne.toAbsolutePath().toString()
+        });
+
+    Map<String, String> contents = readJar(rawJar);
+    assertEquals(compressible, contents.get("com/example/A.class"));
+    assertEquals("Stored, not deflated", contents.get("com/example/stored.txt"));
+    assertEquals(readJar(recompressedJar), contents);
+
+    // Timestamps are normalised just as they would be if the entries had been recompressed
+    assertEquals(readJarTimeStamps(recompressedJar), readJarTimeStamps(rawJar));
+
+    try (ZipFile source = new ZipFile(inputOne.toFile());
+        ZipFile raw = new ZipFile(rawJar.toFile())) {
+      for (String name : List.of("com/example/A.class", "com/example/stored.txt")) {
+        assertEquals(source.getEntry(name).getMethod(), raw.getEntry(name).getMethod());
+        assertEquals(
+            source.getEntry(name).getCompressedSize(), raw.getEntry(name).getCompressedSize());
+      }
+    }
+  }
+
+  @Test
+  public void shouldHonourTheRequestedCompressionLevel() throws IOException {
+    Map<String, String> entries = new LinkedHashMap<>();
+    for (int i = 0; i < 100; i++) {
+      entries.put(
+          "com/example/Class" + i + ".class",
+          String.join("", Collections.nCopies(100, "Hello, World " + i + "! ")));
+    }
+    Path input = temp.newFile("input.jar").toPath();
+    createJar(input, entries);
+
+    Path stored = temp.newFile("stored.jar").toPath();
+    MergeJars.main(
+        new String[] {
+          "--output", stored.toAbsolutePath().toString(),
+          "--sources", input.toAbsolutePath().toString(),
+          "--compression", "0"
+        });
+
+    Path compressed = temp.newFile("compressed.jar").toPath();
+    MergeJars.main(
+        new String[] {
+          "--output", compressed.toAbsolutePath().toString(),
+          "--sources", input.toAbsolutePath().toString(),
+          "--compression"
+        });
+
+    Map<String, String> storedContents = new LinkedHashMap<>(readJar(stored));
+    storedContents.remove("META-INF/MANIFEST.MF");
+    assertEquals(entries, storedContents);
+    assertEquals(readJar(stored), readJar(compressed));
+    assertTrue(Files.size(stored) > Files.size(compressed) * 5);
+  }
+
+  @Test
+  public void compressingInParallelShouldProduceTheSameJarEveryTime() throws IOException {
+    Map<String, String> entries = new LinkedHashMap<>();
+    for (int i = 0; i < 500; i++) {
+      entries.put("com/example/Class" + i + ".class", "Contents of class " + i);
+    }
+    Path input = temp.newFile("input.jar").toPath();
+    createJar(input, entries);
+
+    Path first = temp.newFile("first.jar").toPath();
+    MergeJars.main(
+        new String[] {
+          "--output", first.toAbsolutePath().toString(),
+          "--sources", input.toAbsolutePath().toString()
+        });
+
+    Path second = temp.newFile("second.jar").toPath();
+    MergeJars.main(
+        new String[] {
+          "--output", second.toAbsolutePath().toString(),
+          "--sources", input.toAbsolutePath().toString()
+        });
+
+    Path singleThreaded = temp.newFile("single.jar").toPath();
+    ForkJoinPool pool = new ForkJoinPool(1);
+    try (ParallelZipWriter writer =
+        new ParallelZipWriter(singleThreaded, Deflater.BEST_COMPRESSION, pool)) {
+      for (Map.Entry<String, String> entry : entries.entrySet()) {
+        writer.putEntry(entry.getKey(), entry.getValue().getBytes(UTF_8));
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    assertArrayEquals(Files.readAllBytes(first), Files.readAllBytes(second));
+
+    // The parallel writer's output doesn't depend on how many threads did the compressing
+    try (ZipFile parallel = new ZipFile(first.toFile());
+        ZipFile single = new ZipFile(singleThreaded.toFile())) {
+      for (String name : entries.keySet()) {
+        assertEquals(
+            single.getEntry(name).getCompressedSize(), parallel.getEntry(name).getCompressedSize());
+        assertEquals(single.getEntry(name).getCrc(), parallel.getEntry(name).getCrc());
+      }
+    }
+  }
+
   private Map<String, Long> readJarTimeStamps(Path jar) throws IOException {
     ImmutableMap.Builder<String, Long> builder = ImmutableMap.builder();
 
@@ -0,0 +1,152 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.maven;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.github.bazelbuild.rules_jvm_external.resolver.events.Event;
+import com.github.bazelbuild.rules_jvm_external.resolver.events.UploadEvent;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpUploaderTest {
+
+  private final List<Event> events = Collections.synchronizedList(new ArrayList<>());
+  private final HttpUploader uploader = new HttpUploader(4, events::add);
+  private HttpServer server;
+
+  @Before
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.start();
+  }
+
+  @After
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  @Test
+  public void shouldRetryServerErrorsAndReportHowLongTheUploadTook() throws Exception {
+    AtomicInteger requests = new AtomicInteger();
+    List<byte[]> received = Collections.synchronizedList(new ArrayList<>());
+    server.createContext(
+        "/",
+        exchange -> {
+          received.add(readBody(exchange));
+          respond(exchange, requests.incrementAndGet() == 1 ? 503 : 201, "");
+        });
+
+    byte[] body = "Hello, World!".getBytes(UTF_8);
+    put("/repo/example.jar", body);
+
+    assertEquals(2, requests.get());
+    assertArrayEquals(body, received.get(1));
+    assertEquals(1, events.size());
+    UploadEvent event = (UploadEvent) events.get(0);
+    assertEquals(uri("/repo/example.jar").toString(), event.getTarget());
+    assertEquals(body.length, event.getSize());
+    assertEquals(201, event.getStatusCode());
+    assertEquals(2, event.getAttempts());
+  }
+
+  @Test
+  public void shouldFailWithoutRetryingClientErrors() throws Exception {
+    AtomicInteger requests = new AtomicInteger();
+    server.createContext(
+        "/",
+        exchange -> {
+          requests.incrementAndGet();
+          readBody(exchange);
+          respond(exchange, 400, "Version already exists");
+        });
+
+    try {
+      put("/repo/example.jar", new byte[] {1, 2, 3});
+      fail("Upload should have failed");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("(400)"));
+      assertTrue(e.getCause().getMessage().contains("Version already exists"));
+    }
+    assertEquals(1, requests.get());
+  }
+
+  @Test
+  public void shouldReuseConnectionsBetweenUploads() throws Exception {
+    Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<>());
+    server.createContext(
+        "/",
+        exchange -> {
+          clientPorts.add(exchange.getRemoteAddress().getPort());
+          readBody(exchange);
+          respond(exchange, 201, "");
+        });
+
+    for (int i = 0; i < 5; i++) {
+      put("/repo/example.jar." + i, new byte[] {(byte) i});
+    }
+
+    assertEquals(1, clientPorts.size());
+    assertEquals(5, events.size());
+  }
+
+  private void put(String path, byte[] body) throws Exception {
+    uploader
+        .put(uri(path), Map.of(), HttpRequest.BodyPublishers.ofByteArray(body))
+        .get(30, TimeUnit.SECONDS);
+  }
+
+  private URI uri(String path) {
+    return URI.create("http://localhost:" + server.getAddress().getPort() + path);
+  }
+
+  private static byte[] readBody(HttpExchange exchange) throws IOException {
+    try (InputStream in = exchange.getRequestBody()) {
+      return in.readAllBytes();
+    }
+  }
+
+  private static void respond(HttpExchange exchange, int code, String body) throws IOException {
+    byte[] bytes = body.getBytes(UTF_8);
+    // A length of zero means the body is chunked. Responses declared to have no body at all (-1)
+    // make the server close the connection, which would defeat the point of some tests.
+    exchange.sendResponseHeaders(code, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+}
@@ -1,16 +1,23 @@
 package com.github.bazelbuild.rules_jvm_external.maven;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import com.github.bazelbuild.rules_jvm_external.Digests;
 import com.github.bazelbuild.rules_jvm_external.maven.MavenSigning.SigningMetadata;
 import com.sun.net.httpserver.HttpServer;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import org.junit.Test;
@@ -69,6 +76,108 @@ public class MavenPublisherTest {
     assertTrue(Files.exists(repoRoot.resolve("example-bom-1.0.0.pom.sha1")));
   }
 
+  @Test
+  public void testPublishLocalChecksumsMatchTheArtifact() throws Exception {
+    File pom = File.createTempFile("pom", ".xml");
+    File jar = File.createTempFile("example-project", ".jar");
+    // Big enough to be read a window at a time
+    byte[] contents = new byte[3 * 1024 * 1024 + 17];
+    new Random(42).nextBytes(contents);
+    Files.write(jar.toPath(), contents);
+    final Path root = Paths.get(System.getenv("TEST_TMPDIR"));
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    MavenPublisher.run(
+        "com.example:example-checksums:1.0.0",
+        pom.getAbsolutePath(),
+        jar.getAbsolutePath(),
+        false,
+        null,
+        root.toUri().toString(),
+        null,
+        SigningMetadata.noSigner(),
+        executor);
+    executor.shutdown();
+
+    Path published =
+        root.resolve("com/example/example-checksums/1.0.0/example-checksums-1.0.0.jar");
+    assertEquals(contents.length, Files.size(published));
+    assertChecksum(contents, "MD5", published, ".md5");
+    assertChecksum(contents, "SHA-1", published, ".sha1");
+    assertChecksum(contents, "SHA-256", published, ".sha256");
+    assertChecksum(contents, "SHA-512", published, ".sha512");
+  }
+
+  @Test
+  public void testPublishBatchLocal() throws Exception {
+    Path root = Files.createTempDirectory(Paths.get(System.getenv("TEST_TMPDIR")), "batch");
+    File pom = File.createTempFile("pom", ".xml");
+    File jar = File.createTempFile("example-project", ".jar");
+    File sources = File.createTempFile("example-project-sources", ".jar");
+
+    Path manifest = root.resolve("manifest.txt");
+    Files.write(
+        manifest,
+        List.of(
+            String.join("\t", "com.example:example:1.0.0", pom.getPath(), jar.getPath(), "true"),
+            "",
+            String.join(
+                "\t",
+                "com.example:example:1.1.0",
+                pom.getPath(),
+                jar.getPath(),
+                "false",
+                "sources=" + sources.getPath()),
+            String.join("\t", "com.example:example-bom:1.0.0", pom.getPath(), "", "false")),
+        UTF_8);
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    MavenPublisher.run(
+        manifest, root.toUri().toString(), null, SigningMetadata.noSigner(), executor);
+    executor.shutdown();
+
+    Path example = root.resolve("com/example/example");
+    assertTrue(Files.exists(example.resolve("1.0.0/example-1.0.0.jar")));
+    assertTrue(Files.exists(example.resolve("1.0.0/example-1.0.0.jar.sha1")));
+    assertTrue(Files.exists(example.resolve("1.1.0/example-1.1.0.jar")));
+    assertTrue(Files.exists(example.resolve("1.1.0/example-1.1.0-sources.jar")));
+    assertTrue(Files.exists(root.resolve("com/example/example-bom/1.0.0/example-bom-1.0.0.pom")));
+
+    // Both versions share the metadata file, and neither update may lose the other
+    String metadata = Files.readString(example.resolve("maven-metadata.xml"));
+    assertTrue(metadata, metadata.contains("<version>1.0.0</version>"));
+    assertTrue(metadata, metadata.contains("<version>1.1.0</version>"));
+  }
+
+  @Test
+  public void testPublishBatchReportsFailedCoordinates() throws Exception {
+    Path root = Files.createTempDirectory(Paths.get(System.getenv("TEST_TMPDIR")), "batch");
+    File pom = File.createTempFile("pom", ".xml");
+    Path missing = root.resolve("missing.xml");
+
+    Path manifest = root.resolve("manifest.txt");
+    Files.write(
+        manifest,
+        List.of(
+            String.join("\t", "com.example:broken:1.0.0", missing.toString(), "", "false"),
+            String.join("\t", "com.example:working:1.0.0", pom.getPath(), "", "false")),
+        UTF_8);
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      MavenPublisher.run(
+          manifest, root.toUri().toString(), null, SigningMetadata.noSigner(), executor);
+      fail("Publishing should have failed");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("1 of 2"));
+      assertTrue(e.getMessage(), e.getMessage().contains("com.example:broken:1.0.0"));
+    } finally {
+      executor.shutdown();
+    }
+
+    assertTrue(Files.exists(root.resolve("com/example/working/1.0.0/working-1.0.0.pom")));
+  }
+
   @Test
   public void testPublishHttp() throws Exception {
     final Path root = Paths.get(System.getenv("TEST_TMPDIR"));
@@ -127,4 +236,11 @@ public class MavenPublisherTest {
     assertTrue(Files.exists(repoRoot.resolve("example-1.0.0.jar.md5")));
     assertTrue(Files.exists(repoRoot.resolve("example-1.0.0.jar.sha1")));
   }
+
+  private static void assertChecksum(
+      byte[] contents, String algorithm, Path published, String extension) throws Exception {
+    String expected = Digests.toHex(Digests.newDigest(algorithm).digest(contents));
+    Path checksum = published.resolveSibling(published.getFileName() + extension);
+    assertEquals(expected, new String(Files.readAllBytes(checksum), UTF_8));
+  }
 }
@@ -0,0 +1,57 @@
+// Copyright 2025 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.gradle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GradleBuildScriptGeneratorTest {
+
+  private static final FileTime LONG_AGO = FileTime.from(Instant.parse("2020-01-01T00:00:00Z"));
+
+  @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void shouldNotTouchScriptsWhichAreUnchanged() throws IOException {
+    Path script = temp.getRoot().toPath().resolve("build.gradle");
+    GradleBuildScriptGenerator.writeIfChanged(script, "plugins { id 'java' }");
+    Files.setLastModifiedTime(script, LONG_AGO);
+
+    GradleBuildScriptGenerator.writeIfChanged(script, "plugins { id 'java' }");
+
+    assertEquals(LONG_AGO, Files.getLastModifiedTime(script));
+  }
+
+  @Test
+  public void shouldRewriteScriptsWhichHaveChanged() throws IOException {
+    Path script = temp.getRoot().toPath().resolve("build.gradle");
+    GradleBuildScriptGenerator.writeIfChanged(script, "plugins { id 'java' }");
+    Files.setLastModifiedTime(script, LONG_AGO);
+
+    GradleBuildScriptGenerator.writeIfChanged(script, "plugins { id 'java-library' }");
+
+    assertEquals("plugins { id 'java-library' }", Files.readString(script));
+    assertNotEquals(LONG_AGO, Files.getLastModifiedTime(script));
+  }
+}
@@ -0,0 +1,135 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.resolver.lockfile;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import com.github.bazelbuild.rules_jvm_external.Coordinates;
+import com.github.bazelbuild.rules_jvm_external.resolver.Conflict;
+import com.github.bazelbuild.rules_jvm_external.resolver.DependencyInfo;
+import com.google.gson.GsonBuilder;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.junit.Test;
+
+public class JsonOutputTest {
+
+  private final Set<URI> repos = Set.of(URI.create("http://localhost/m2/repository/"));
+
+  @Test
+  public void shouldWriteTheSameAsGsonForAwkwardValues() throws IOException {
+    Map<String, Object> value = new LinkedHashMap<>();
+    value.put("string", "with \"quotes\", <html> & 'apostrophes' = \u00e9\n");
+    value.put("null", null);
+    value.put("true", true);
+    value.put("int", 42);
+    value.put("negative", -2147483648);
+    value.put("double", 1.5d);
+    value.put("emptyMap", new TreeMap<>());
+    value.put("emptyList", new ArrayList<>());
+    value.put("list", List.of("a", "b"));
+    Map<Object, Object> nested = new HashMap<>();
+    nested.put(1, Set.of("one"));
+    nested.put("jar", null);
+    value.put("nested", nested);
+
+    assertSameAsGson(value);
+  }
+
+  @Test
+  public void shouldWriteLockFilesTheSameAsGson() throws IOException {
+    Coordinates dep = new Coordinates("com.example:dep:1.0.0");
+    TreeMap<String, SortedSet<String>> services = new TreeMap<>();
+    services.put("com.example.Service", new TreeSet<>(Set.of("com.example.Impl")));
+
+    Set<DependencyInfo> infos =
+        Set.of(
+            new DependencyInfo(
+                new Coordinates("com.example:item:1.0.0"),
+                repos,
+                Optional.empty(),
+                Optional.of("c2c97a708be197aae5fee64dcc8b5e8a09c76c79a44c0e8e5b48b235084ec395"),
+                Set.of(dep),
+                Set.of("com.example"),
+                Set.of("com.example.Impl", "com.example.Service"),
+                services),
+            // Shares a package with the first artifact, so the index has split packages
+            new DependencyInfo(
+                new Coordinates("com.example:other:2.0.0"),
+                repos,
+                Optional.empty(),
+                Optional.of("a2c97a708be197aae5fee64dcc8b5e8a09c76c79a44c0e8e5b48b235084ec395"),
+                Set.of(),
+                Set.of("com.example", "org.example"),
+                Set.of("com.example.Other", "org.example.Thing"),
+                new TreeMap<>()),
+            new DependencyInfo(
+                dep,
+                repos,
+                Optional.empty(),
+                Optional.empty(),
+                Set.of(),
+                Set.of(),
+                Set.of(),
+                new TreeMap<>()));
+    Set<Conflict> conflicts = Set.of(new Conflict(dep, new Coordinates("com.example:dep:0.9.0")));
+
+    assertSameAsGson(new V3LockFile(repos, infos, conflicts, true).render());
+    assertSameAsGson(new DependencyIndex(infos).render());
+
+    // Streaming each section should give exactly what writing the rendered maps did before
+    Map<String, Object> header = new LinkedHashMap<>();
+    header.put("__RESOLVED_ARTIFACTS_HASH", Map.of("com.example:item", 42));
+    header.put("__AUTOGENERATED_FILE_DO_NOT_MODIFY_THIS_FILE_MANUALLY", "ZUUL");
+    for (boolean renderPackages : new boolean[] {true, false}) {
+      V3LockFile lockFile = new V3LockFile(repos, infos, conflicts, renderPackages);
+      Map<String, Object> rendered = new TreeMap<>(lockFile.render());
+      rendered.remove("files");
+      rendered.putAll(header);
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      lockFile.write(header, out);
+      assertEquals(toGson(rendered), new String(out.toByteArray(), UTF_8));
+    }
+
+    DependencyIndex index = new DependencyIndex(infos);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    index.write(out);
+    assertEquals(toGson(index.render()), new String(out.toByteArray(), UTF_8));
+  }
+
+  private void assertSameAsGson(Object value) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    JsonOutput.write(value, out);
+
+    assertEquals(toGson(value), new String(out.toByteArray(), UTF_8));
+  }
+
+  private String toGson(Object value) {
+    return new GsonBuilder().setPrettyPrinting().serializeNulls().create().toJson(value) + "\n";
+  }
+}
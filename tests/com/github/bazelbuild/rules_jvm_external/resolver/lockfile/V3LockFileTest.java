@@ -14,10 +14,13 @@
 
 package com.github.bazelbuild.rules_jvm_external.resolver.lockfile;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import com.github.bazelbuild.rules_jvm_external.Coordinates;
 import com.github.bazelbuild.rules_jvm_external.resolver.Conflict;
@@ -26,11 +29,20 @@ import com.github.bazelbuild.rules_jvm_external.resolver.cmd.AbstractMain;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import org.junit.Test;
@@ -136,6 +148,72 @@ public class V3LockFileTest {
     assertEquals(Set.of(info, dep), lockFile.getDependencyInfos());
   }
 
+  @Test
+  public void shouldRoundTripPackagesAndServices() {
+    TreeMap<String, SortedSet<String>> services = new TreeMap<>();
+    services.put("com.example.Service", new TreeSet<>(Set.of("com.example.impl.ServiceImpl")));
+
+    DependencyInfo info =
+        new DependencyInfo(
+            new Coordinates("com.example:item:1.0.0"),
+            repos,
+            Optional.empty(),
+            Optional.of("c2c97a708be197aae5fee64dcc8b5e8a09c76c79a44c0e8e5b48b235084ec395"),
+            Set.of(),
+            Set.of("com.example", "com.example.impl"),
+            Set.of(),
+            services);
+
+    V3LockFile lockFile = roundTrip(new V3LockFile(repos, Set.of(info), Set.of(), true));
+
+    assertEquals(Set.of(info), lockFile.getDependencyInfos());
+    assertTrue(lockFile.isRenderingPackages());
+  }
+
+  @Test
+  public void shouldNoteWhenPackagesWereNotRendered() {
+    V3LockFile lockFile = roundTrip(new V3LockFile(repos, Set.of(), Set.of(), false));
+
+    assertFalse(lockFile.isRenderingPackages());
+  }
+
+  @Test
+  public void shouldRoundTripArtifactsWithAnExtension() {
+    DependencyInfo info =
+        new DependencyInfo(
+            new Coordinates("com.example:item:aar:1.0.0"),
+            repos,
+            Optional.empty(),
+            Optional.of("c2c97a708be197aae5fee64dcc8b5e8a09c76c79a44c0e8e5b48b235084ec395"),
+            Set.of(),
+            Set.of(),
+            Set.of(),
+            new TreeMap<>());
+
+    V3LockFile lockFile = roundTrip(new V3LockFile(repos, Set.of(info), Set.of(), true));
+
+    assertEquals(Set.of(info), lockFile.getDependencyInfos());
+  }
+
+  @Test
+  public void shouldRoundTripAggregatingArtifacts() {
+    DependencyInfo aggregator =
+        new DependencyInfo(
+            new Coordinates("com.example:aggregator:1.0.0"),
+            repos,
+            Optional.empty(),
+            Optional.empty(),
+            Set.of(),
+            Set.of(),
+            Set.of(),
+            new TreeMap<>());
+
+    V3LockFile lockFile = roundTrip(new V3LockFile(repos, Set.of(aggregator), Set.of(), true));
+
+    assertEquals(Set.of(aggregator), lockFile.getDependencyInfos());
+    assertEquals(Set.of("com.example:aggregator"), lockFile.render().get("skipped"));
+  }
+
   @Test
   public void shouldRoundTripConflicts() {
     Set<Conflict> conflicts =
@@ -216,6 +294,108 @@ public class V3LockFileTest {
     assertEquals("3", rendered.get("version"));
   }
 
+  @Test
+  public void shouldReadSectionsInAnyOrder() {
+    String json =
+        "{\n"
+            + "  \"version\": \"3\",\n"
+            + "  \"repositories\": {\n"
+            + "    \"http://localhost/m2/repository/\": [\"com.example:item\"]\n"
+            + "  },\n"
+            + "  \"dependencies\": {\"com.example:item\": [\"com.example:dep\"]},\n"
+            + "  \"unknown\": {\"nested\": [1, 2, {\"three\": null}]},\n"
+            + "  \"artifacts\": {\n"
+            + "    \"com.example:item\": {\n"
+            + "      \"shasums\": {\"jar\": \"abc\"},\n"
+            + "      \"version\": \"1.0\"\n"
+            + "    },\n"
+            + "    \"com.example:dep\": {\"shasums\": {\"jar\": null}, \"version\": \"2.0\"}\n"
+            + "  },\n"
+            + "  \"__INPUT_ARTIFACTS_HASH\": {\"repositories\": 42}\n"
+            + "}\n";
+
+    V3LockFile lockFile = V3LockFile.create(json);
+
+    Coordinates item = new Coordinates("com.example:item:1.0");
+    Coordinates dep = new Coordinates("com.example:dep:2.0");
+    Map<Coordinates, DependencyInfo> infos = new HashMap<>();
+    lockFile.getDependencyInfos().forEach(info -> infos.put(info.getCoordinates(), info));
+
+    assertEquals(Set.of(item, dep), infos.keySet());
+    assertEquals(Set.of(dep), infos.get(item).getDependencies());
+    assertEquals(Optional.of("abc"), infos.get(item).getSha256());
+    assertEquals(Set.of(defaultRepo), infos.get(item).getRepositories());
+    assertEquals(Set.of(), infos.get(dep).getRepositories());
+    assertFalse(lockFile.isRenderingPackages());
+    assertEquals(Map.of("repositories", 42), lockFile.getInputHash());
+  }
+
+  @Test
+  public void shouldNotReadOtherVersionsOfTheLockFile() {
+    try {
+      V3LockFile.create("{\"version\": \"2\", \"artifacts\": {}}");
+      fail("Expected the lock file to be rejected");
+    } catch (IllegalArgumentException expected) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void shouldReadTheSameArtifactsFromThisRepositorysLockFile() throws IOException {
+    String lockFileContent =
+        new String(
+            getClass().getClassLoader().getResourceAsStream("maven_install.json").readAllBytes(),
+            UTF_8);
+
+    V3LockFile lockFile = V3LockFile.create(new StringReader(lockFileContent));
+
+    Map<?, ?> raw = new Gson().fromJson(lockFileContent, Map.class);
+    Map<String, Object> rendered = lockFile.render();
+    assertEquals(raw.get("artifacts"), rendered.get("artifacts"));
+    assertEquals(raw.get("dependencies"), toLists(rendered.get("dependencies")));
+    assertEquals(raw.get("packages"), toLists(rendered.get("packages")));
+    assertEquals(raw.get("repositories"), toLists(rendered.get("repositories")));
+    assertNotNull(lockFile.getInputHash());
+  }
+
+  @Test
+  public void shouldRoundTripLargeLockFilesThroughAFile() throws IOException {
+    List<Coordinates> allCoords = new ArrayList<>();
+    Set<DependencyInfo> infos = new HashSet<>();
+    for (int i = 0; i < 5000; i++) {
+      Coordinates coords =
+          new Coordinates("com.example.group" + (i % 50) + ":artifact" + i + ":1.0");
+      Set<Coordinates> deps = new HashSet<>();
+      for (int j = 1; j <= 5 && j * j <= i; j++) {
+        deps.add(allCoords.get(i - j * j));
+      }
+      allCoords.add(coords);
+      infos.add(
+          new DependencyInfo(
+              coords,
+              repos,
+              Optional.empty(),
+              Optional.of(String.format("%064x", i)),
+              deps,
+              new TreeSet<>(Set.of("com.example.pkg" + i)),
+              Set.of(),
+              new TreeMap<>()));
+    }
+    Path lockFilePath = Files.createTempFile("maven_install", ".json");
+    try {
+      try (OutputStream os = Files.newOutputStream(lockFilePath)) {
+        JsonOutput.write(new V3LockFile(repos, infos, Set.of(), true).render(), os);
+      }
+
+      V3LockFile read = V3LockFile.read(lockFilePath);
+
+      assertEquals(infos, read.getDependencyInfos());
+      read.getDependencyInfos().forEach(info -> assertEquals(repos, info.getRepositories()));
+    } finally {
+      Files.delete(lockFilePath);
+    }
+  }
+
   @Test
   @SuppressWarnings("unchecked")
   public void testCalculateArtifactHashMatchesStoredHash() throws IOException {
@@ -252,6 +432,55 @@ public class V3LockFileTest {
     }
   }
 
+  @Test
+  public void shouldHashArtifactsTheSameWayAsStarlark() {
+    Map<String, Object> a = new TreeMap<>();
+    a.put("shasums", Map.of("jar", "abc"));
+    a.put("version", "1.0");
+    Map<String, Object> b = new TreeMap<>();
+    b.put("shasums", Map.of("jar", "def"));
+    b.put("version", "2.0");
+
+    Map<String, Object> rendered = new HashMap<>();
+    rendered.put("artifacts", Map.of("com.example:a", a, "com.example:b", b));
+    // A cycle, so the hash of `a` without its dependency hashes is used when hashing `b`
+    rendered.put(
+        "dependencies",
+        Map.of(
+            "com.example:a", new TreeSet<>(Set.of("com.example:b")),
+            "com.example:b", new TreeSet<>(Set.of("com.example:a"))));
+    rendered.put(
+        "repositories",
+        Map.of(
+            "https://a.example.com/", Set.of("com.example:a", "com.example:b"),
+            "https://b.example.com/", Set.of("com.example:b")));
+
+    String aInfo =
+        "{\"standard\": {\"version\": \"1.0\"}, \"sha\": \"abc\", "
+            + "\"repository\": \"https://a.example.com/\", "
+            + "\"dependencies\": [\"com.example:b\"]";
+    String bInfo =
+        "{\"standard\": {\"version\": \"2.0\"}, \"sha\": \"def\", "
+            + "\"repository\": \"https://b.example.com/\", "
+            + "\"dependencies\": [\"com.example:a\"]";
+    int aWithoutDeps = (aInfo + "}").hashCode();
+    int bHash =
+        (bInfo + ", \"dependency_hashes\": {\"com.example:a\": " + aWithoutDeps + "}}").hashCode();
+    int aHash = (aInfo + ", \"dependency_hashes\": {\"com.example:b\": " + bHash + "}}").hashCode();
+
+    assertEquals(
+        Map.of("com.example:a", aHash, "com.example:b", bHash),
+        AbstractMain.calculateArtifactHash(rendered));
+  }
+
+  // Gson reads JSON arrays back as lists, where we render sets
+  private Object toLists(Object rendered) {
+    Map<Object, Object> converted = new TreeMap<>();
+    ((Map<?, ?>) rendered)
+        .forEach((key, value) -> converted.put(key, new ArrayList<>((Collection<?>) value)));
+    return converted;
+  }
+
   private V3LockFile roundTrip(V3LockFile lockFile) {
     Map<String, Object> rendered = lockFile.render();
     String converted =
@@ -14,19 +14,32 @@
 
 package com.github.bazelbuild.rules_jvm_external.resolver.maven;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
 import com.github.bazelbuild.rules_jvm_external.Coordinates;
 import com.github.bazelbuild.rules_jvm_external.resolver.MavenRepo;
+import com.github.bazelbuild.rules_jvm_external.resolver.PathHandler;
 import com.github.bazelbuild.rules_jvm_external.resolver.netrc.Netrc;
 import com.github.bazelbuild.rules_jvm_external.resolver.remote.DownloadResult;
 import com.github.bazelbuild.rules_jvm_external.resolver.remote.Downloader;
+import com.github.bazelbuild.rules_jvm_external.resolver.remote.UriNotFoundException;
 import com.github.bazelbuild.rules_jvm_external.resolver.ui.NullListener;
+import com.google.common.hash.Hashing;
+import com.sun.net.httpserver.HttpServer;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Test;
 
 public class DownloaderTest {
@@ -69,4 +82,110 @@ public class DownloaderTest {
 
     assertTrue(downloadResult.getPath().isEmpty());
   }
+
+  @Test
+  public void shouldHashDownloadsAndMoveThemIntoTheLocalCache() throws IOException {
+    Coordinates coords = new Coordinates("com.example:streamed:1.0");
+    Path repo = MavenRepo.create().add(coords).getPath();
+    Path localRepo = Files.createTempDirectory("local");
+
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", new PathHandler(repo));
+    server.start();
+
+    try {
+      URI remote = URI.create("http://localhost:" + server.getAddress().getPort());
+      DownloadResult downloadResult =
+          new Downloader(
+                  Netrc.fromUserHome(),
+                  localRepo,
+                  Set.of(remote),
+                  new NullListener(),
+                  true,
+                  Map.of())
+              .download(coords);
+
+      Path cached = localRepo.resolve(coords.toRepoPath());
+      assertEquals(Optional.of(cached), downloadResult.getPath());
+
+      String expected =
+          Hashing.sha256()
+              .hashBytes(Files.readAllBytes(repo.resolve(coords.toRepoPath())))
+              .toString();
+      assertEquals(Optional.of(expected), downloadResult.getSha256());
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void shouldRecordEveryRepositoryThatHasTheArtifact() throws IOException {
+    Coordinates coords = new Coordinates("com.example:mirrored:1.0");
+    Path populated = MavenRepo.create().add(coords).getPath();
+    Path empty = MavenRepo.create().getPath();
+    Path localRepo = Files.createTempDirectory("local");
+
+    List<HttpServer> servers = new ArrayList<>();
+    try {
+      Set<URI> hasArtifact = new HashSet<>();
+      Set<URI> allRepos = new HashSet<>();
+      for (Path repo : List.of(populated, empty, populated, empty, populated)) {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new PathHandler(repo));
+        server.start();
+        servers.add(server);
+
+        URI remote = URI.create("http://localhost:" + server.getAddress().getPort());
+        allRepos.add(remote);
+        if (repo == populated) {
+          hasArtifact.add(remote);
+        }
+      }
+
+      DownloadResult downloadResult =
+          new Downloader(
+                  Netrc.fromUserHome(), localRepo, allRepos, new NullListener(), false, Map.of())
+              .download(coords);
+
+      assertEquals(hasArtifact, downloadResult.getRepositories());
+      assertTrue(downloadResult.getPath().isPresent());
+    } finally {
+      servers.forEach(server -> server.stop(0));
+    }
+  }
+
+  @Test
+  public void shouldOnlyAskForMissingArtifactsOnce() throws IOException {
+    Coordinates coords = new Coordinates("com.example:no-sources:1.0");
+    Coordinates sources = coords.setClassifier("sources").setExtension("jar");
+    Path repo = MavenRepo.create().add(coords).getPath();
+    Path localRepo = Files.createTempDirectory("local");
+
+    AtomicInteger requests = new AtomicInteger();
+    PathHandler handler = new PathHandler(repo);
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext(
+        "/",
+        exchange -> {
+          if (exchange.getRequestURI().getPath().endsWith(sources.toRepoPath())) {
+            requests.incrementAndGet();
+          }
+          handler.handle(exchange);
+        });
+    server.start();
+
+    try {
+      URI remote = URI.create("http://localhost:" + server.getAddress().getPort());
+      Downloader downloader =
+          new Downloader(
+              Netrc.fromUserHome(), localRepo, Set.of(remote), new NullListener(), false, Map.of());
+
+      for (int i = 0; i < 3; i++) {
+        assertThrows(UriNotFoundException.class, () -> downloader.download(sources));
+      }
+      assertEquals(1, requests.get());
+    } finally {
+      server.stop(0);
+    }
+  }
 }
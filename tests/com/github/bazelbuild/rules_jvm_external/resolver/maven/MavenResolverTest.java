@@ -14,16 +14,28 @@
 
 package com.github.bazelbuild.rules_jvm_external.resolver.maven;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.github.bazelbuild.rules_jvm_external.Coordinates;
 import com.github.bazelbuild.rules_jvm_external.resolver.MavenRepo;
+import com.github.bazelbuild.rules_jvm_external.resolver.ResolutionRequest;
 import com.github.bazelbuild.rules_jvm_external.resolver.Resolver;
 import com.github.bazelbuild.rules_jvm_external.resolver.ResolverTestBase;
 import com.github.bazelbuild.rules_jvm_external.resolver.cmd.ResolverConfig;
+import com.github.bazelbuild.rules_jvm_external.resolver.events.CacheEvent;
 import com.github.bazelbuild.rules_jvm_external.resolver.events.EventListener;
 import com.github.bazelbuild.rules_jvm_external.resolver.netrc.Netrc;
+import com.google.common.collect.Iterables;
+import com.google.common.graph.Graph;
+import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.DependencyManagement;
+import org.apache.maven.model.Model;
 import org.eclipse.aether.transfer.ArtifactNotFoundException;
 import org.junit.Test;
 
@@ -45,6 +57,22 @@ public class MavenResolverTest extends ResolverTestBase {
     resolver.resolve(prepareRequestFor(repo.toUri(), main));
   }
 
+  @Test
+  public void shouldRespectPackagingWhenResolvingTheSameRepositoryAgain() throws IOException {
+    // The resolver daemon resolves many times in the same JVM
+    Coordinates coords = new Coordinates("com.example:packaging:1.0.3");
+    Model model = createModel(coords);
+    model.setPackaging("aar");
+    Path repo = MavenRepo.create().add(model).writePomFile(model).getPath();
+
+    // Reusing the request means the same local cache is used each time, as with a shared cache
+    ResolutionRequest request = prepareRequestFor(repo.toUri(), coords);
+    for (int i = 0; i < 2; i++) {
+      Graph<Coordinates> resolved = resolver.resolve(request).getResolution();
+      assertEquals("aar", Iterables.getOnlyElement(resolved.nodes()).getExtension());
+    }
+  }
+
   @Test
   public void shouldErrorOnMissingTopLevelDependency() {
     Coordinates missing = new Coordinates("com.example:missing:1.0.0");
@@ -59,4 +87,51 @@ public class MavenResolverTest extends ResolverTestBase {
       }
     }
   }
+
+  @Test
+  public void shouldReuseBomsReadWhileImportingThemWhenCollectingDependencies() {
+    List<CacheEvent> cacheEvents = new ArrayList<>();
+    listener.addListener(
+        event -> {
+          if (event instanceof CacheEvent) {
+            cacheEvents.add((CacheEvent) event);
+          }
+        });
+
+    Coordinates bom = new Coordinates("com.example:bom:1.0.0");
+    Coordinates dep = new Coordinates("com.example:dep:1.0.0");
+
+    Dependency managed = new Dependency();
+    managed.setGroupId(dep.getGroupId());
+    managed.setArtifactId(dep.getArtifactId());
+    managed.setVersion(dep.getVersion());
+    DependencyManagement bomManagement = new DependencyManagement();
+    bomManagement.addDependency(managed);
+    Model bomModel = createModel(bom);
+    bomModel.setPackaging("pom");
+    bomModel.setDependencyManagement(bomManagement);
+
+    // The dependency imports the same BOM, so its model needs the BOM too
+    Dependency imported = new Dependency();
+    imported.setGroupId(bom.getGroupId());
+    imported.setArtifactId(bom.getArtifactId());
+    imported.setVersion(bom.getVersion());
+    imported.setType("pom");
+    imported.setScope("import");
+    DependencyManagement depManagement = new DependencyManagement();
+    depManagement.addDependency(imported);
+    Model depModel = createModel(dep);
+    depModel.setDependencyManagement(depManagement);
+
+    Path repo = MavenRepo.create().add(bomModel).add(depModel, dep).getPath();
+
+    ResolutionRequest request = prepareRequestFor(repo.toUri(), dep);
+    request.addBom(bom);
+    resolver.resolve(request);
+
+    assertEquals(1, cacheEvents.size());
+    CacheEvent stats = cacheEvents.get(0);
+    assertEquals("descriptor", stats.getName());
+    assertTrue(stats.toString(), stats.getHits() > 0);
+  }
 }
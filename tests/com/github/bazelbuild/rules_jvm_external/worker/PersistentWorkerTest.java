@@ -0,0 +1,148 @@
+// Copyright 2024 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.github.bazelbuild.rules_jvm_external.worker;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PersistentWorkerTest {
+  @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void shouldRunOnceWithTheContentsOfAParamsFile() throws IOException {
+    Path params = temp.newFile("params").toPath();
+    Files.write(params, List.of("--output", "out.jar", "--sources", "in.jar"), UTF_8);
+
+    List<String[]> seen = new ArrayList<>();
+    PersistentWorker.run(new String[] {"@" + params}, seen::add);
+
+    assertEquals(1, seen.size());
+    assertArrayEquals(new String[] {"--output", "out.jar", "--sources", "in.jar"}, seen.get(0));
+  }
+
+  @Test
+  public void shouldAnswerJsonRequests() throws IOException {
+    String requests =
+        "{\"arguments\": [\"--output\", \"a.jar\"], \"inputs\": [{\"path\": \"in.jar\"}]}\n"
+            + "{\"arguments\": [\"fail\"], \"requestId\": 0}\n";
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    List<String[]> seen = Collections.synchronizedList(new ArrayList<>());
+    PersistentWorker.Action action =
+        args -> {
+          seen.add(args);
+          if ("fail".equals(args[0])) {
+            throw new IOException("Something went wrong");
+          }
+        };
+    new PersistentWorker(
+            action, new JsonWorkerProtocol(new ByteArrayInputStream(requests.getBytes(UTF_8)), out))
+        .serve();
+
+    String[] responses = out.toString(UTF_8).split("\n");
+    assertEquals(2, responses.length);
+    JsonObject first = new Gson().fromJson(responses[0], JsonObject.class);
+    assertEquals(0, first.get("exitCode").getAsInt());
+    JsonObject second = new Gson().fromJson(responses[1], JsonObject.class);
+    assertEquals(1, second.get("exitCode").getAsInt());
+    assertTrue(second.get("output").getAsString().contains("Something went wrong"));
+    assertArrayEquals(new String[] {"--output", "a.jar"}, seen.get(0));
+  }
+
+  @Test
+  public void shouldAnswerProtoRequests() throws IOException {
+    ByteArrayOutputStream requests = new ByteArrayOutputStream();
+    // arguments: "a", arguments: "b", an input (which is skipped), request_id: 0
+    writeDelimited(
+        requests, new byte[] {0x0a, 1, 'a', 0x0a, 1, 'b', 0x12, 4, 0x0a, 2, 'i', 'n', 0x28, 0x01});
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    List<String[]> seen = new ArrayList<>();
+    new PersistentWorker(
+            seen::add,
+            new ProtoWorkerProtocol(new ByteArrayInputStream(requests.toByteArray()), out))
+        .serve();
+
+    assertArrayEquals(new String[] {"a", "b"}, seen.get(0));
+    // A successful response to request 0 has nothing but default values, so is empty
+    assertArrayEquals(new byte[] {0}, out.toByteArray());
+  }
+
+  @Test
+  public void shouldRunMultiplexedRequestsAtTheSameTime() throws IOException {
+    ByteArrayOutputStream requests = new ByteArrayOutputStream();
+    // arguments: "first", request_id: 1
+    writeDelimited(requests, new byte[] {0x0a, 5, 'f', 'i', 'r', 's', 't', 0x18, 1});
+    // arguments: "second", request_id: 2
+    writeDelimited(requests, new byte[] {0x0a, 6, 's', 'e', 'c', 'o', 'n', 'd', 0x18, 2});
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    // The first request can only finish once the second has started
+    CountDownLatch secondStarted = new CountDownLatch(1);
+    PersistentWorker.Action action =
+        args -> {
+          if ("second".equals(args[0])) {
+            secondStarted.countDown();
+            return;
+          }
+          try {
+            if (!secondStarted.await(30, TimeUnit.SECONDS)) {
+              throw new IOException("Requests were not run at the same time");
+            }
+          } catch (InterruptedException e) {
+            throw new IOException(e);
+          }
+        };
+    new PersistentWorker(
+            action, new ProtoWorkerProtocol(new ByteArrayInputStream(requests.toByteArray()), out))
+        .serve();
+
+    // Both succeed, so each response only holds its request id
+    Set<Integer> requestIds = new HashSet<>();
+    byte[] bytes = out.toByteArray();
+    assertEquals(6, bytes.length);
+    for (int i = 0; i < bytes.length; i += 3) {
+      assertEquals(2, bytes[i]);
+      assertEquals(0x18, bytes[i + 1]);
+      requestIds.add((int) bytes[i + 2]);
+    }
+    assertEquals(Set.of(1, 2), requestIds);
+  }
+
+  private static void writeDelimited(ByteArrayOutputStream out, byte[] message) {
+    out.write(message.length);
+    out.write(message, 0, message.length);
+  }
+}